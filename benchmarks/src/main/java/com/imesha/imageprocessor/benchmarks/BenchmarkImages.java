@@ -0,0 +1,82 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 imesha
+ */
+
+package com.imesha.imageprocessor.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.util.Random;
+
+/**
+ * Generates the images the benchmarks run on. The same seed is used every time, so all runs see the same pixels.
+ */
+final class BenchmarkImages {
+    /**
+     * A single colour; the best case for the run length and entropy coders.
+     */
+    static final String FLAT = "flat";
+    /**
+     * Uniform random noise; the worst case for every codec.
+     */
+    static final String NOISE = "noise";
+    /**
+     * Smooth gradients and edges with mild sensor like noise, standing in for photographs.
+     */
+    static final String PHOTOGRAPHIC = "photographic";
+
+    private BenchmarkImages() {
+    }
+
+    static BufferedImage createRgb(int width, int height, String content) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        Random random = new Random(42);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0, index = y * width; x < width; x++, index++) {
+                if (content.equals(FLAT)) {
+                    pixels[index] = 0x7F9FBF;
+                } else if (content.equals(NOISE)) {
+                    pixels[index] = random.nextInt() & 0xFFFFFF;
+                } else {
+                    int r = photographic(x, y, width, height, 0, random);
+                    int g = photographic(x, y, width, height, 1, random);
+                    int b = photographic(x, y, width, height, 2, random);
+                    pixels[index] = r << 16 | g << 8 | b;
+                }
+            }
+        }
+        return image;
+    }
+
+    static BufferedImage createGray(int width, int height, String content) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        Random random = new Random(42);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0, index = y * width; x < width; x++, index++) {
+                int value;
+                if (content.equals(FLAT)) value = 0x9F;
+                else if (content.equals(NOISE)) value = random.nextInt(256);
+                else value = photographic(x, y, width, height, 1, random);
+                pixels[index] = (byte) value;
+            }
+        }
+        return image;
+    }
+
+    /**
+     * A few overlapping radial and linear gradients, a hard edge and +-2 levels of noise.
+     */
+    private static int photographic(int x, int y, int width, int height, int channel, Random random) {
+        double u = (double) x / width;
+        double v = (double) y / height;
+        double value = 90 + 60 * Math.sin(6 * u + channel) * Math.cos(4 * v)
+                + 50 * Math.exp(-((u - 0.3) * (u - 0.3) + (v - 0.6) * (v - 0.6)) * 20)
+                + (u + v > 1.2 ? 40 : 0)
+                + random.nextInt(5) - 2;
+        return Math.max(0, Math.min(255, (int) value));
+    }
+}
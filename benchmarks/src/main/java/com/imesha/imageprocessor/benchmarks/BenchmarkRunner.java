@@ -0,0 +1,27 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 imesha
+ */
+
+package com.imesha.imageprocessor.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler, so the allocation rate (gc.alloc.rate.norm, bytes per operation) is
+ * reported along with the throughput. Takes the usual JMH command line options, eg: a benchmark name regex and
+ * {@code -p size=1024}.
+ */
+public class BenchmarkRunner {
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 imesha
+ */
+
+package com.imesha.imageprocessor.benchmarks;
+
+import com.imesha.imageprocessor.util.compression.CompressedImage;
+import com.imesha.imageprocessor.util.compression.CodecRegistry;
+import com.imesha.imageprocessor.util.compression.ImageCompressor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of compressing and decompressing square gray scale images with every built in codec of the
+ * {@link CodecRegistry}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class CompressionBenchmark {
+
+    @Param({"rle", "huffman", "predictive"})
+    public String codec;
+
+    @Param({"256", "1024", "2048", "4096", "8192"})
+    public int size;
+
+    @Param({BenchmarkImages.FLAT, BenchmarkImages.NOISE, BenchmarkImages.PHOTOGRAPHIC})
+    public String content;
+
+    private ImageCompressor compressor;
+    private BufferedImage image;
+    private CompressedImage compressedImage;
+
+    @Setup
+    public void setUp() throws Exception {
+        compressor = CodecRegistry.getDefault().getCompressor(codec);
+        image = BenchmarkImages.createGray(size, size, content);
+        compressedImage = compressor.compress(image);
+    }
+
+    @Benchmark
+    public CompressedImage compress() {
+        return compressor.compress(image);
+    }
+
+    @Benchmark
+    public BufferedImage decompress() {
+        return compressor.decompress(compressedImage);
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 imesha
+ */
+
+package com.imesha.imageprocessor.benchmarks;
+
+import com.imesha.imageprocessor.util.ImageAnalyser;
+import com.imesha.imageprocessor.util.ImageConverter;
+import com.imesha.imageprocessor.util.ImageSampler;
+import com.imesha.imageprocessor.util.ImageUtils;
+import com.imesha.imageprocessor.util.QualityMetrics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the image operations in com.imesha.imageprocessor.util, over square images of each size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class ImageOperationsBenchmark {
+
+    @Param({"256", "1024", "2048", "4096", "8192"})
+    public int size;
+
+    @Param({BenchmarkImages.FLAT, BenchmarkImages.NOISE, BenchmarkImages.PHOTOGRAPHIC})
+    public String content;
+
+    private BufferedImage rgbImage;
+    private BufferedImage grayImage;
+    private BufferedImage downSampledImage;
+    private BufferedImage upSampledImage;
+
+    @Setup
+    public void setUp() throws Exception {
+        rgbImage = BenchmarkImages.createRgb(size, size, content);
+        grayImage = ImageConverter.convertToGrayScale(rgbImage);
+        downSampledImage = ImageSampler.downSample(grayImage);
+        upSampledImage = ImageSampler.upSample(downSampledImage);
+    }
+
+    @Benchmark
+    public BufferedImage convertToGrayScale() {
+        return ImageConverter.convertToGrayScale(rgbImage);
+    }
+
+    @Benchmark
+    public BufferedImage downSample() throws Exception {
+        return ImageSampler.downSample(grayImage);
+    }
+
+    @Benchmark
+    public BufferedImage upSample() {
+        return ImageSampler.upSample(downSampledImage);
+    }
+
+    @Benchmark
+    public double calculateAverageDistortion() throws Exception {
+        return ImageAnalyser.calculateAverageDistortion(grayImage, upSampledImage);
+    }
+
+    @Benchmark
+    public double calculateStandardDeviation() throws Exception {
+        return ImageAnalyser.calculateStandardDeviation(grayImage, upSampledImage);
+    }
+
+    @Benchmark
+    public QualityMetrics calculateMetrics() throws Exception {
+        return ImageAnalyser.calculateMetrics(grayImage, upSampledImage);
+    }
+
+    @Benchmark
+    public double calculateStructuralSimilarity() throws Exception {
+        return ImageAnalyser.calculateStructuralSimilarity(grayImage, upSampledImage);
+    }
+
+    @Benchmark
+    public BufferedImage deepCopy() {
+        return ImageUtils.deepCopy(grayImage);
+    }
+}
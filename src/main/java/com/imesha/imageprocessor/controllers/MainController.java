@@ -16,15 +16,19 @@
 
 package com.imesha.imageprocessor.controllers;
 
-import com.imesha.imageprocessor.util.ImageAnalyser;
-import com.imesha.imageprocessor.util.ImageConverter;
-import com.imesha.imageprocessor.util.ImageSampler;
-import com.imesha.imageprocessor.util.ImageUtils;
+import com.imesha.imageprocessor.ui.ProgressivePreview;
+import com.imesha.imageprocessor.util.AsyncImageProcessor;
+import com.imesha.imageprocessor.util.QualityMetrics;
+import com.imesha.imageprocessor.util.cache.ResultCache;
+import com.imesha.imageprocessor.util.compression.CodecRegistry;
 import com.imesha.imageprocessor.util.compression.CompressedImage;
-import com.imesha.imageprocessor.util.compression.CompressorFactory;
 import com.imesha.imageprocessor.util.compression.ImageCompressor;
+import com.imesha.imageprocessor.util.metrics.Metrics;
+import com.imesha.imageprocessor.util.metrics.PrintStreamReporter;
+import com.imesha.imageprocessor.util.pipeline.Pipeline;
+import com.imesha.imageprocessor.util.pipeline.Stage;
+import com.imesha.imageprocessor.util.pipeline.Stages;
 import javafx.application.Platform;
-import javafx.embed.swing.SwingFXUtils;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
 import javafx.fxml.FXML;
@@ -32,20 +36,26 @@ import javafx.fxml.Initializable;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
 import javafx.scene.control.MenuItem;
-import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.layout.Pane;
 import javafx.stage.FileChooser;
-import org.apache.commons.io.FileUtils;
 
-import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.File;
-import java.io.IOException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URL;
+import java.util.Collections;
 import java.util.Formatter;
 import java.util.Locale;
+import java.util.Map;
 import java.util.ResourceBundle;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiConsumer;
 
 public class MainController implements Initializable {
     @FXML
@@ -66,10 +76,31 @@ public class MainController implements Initializable {
     @FXML
     private Label messageLabel;
 
-    private BufferedImage bufferedImage;
-    private BufferedImage originalGrayImage;
+    private static final String IMAGE = "image";
+    private static final String GRAY = "gray";
+    private static final String DOWN_SAMPLED = "downSampled";
+    private static final String UP_SAMPLED = "upSampled";
+    private static final String METRICS = "metrics";
+    private static final String COMPRESSED = "compressed";
+    private static final String DECOMPRESSED = "decompressed";
+
+    private volatile BufferedImage bufferedImage;
+
+    /**
+     * Reads images off the UI thread. The processing runs on the pool of the pipeline's stages instead.
+     */
+    private final AsyncImageProcessor asyncProcessor = new AsyncImageProcessor.Builder()
+            .computeThreads(1).ioThreads(1).queueCapacity(4).build();
+    private CompletableFuture<Map<String, Object>> processing;
+
+    private ProgressivePreview imagePreview;
+    private ProgressivePreview previousImagePreview;
+    private ProgressivePreview additionalImagePreview;
 
     public void initialize(URL location, ResourceBundle resources) {
+        imagePreview = new ProgressivePreview(imageView);
+        previousImagePreview = new ProgressivePreview(previousImageView);
+        additionalImagePreview = new ProgressivePreview(additionalImageView);
         setOpenMenuItemActionListener();
         setProcessButtonActionListener();
     }
@@ -78,57 +109,99 @@ public class MainController implements Initializable {
     private void setProcessButtonActionListener() {
         this.processButton.setOnAction(new EventHandler<ActionEvent>() {
             public void handle(ActionEvent event) {
-                new Thread() {
-                    public void run() {
-                        try {
-                            // 1. Convert the image to gray scale and show in UI
-                            BufferedImage grayImage = ImageConverter.convertToGrayScale(bufferedImage);
-                            bufferedImage = grayImage;
-                            originalGrayImage = ImageUtils.deepCopy(grayImage);
-                            MainController.showImageInUI(grayImage, imageView);
-                            MainController.showMessage("Converted to Gray Scale", messageLabel);
-                            System.out.println(bufferedImage.getWidth() + "x" + bufferedImage.getHeight());
-
-                            // 2. The image will be down sampled and showed in the UI.
-                            BufferedImage downSampledImage = ImageSampler.downSample(bufferedImage);
-                            bufferedImage = downSampledImage;
-                            MainController.showImageInUI(downSampledImage, previousImageView);
-                            MainController.showMessage("Down sampled", messageLabel);
-                            System.out.println(bufferedImage.getWidth() + "x" + bufferedImage.getHeight());
-
-                            // 3. The down sampled image will then be up sampled
-                            BufferedImage upSampledImage = ImageSampler.upSample(bufferedImage);
-                            bufferedImage = upSampledImage;
-                            MainController.showImageInUI(upSampledImage, additionalImageView);
-                            MainController.showMessage("Up sampled", messageLabel);
-                            System.out.println(bufferedImage.getWidth() + "x" + bufferedImage.getHeight());
-
-                            // 4. Calculate and show the statistics.
-                            calculateAndShowDistortion();
-
-                            //Compress Images
-                            ImageCompressor compressor = CompressorFactory
-                                    .getInstance().getCompressor(CompressorFactory.RUN_LENGTH_CODING);
-                            CompressedImage compressedImage = compressor.compress(originalGrayImage);
-
-                            // Write the compressed image to a file.
-                            FileUtils.writeStringToFile(new File("/tmp/compress.rlc"),
-                                    compressedImage.getBinaryRepresentation());
-
-                            // Decompress the image
-                            BufferedImage decompressedImage = compressor.decompress(compressedImage);
-                            MainController.showImageInUI(decompressedImage, additionalImageView);
-
-                        } catch (Exception e) {
-                            System.out.println(e.getMessage());
-                            e.printStackTrace();
+                // A new run replaces the one still going, if any, whose stages are then dropped
+                if (processing != null) processing.cancel(true);
+                if (bufferedImage == null) {
+                    MainController.showMessage("Open an image first", messageLabel);
+                    return;
+                }
+                processing = createPipeline().start(Collections.singletonMap(IMAGE, bufferedImage),
+                        new Pipeline.StageListener() {
+                            public void onStageCompleted(String name, Object value) {
+                                showStageResult(name, value);
+                            }
+                        });
+                processing.whenComplete(new BiConsumer<Map<String, Object>, Throwable>() {
+                    public void accept(Map<String, Object> results, Throwable failure) {
+                        if (failure instanceof CompletionException) failure = failure.getCause();
+                        if (failure instanceof CancellationException) return;
+                        if (failure != null) {
+                            MainController.showMessage("Processing failed: " + failure.getMessage(), messageLabel);
+                            return;
                         }
+                        bufferedImage = (BufferedImage) results.get(UP_SAMPLED);
+                        // Run with -Dimageprocessor.metrics=true to see where the time went
+                        if (Metrics.isEnabled()) Metrics.report(new PrintStreamReporter(System.out));
+
+                        // Calculate and show the statistics.
+                        showDistortion((QualityMetrics) results.get(METRICS));
+                        additionalImagePreview.show((BufferedImage) results.get(DECOMPRESSED));
                     }
-                }.start();
+                });
             }
         });
     }
 
+    /**
+     * Creates the processing chain: the image is converted to gray scale, down sampled and then up sampled again,
+     * and the distortion between the gray and up sampled images is calculated. Meanwhile, the gray image is
+     * compressed to a file and decompressed from it. The results of every step are cached, so processing an image
+     * again does not repeat the work.
+     */
+    private static Pipeline createPipeline() {
+        final CodecRegistry codecs = CodecRegistry.getDefault();
+        final ImageCompressor compressor = codecs.getCompressor(CodecRegistry.RUN_LENGTH_CODING);
+        final File compressedFile = new File("/tmp/compress.rlc");
+        ResultCache cache = ResultCache.getDefault();
+        return new Pipeline.Builder()
+                .input(IMAGE)
+                .stage(Stages.cached(Stages.grayScale(GRAY, IMAGE), cache, "grayScale"))
+                .stage(Stages.cached(Stages.downSample(DOWN_SAMPLED, GRAY), cache, "downSample"))
+                .stage(Stages.cached(Stages.upSample(UP_SAMPLED, DOWN_SAMPLED), cache, "upSample"))
+                .stage(Stages.cached(Stages.metrics(METRICS, GRAY, UP_SAMPLED), cache, "metrics"))
+                .stage(Stages.cached(Stages.compress(COMPRESSED, GRAY, compressor), cache,
+                        "compress " + compressor.getParameters()))
+                .stage(new Stage(DECOMPRESSED, COMPRESSED) {
+                    protected Object process(Object[] inputs) throws Exception {
+                        // Write the compressed image to a file.
+                        OutputStream out = new FileOutputStream(compressedFile);
+                        try {
+                            out.write(((CompressedImage) inputs[0]).getData());
+                        } finally {
+                            out.close();
+                        }
+
+                        // Decompress the image from the file, with the codec named in its header
+                        InputStream in = new FileInputStream(compressedFile);
+                        try {
+                            return codecs.decompress(in);
+                        } finally {
+                            in.close();
+                        }
+                    }
+                })
+                .output(UP_SAMPLED, METRICS, DECOMPRESSED)
+                .build();
+    }
+
+    /**
+     * Shows the images produced by the processing chain as soon as they are ready.
+     */
+    private void showStageResult(String name, Object value) {
+        if (!(value instanceof BufferedImage)) return;
+        BufferedImage image = (BufferedImage) value;
+        if (name.equals(GRAY)) {
+            imagePreview.show(image);
+            MainController.showMessage("Converted to Gray Scale", messageLabel);
+        } else if (name.equals(DOWN_SAMPLED)) {
+            previousImagePreview.show(image);
+            MainController.showMessage("Down sampled", messageLabel);
+        } else if (name.equals(UP_SAMPLED)) {
+            additionalImagePreview.show(image);
+            MainController.showMessage("Up sampled", messageLabel);
+        }
+    }
+
     private void setOpenMenuItemActionListener() {
         // Open an image, then show the image in the imageView
         openMenuItem.setOnAction(new EventHandler<ActionEvent>() {
@@ -137,52 +210,36 @@ public class MainController implements Initializable {
                 FileChooser fileChooser = new FileChooser();
                 fileChooser.getExtensionFilters().add(extensionFilter);
                 fileChooser.setTitle("Select an Image to be opened");
-                File file = fileChooser.showOpenDialog(parentPane.getScene().getWindow());
+                final File file = fileChooser.showOpenDialog(parentPane.getScene().getWindow());
                 if (file == null) return;
-                try {
-                    bufferedImage = ImageIO.read(file);
-                    MainController.showImageInUI(bufferedImage, imageView);
-                } catch (IOException e) {
-                    System.out.println(e.getMessage());
-                }
+                // Read the file in the background, large images take a while to decode
+                asyncProcessor.readAsync(file).whenComplete(new BiConsumer<BufferedImage, Throwable>() {
+                    public void accept(BufferedImage image, Throwable failure) {
+                        if (failure instanceof CompletionException) failure = failure.getCause();
+                        if (failure != null) {
+                            MainController.showMessage("Could not open " + file.getName() + ": "
+                                    + failure.getMessage(), messageLabel);
+                            return;
+                        }
+                        bufferedImage = image;
+                        imagePreview.show(image);
+                    }
+                });
             }
         });
     }
 
 
     /**
-     * Calculates the distortion between the original gray image and the final up sampled image
-     */
-    private void calculateAndShowDistortion() {
-        try {
-            double distortion = ImageAnalyser.calculateAverageDistortion(this.originalGrayImage, this.bufferedImage);
-            double sd = ImageAnalyser.calculateStandardDeviation(this.originalGrayImage, this.bufferedImage);
-            StringBuilder stringBuilder = new StringBuilder();
-            Formatter formatter = new Formatter(stringBuilder, Locale.US);
-            formatter.format("Distortion : \n\t%.2f\nSD : \n\t%.2f", distortion, sd);
-            MainController.showMessage(formatter.toString(), messageLabel);
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-    }
-
-
-    /**
-     * Show a given BufferedImage in the UI.
-     *
-     * @param bufferedImage The image to be shown in the UI
-     * @param imageView     The JavaFX ImageView element in which the BufferedImage to be shown.
+     * Shows the distortion between the original gray image and the final up sampled image
      */
-    private static void showImageInUI(final BufferedImage bufferedImage, final ImageView imageView) {
-        Platform.runLater(new Runnable() {
-            public void run() {
-                Image loadedImage = SwingFXUtils.toFXImage(bufferedImage, null);
-                imageView.setImage(loadedImage);
-                imageView.setPreserveRatio(true);
-                imageView.setSmooth(true);
-                imageView.setCache(true);
-            }
-        });
+    private void showDistortion(QualityMetrics metrics) {
+        StringBuilder stringBuilder = new StringBuilder();
+        Formatter formatter = new Formatter(stringBuilder, Locale.US);
+        formatter.format("Distortion : \n\t%.2f\nSD : \n\t%.2f\nPSNR : \n\t%.2f dB",
+                metrics.getMeanAbsoluteError(), metrics.getRootMeanSquaredError(),
+                metrics.getPeakSignalToNoiseRatio());
+        MainController.showMessage(formatter.toString(), messageLabel);
     }
 
 
@@ -0,0 +1,339 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 imesha
+ */
+
+package com.imesha.imageprocessor.main;
+
+import com.imesha.imageprocessor.util.ImageAnalyser;
+import com.imesha.imageprocessor.util.ImageBufferPool;
+import com.imesha.imageprocessor.util.ImageConverter;
+import com.imesha.imageprocessor.util.ImageSampler;
+import com.imesha.imageprocessor.util.cache.ResultCache;
+import com.imesha.imageprocessor.util.compression.CompressedImage;
+import com.imesha.imageprocessor.util.compression.CodecRegistry;
+import com.imesha.imageprocessor.util.compression.ImageCodecProvider;
+import com.imesha.imageprocessor.util.compression.ImageCompressor;
+import com.imesha.imageprocessor.util.metrics.Metrics;
+import com.imesha.imageprocessor.util.metrics.PrintStreamReporter;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Headless batch mode. Runs the same chain as the UI (gray scale, down sample, up sample, distortion, compression)
+ * over every image in a directory.
+ * <p>
+ * The work is split into decode, process and encode stages, each with its own worker threads. The stages are
+ * connected by bounded queues, so a fast stage blocks when the next one falls behind instead of piling up decoded
+ * images in memory. The gray scale, down and up sampled images are taken from the shared {@link ImageBufferPool}
+ * and given back once done with. At the end, the throughput and the per stage latencies are reported.
+ * <p>
+ * With --cache, compressed images are looked up in the shared {@link ResultCache} by the content of the gray scale
+ * image, so images seen before, in this run or an earlier one, are not compressed again.
+ * <p>
+ * With --metrics, every operation and codec call of the chain is measured and the {@link Metrics} of each are
+ * reported at the end too.
+ * <pre>
+ *     ImageProcessor --batch &lt;input directory&gt; [--output &lt;directory&gt;] [--workers n] [--queue n]
+ *                            [--codec rle|huffman|predictive|...] [--cache] [--metrics]
+ * </pre>
+ * The codec is any of the {@link CodecRegistry}, by name.
+ */
+public class BatchProcessor {
+
+    private static final String USAGE = "Usage: ImageProcessor --batch <input directory> [--output <directory>] "
+            + "[--workers n] [--queue n] [--codec name] [--cache] [--metrics]";
+
+    /**
+     * Marks the end of the work in a queue.
+     */
+    private static final Job END = new Job(null);
+
+    private final File[] files;
+    private final File outputDirectory;
+    private final int workers;
+    private final int compressorType;
+    private final ResultCache cache;
+
+    private final BlockingQueue<Job> decodedQueue;
+    private final BlockingQueue<Job> processedQueue;
+
+    private final StageLatencies decodeLatencies = new StageLatencies("decode");
+    private final StageLatencies processLatencies = new StageLatencies("process");
+    private final StageLatencies encodeLatencies = new StageLatencies("encode");
+    private final AtomicInteger nextFile = new AtomicInteger();
+    private final AtomicInteger completed = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final ImageBufferPool bufferPool = ImageBufferPool.getDefault();
+
+    /**
+     * One image on its way through the stages.
+     */
+    private static final class Job {
+        final File source;
+        BufferedImage image;
+        BufferedImage grayImage;
+
+        Job(File source) {
+            this.source = source;
+        }
+    }
+
+    /**
+     * @param compressorType The format of the codec of the {@link CodecRegistry} to compress with
+     * @param cache          The cache of compressed images, or null to compress every image
+     */
+    public BatchProcessor(File[] files, File outputDirectory, int workers, int queueSize, int compressorType,
+                          ResultCache cache) {
+        this.files = files;
+        this.outputDirectory = outputDirectory;
+        this.workers = workers;
+        this.compressorType = compressorType;
+        this.cache = cache;
+        this.decodedQueue = new ArrayBlockingQueue<Job>(queueSize);
+        this.processedQueue = new ArrayBlockingQueue<Job>(queueSize);
+    }
+
+    public static void main(String[] args) throws Exception {
+        File input = null;
+        File output = null;
+        int workers = Runtime.getRuntime().availableProcessors();
+        int queueSize = -1;
+        int compressorType = CodecRegistry.RUN_LENGTH_CODING;
+        boolean cached = false;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("--output")) output = new File(args[++i]);
+                else if (args[i].equals("--workers")) workers = Integer.parseInt(args[++i]);
+                else if (args[i].equals("--queue")) queueSize = Integer.parseInt(args[++i]);
+                else if (args[i].equals("--codec")) compressorType = parseCodec(args[++i]);
+                else if (args[i].equals("--cache")) cached = true;
+                else if (args[i].equals("--metrics")) Metrics.setEnabled(true);
+                else if (input == null && !args[i].startsWith("--")) input = new File(args[i]);
+                else throw new IllegalArgumentException("Unknown argument " + args[i]);
+            }
+        } catch (RuntimeException e) {
+            System.err.println(e.getMessage() == null ? USAGE : e.getMessage() + "\n" + USAGE);
+            System.exit(2);
+        }
+        if (input == null || !input.isDirectory() || workers < 1) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        if (output != null && !output.isDirectory() && !output.mkdirs()) {
+            System.err.println("Can not create " + output);
+            System.exit(2);
+        }
+
+        File[] files = input.listFiles();
+        List<File> images = new ArrayList<File>();
+        for (File file : files == null ? new File[0] : files) {
+            if (file.isFile()) images.add(file);
+        }
+        BatchProcessor processor = new BatchProcessor(images.toArray(new File[images.size()]), output, workers,
+                queueSize > 0 ? queueSize : 2 * workers, compressorType, cached ? ResultCache.getDefault() : null);
+        processor.run();
+        if (processor.failed.get() > 0) System.exit(1);
+    }
+
+    private static int parseCodec(String name) {
+        ImageCodecProvider codec = CodecRegistry.getDefault().getProvider(name);
+        if (codec != null) return codec.getFormat();
+        StringBuilder names = new StringBuilder();
+        for (ImageCodecProvider provider : CodecRegistry.getDefault().getProviders()) {
+            names.append(names.length() == 0 ? "" : ", ").append(provider.getName());
+        }
+        throw new IllegalArgumentException("Unknown codec " + name + ", the codecs are " + names);
+    }
+
+    /**
+     * Processes all the files and prints the report.
+     */
+    public void run() throws InterruptedException {
+        long start = System.nanoTime();
+        List<Thread> threads = new ArrayList<Thread>();
+        AtomicInteger decoders = new AtomicInteger(workers);
+        AtomicInteger processors = new AtomicInteger(workers);
+        for (int i = 0; i < workers; i++) {
+            threads.add(new StageWorker("decode-" + i, null, decodedQueue, decoders) {
+                Job next() {
+                    int index = nextFile.getAndIncrement();
+                    return index < files.length ? new Job(files[index]) : END;
+                }
+
+                void process(Job job) throws Exception {
+                    decode(job);
+                }
+            });
+            threads.add(new StageWorker("process-" + i, decodedQueue, processedQueue, processors) {
+                void process(Job job) throws Exception {
+                    processImage(job);
+                }
+            });
+            threads.add(new StageWorker("encode-" + i, processedQueue, null, null) {
+                void process(Job job) throws Exception {
+                    encode(job);
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        report(System.nanoTime() - start);
+    }
+
+    private void decode(Job job) throws IOException {
+        long start = System.nanoTime();
+        job.image = ImageIO.read(job.source);
+        if (job.image == null) throw new IOException("Not a readable image");
+        bytesRead.addAndGet(job.source.length());
+        decodeLatencies.record(System.nanoTime() - start);
+    }
+
+    private void processImage(Job job) throws Exception {
+        long start = System.nanoTime();
+        int width = job.image.getWidth();
+        int height = job.image.getHeight();
+        BufferedImage grayImage = bufferPool.acquire(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        BufferedImage downSampledImage = null;
+        BufferedImage upSampledImage = null;
+        boolean done = false;
+        try {
+            ImageConverter.convertToGrayScale(job.image, grayImage);
+            job.image = null;
+            downSampledImage = ImageSampler.downSample(grayImage,
+                    bufferPool.acquire(width / 2, height / 2, BufferedImage.TYPE_BYTE_GRAY));
+            upSampledImage = ImageSampler.upSample(downSampledImage,
+                    bufferPool.acquire(width / 2 * 2, height / 2 * 2, BufferedImage.TYPE_BYTE_GRAY));
+            // The up sampled image drops the last row and column of odd sized images, so only compare what is left
+            if (upSampledImage.getWidth() == width && upSampledImage.getHeight() == height) {
+                ImageAnalyser.calculateMetrics(grayImage, upSampledImage);
+            }
+            done = true;
+        } finally {
+            bufferPool.release(downSampledImage);
+            bufferPool.release(upSampledImage);
+            // The gray image goes on to be encoded, unless processing failed
+            if (done) job.grayImage = grayImage;
+            else bufferPool.release(grayImage);
+        }
+        processLatencies.record(System.nanoTime() - start);
+    }
+
+    private void encode(Job job) throws IOException {
+        long start = System.nanoTime();
+        try {
+            ImageCompressor compressor = CodecRegistry.getDefault().getCompressor(compressorType);
+            CompressedImage compressedImage = null;
+            if (cache != null) compressedImage = cache.compress(job.grayImage, compressor);
+            if (outputDirectory == null) {
+                if (compressedImage == null) compressor.compress(job.grayImage);
+            } else {
+                String extension = CodecRegistry.getDefault().getProvider(compressorType).getFileExtension();
+                OutputStream out = new BufferedOutputStream(
+                        new FileOutputStream(new File(outputDirectory, job.source.getName() + extension)));
+                try {
+                    if (compressedImage != null) out.write(compressedImage.getData(), 0, compressedImage.getSize());
+                    else compressor.compress(job.grayImage, out);
+                } finally {
+                    out.close();
+                }
+            }
+            encodeLatencies.record(System.nanoTime() - start);
+            completed.incrementAndGet();
+        } finally {
+            bufferPool.release(job.grayImage);
+            job.grayImage = null;
+        }
+    }
+
+    private void report(long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        System.out.println(String.format(Locale.US, "%d images processed, %d failed in %.2f s", completed.get(),
+                failed.get(), seconds));
+        System.out.println(String.format(Locale.US, "Throughput: %.2f images/s, %.2f MB/s",
+                completed.get() / seconds, bytesRead.get() / 1e6 / seconds));
+        for (StageLatencies latencies : new StageLatencies[]{decodeLatencies, processLatencies, encodeLatencies}) {
+            System.out.println(String.format(Locale.US, "%-8s p50 %8.2f ms   p99 %8.2f ms", latencies.getName(),
+                    latencies.getPercentile(50) / 1e6, latencies.getPercentile(99) / 1e6));
+        }
+        System.out.println(bufferPool);
+        if (cache != null) System.out.println(cache);
+        if (Metrics.isEnabled()) Metrics.report(new PrintStreamReporter(System.out));
+    }
+
+    /**
+     * A worker of a stage. Takes jobs from the input queue and hands them to the output queue. When the input
+     * ends, the last worker of the stage to finish ends the output, once for every worker of the next stage.
+     */
+    private abstract class StageWorker extends Thread {
+        private final BlockingQueue<Job> input;
+        private final BlockingQueue<Job> output;
+        private final AtomicInteger runningWorkers;
+
+        StageWorker(String name, BlockingQueue<Job> input, BlockingQueue<Job> output, AtomicInteger runningWorkers) {
+            super(name);
+            this.input = input;
+            this.output = output;
+            this.runningWorkers = runningWorkers;
+        }
+
+        Job next() throws InterruptedException {
+            return input.take();
+        }
+
+        abstract void process(Job job) throws Exception;
+
+        @Override
+        public void run() {
+            try {
+                for (Job job = next(); job != END; job = next()) {
+                    try {
+                        process(job);
+                    } catch (Throwable e) {
+                        // Errors too, eg: running out of memory on a huge image, which only fails that image
+                        failed.incrementAndGet();
+                        System.err.println(job.source + ": " + e);
+                        continue;
+                    }
+                    if (output != null) output.put(job);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                // The next stage must be ended whatever happened here, or it would wait for jobs forever
+                if (output != null && runningWorkers.decrementAndGet() == 0) endOutput();
+            }
+        }
+
+        private void endOutput() {
+            boolean interrupted = Thread.interrupted();
+            for (int i = 0; i < workers; ) {
+                try {
+                    output.put(END);
+                    i++;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -18,8 +18,14 @@ package com.imesha.imageprocessor.main;
 
 import com.imesha.imageprocessor.ui.ImageProcessorUI;
 
+import java.util.Arrays;
+
 public class ImageProcessor {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("--batch")) {
+            BatchProcessor.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
         ImageProcessorUI.main(args);
     }
 }
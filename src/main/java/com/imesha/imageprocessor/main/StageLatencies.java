@@ -0,0 +1,47 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 imesha
+ */
+
+package com.imesha.imageprocessor.main;
+
+import java.util.Arrays;
+
+/**
+ * Collects the latencies of one stage of the batch processor and gives percentiles of them. Thread safe.
+ */
+class StageLatencies {
+    private final String name;
+    private long[] latencies = new long[1024];
+    private int count;
+
+    StageLatencies(String name) {
+        this.name = name;
+    }
+
+    synchronized void record(long nanos) {
+        if (count == latencies.length) latencies = Arrays.copyOf(latencies, count * 2);
+        latencies[count++] = nanos;
+    }
+
+    /**
+     * @param percentile The percentile, 0 - 100
+     * @return The latency in nanoseconds below which the given percentage of the recorded latencies fall, 0 when
+     * nothing has been recorded
+     */
+    synchronized long getPercentile(double percentile) {
+        if (count == 0) return 0;
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100 * count);
+        return sorted[Math.max(0, Math.min(count, rank) - 1)];
+    }
+
+    synchronized int getCount() {
+        return count;
+    }
+
+    String getName() {
+        return name;
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 imesha
+ */
+
+package com.imesha.imageprocessor.ui;
+
+import com.imesha.imageprocessor.util.PixelAccess;
+import com.imesha.imageprocessor.util.Resampler;
+import javafx.application.Platform;
+import javafx.scene.image.ImageView;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shows {@link BufferedImage}s in an {@link ImageView} a step at a time, so that something is on screen long before a
+ * large image has been converted:
+ * <ol>
+ *     <li>a preview of at most {@value #PREVIEW_SIZE} pixels a side, point sampled, which only reads as many pixels
+ *     as it has</li>
+ *     <li>the same preview, box filtered from every pixel of the image</li>
+ *     <li>the image at full resolution, converted in bands of rows, and shown once all of it is there</li>
+ * </ol>
+ * The conversion runs in the background. The FX thread only copies finished bands into a {@link WritableImage}
+ * through its {@link javafx.scene.image.PixelWriter}, from a byte buffer which is reused from band to band. The
+ * writable images are kept and written over by the next image of the same size. Showing another image stops the
+ * steps left of the previous one.
+ */
+public class ProgressivePreview {
+
+    /**
+     * The longest side of the preview, enough for the image views of the UI on high density screens.
+     */
+    public static final int PREVIEW_SIZE = 512;
+
+    /**
+     * The number of pixels converted and handed to the FX thread at a time.
+     */
+    private static final int BAND_PIXELS = 1 << 20;
+
+    private static final PixelFormat<ByteBuffer> FORMAT = PixelFormat.getByteBgraPreInstance();
+
+    private static final Executor EXECUTOR = Executors.newFixedThreadPool(2, new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "image-preview-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * The displayed level of every sample of a TYPE_BYTE_GRAY image, as {@link BufferedImage#getRGB} gives it.
+     */
+    private static final byte[] GRAY_LEVELS = new byte[256];
+
+    static {
+        BufferedImage pixel = new BufferedImage(1, 1, BufferedImage.TYPE_BYTE_GRAY);
+        for (int sample = 0; sample < 256; sample++) {
+            pixel.getRaster().setSample(0, 0, 0, sample);
+            GRAY_LEVELS[sample] = (byte) pixel.getRGB(0, 0);
+        }
+    }
+
+    private final ImageView imageView;
+    private final AtomicInteger generation = new AtomicInteger();
+
+    // Only used on the FX thread
+    private WritableImage previewImage;
+    private WritableImage fullImage;
+
+    public ProgressivePreview(ImageView imageView) {
+        this.imageView = imageView;
+        imageView.setPreserveRatio(true);
+        imageView.setSmooth(true);
+        imageView.setCache(true);
+    }
+
+    /**
+     * Starts showing the image. May be called from any thread, and returns at once.
+     */
+    public void show(final BufferedImage image) {
+        final int current = generation.incrementAndGet();
+        EXECUTOR.execute(new Runnable() {
+            public void run() {
+                try {
+                    render(image, current);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+    }
+
+    private void render(BufferedImage image, int current) throws InterruptedException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        double scale = Math.min(1, (double) PREVIEW_SIZE / Math.max(width, height));
+        int previewWidth = Math.max(1, (int) Math.round(width * scale));
+        int previewHeight = Math.max(1, (int) Math.round(height * scale));
+
+        if (previewWidth != width || previewHeight != height) {
+            ByteBuffer preview = ByteBuffer.allocate(previewWidth * previewHeight * 4);
+            pointSample(image, previewWidth, previewHeight, preview.array());
+            if (!write(current, false, previewWidth, previewHeight, 0, previewHeight, preview, true)) return;
+
+            BufferedImage filtered = Resampler.resample(image, previewWidth, previewHeight, Resampler.Filter.BOX);
+            if (generation.get() != current) return;
+            toBgra(filtered, 0, previewHeight, preview.array(), new int[previewWidth * previewHeight]);
+            if (!write(current, false, previewWidth, previewHeight, 0, previewHeight, preview, true)) return;
+        }
+
+        int bandHeight = Math.min(height, Math.max(1, BAND_PIXELS / width));
+        ByteBuffer band = ByteBuffer.allocate(width * bandHeight * 4);
+        int[] rgb = new int[width * bandHeight];
+        for (int y = 0; y < height; y += bandHeight) {
+            if (generation.get() != current) return;
+            int rows = Math.min(bandHeight, height - y);
+            toBgra(image, y, rows, band.array(), rgb);
+            if (!write(current, true, width, height, y, rows, band, y + rows == height)) return;
+        }
+    }
+
+    /**
+     * Hands a band to the FX thread and waits for it to be copied, so that the buffer can be used again.
+     *
+     * @param full   Whether the band belongs to the full resolution image rather than to the preview
+     * @param width  The width of the image the band belongs to
+     * @param height The height of the image the band belongs to
+     * @param show   Whether to put the image in the view once the band is written
+     * @return Whether the image is still the one to be shown
+     */
+    private boolean write(final int current, final boolean full, final int width, final int height, final int y,
+                          final int rows, final ByteBuffer band, final boolean show) throws InterruptedException {
+        final CountDownLatch written = new CountDownLatch(1);
+        final AtomicBoolean stillCurrent = new AtomicBoolean();
+        Platform.runLater(new Runnable() {
+            public void run() {
+                try {
+                    if (generation.get() != current) return;
+                    WritableImage target = getTarget(full, width, height);
+                    band.rewind();
+                    target.getPixelWriter().setPixels(0, y, width, rows, FORMAT, band, width * 4);
+                    if (show) imageView.setImage(target);
+                    stillCurrent.set(true);
+                } finally {
+                    written.countDown();
+                }
+            }
+        });
+        written.await();
+        return stillCurrent.get();
+    }
+
+    /**
+     * Gives the preview or the full resolution image, created again if the size has changed. Runs on the FX
+     * thread.
+     */
+    private WritableImage getTarget(boolean full, int width, int height) {
+        WritableImage target = full ? fullImage : previewImage;
+        if (target != null && (int) target.getWidth() == width && (int) target.getHeight() == height) return target;
+        target = new WritableImage(width, height);
+        if (full) fullImage = target;
+        else previewImage = target;
+        return target;
+    }
+
+    /**
+     * Takes the pixel nearest to the centre of every preview pixel.
+     */
+    private static void pointSample(BufferedImage image, int previewWidth, int previewHeight, byte[] bgra) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        boolean gray = image.getType() == BufferedImage.TYPE_BYTE_GRAY;
+        int index = 0;
+        for (int j = 0; j < previewHeight; j++) {
+            int y = (int) ((2L * j + 1) * height / (2L * previewHeight));
+            for (int i = 0; i < previewWidth; i++, index += 4) {
+                int x = (int) ((2L * i + 1) * width / (2L * previewWidth));
+                if (gray) {
+                    byte level = GRAY_LEVELS[image.getRaster().getSample(x, y, 0)];
+                    bgra[index] = bgra[index + 1] = bgra[index + 2] = level;
+                    bgra[index + 3] = (byte) 0xFF;
+                } else {
+                    putPremultiplied(image.getRGB(x, y), bgra, index);
+                }
+            }
+        }
+    }
+
+    /**
+     * Converts rows of the image to premultiplied BGRA bytes.
+     *
+     * @param rgb An array for at least the pixels of the rows
+     */
+    private static void toBgra(BufferedImage image, int fromRow, int rows, byte[] bgra, int[] rgb) {
+        int width = image.getWidth();
+        if (image.getType() == BufferedImage.TYPE_BYTE_GRAY) {
+            PixelAccess.Band band = PixelAccess.band(image, 0);
+            int[] row = new int[width];
+            for (int j = 0, index = 0; j < rows; j++) {
+                band.getRow(fromRow + j, row);
+                for (int i = 0; i < width; i++, index += 4) {
+                    byte level = GRAY_LEVELS[row[i]];
+                    bgra[index] = bgra[index + 1] = bgra[index + 2] = level;
+                    bgra[index + 3] = (byte) 0xFF;
+                }
+            }
+            return;
+        }
+        image.getRGB(0, fromRow, width, rows, rgb, 0, width);
+        for (int k = 0, length = width * rows; k < length; k++) {
+            putPremultiplied(rgb[k], bgra, 4 * k);
+        }
+    }
+
+    private static void putPremultiplied(int argb, byte[] bgra, int index) {
+        int alpha = argb >>> 24;
+        int red = (argb >> 16) & 0xFF;
+        int green = (argb >> 8) & 0xFF;
+        int blue = argb & 0xFF;
+        if (alpha != 0xFF) {
+            red = (red * alpha + 127) / 255;
+            green = (green * alpha + 127) / 255;
+            blue = (blue * alpha + 127) / 255;
+        }
+        bgra[index] = (byte) blue;
+        bgra[index + 1] = (byte) green;
+        bgra[index + 2] = (byte) red;
+        bgra[index + 3] = (byte) alpha;
+    }
+}
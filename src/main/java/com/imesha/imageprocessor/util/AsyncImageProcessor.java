@@ -0,0 +1,427 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 imesha
+ */
+
+package com.imesha.imageprocessor.util;
+
+import com.imesha.imageprocessor.util.compression.CompressedImage;
+import com.imesha.imageprocessor.util.compression.ImageCompressor;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * Runs compression and the image operations asynchronously, giving {@link CompletableFuture}s of their results.
+ * <p>
+ * Work is split between two bounded executors. Computations (compression from and to memory, gray scale
+ * conversion, sampling, metrics) run on a fixed number of threads. Operations on streams and files run on the I/O
+ * executor, which uses a virtual thread per task when the runtime has them and platform threads otherwise, with
+ * at most a given number of them running at a time. Each executor holds a bounded number of waiting tasks; when
+ * it is full, the returned future fails with a {@link RejectedExecutionException}, so a server driving many
+ * requests gets pushed back instead of piling up threads or queued images.
+ * <p>
+ * Cancelling a returned future with {@code cancel(true)} interrupts the task if it is running, and a task which
+ * has not started yet never starts. A task which runs longer than the timeout fails with a
+ * {@link TimeoutException} and is interrupted the same way. As with any {@link CompletableFuture}, stages chained
+ * on a cancelled or timed out future fail with it. The image operations do not check for interrupts, so a running
+ * computation finishes before its thread is free again, but its result is dropped; streams and channels which are
+ * interruptible stop right away.
+ * <pre>
+ *     AsyncImageProcessor processor = new AsyncImageProcessor.Builder().timeout(10, TimeUnit.SECONDS).build();
+ *     processor.readAsync(file)
+ *             .thenCompose(image -&gt; processor.convertToGrayScaleAsync(image))
+ *             .thenCompose(gray -&gt; processor.compressAsync(compressor, gray));
+ * </pre>
+ */
+public class AsyncImageProcessor implements Closeable {
+
+    private final ThreadPoolExecutor computeExecutor;
+    private final Executor ioExecutor;
+    private final ExecutorService ioThreads;
+    private final ScheduledThreadPoolExecutor timer;
+    private final long timeoutNanos;
+
+    private AsyncImageProcessor(Builder builder) {
+        this.computeExecutor = new ThreadPoolExecutor(builder.computeThreads, builder.computeThreads, 60,
+                TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(builder.queueCapacity),
+                new NamedThreadFactory("image-compute-"));
+        this.computeExecutor.allowCoreThreadTimeOut(true);
+        ExecutorService virtualThreads = builder.virtualThreads ? newVirtualThreadExecutor() : null;
+        if (virtualThreads != null) {
+            this.ioThreads = virtualThreads;
+            this.ioExecutor = new BoundedExecutor(virtualThreads, builder.ioThreads, builder.queueCapacity);
+        } else {
+            ThreadPoolExecutor platformThreads = new ThreadPoolExecutor(builder.ioThreads, builder.ioThreads, 60,
+                    TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(builder.queueCapacity),
+                    new NamedThreadFactory("image-io-"));
+            platformThreads.allowCoreThreadTimeOut(true);
+            this.ioThreads = platformThreads;
+            this.ioExecutor = platformThreads;
+        }
+        this.timer = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("image-timeout-"));
+        this.timer.setRemoveOnCancelPolicy(true);
+        this.timeoutNanos = builder.timeoutNanos;
+    }
+
+    /**
+     * @return Whether the I/O tasks run on virtual threads
+     */
+    public boolean usesVirtualThreads() {
+        return ioExecutor instanceof BoundedExecutor;
+    }
+
+    public CompletableFuture<CompressedImage> compressAsync(final ImageCompressor compressor,
+                                                            final BufferedImage image) {
+        return supplyAsync(new Callable<CompressedImage>() {
+            public CompressedImage call() {
+                return compressor.compress(image);
+            }
+        });
+    }
+
+    /**
+     * Compresses the image to the stream, on the I/O executor. The stream is not closed.
+     */
+    public CompletableFuture<Void> compressAsync(final ImageCompressor compressor, final BufferedImage image,
+                                                 final OutputStream out) {
+        return supplyIoAsync(new Callable<Void>() {
+            public Void call() throws IOException {
+                compressor.compress(image, out);
+                return null;
+            }
+        });
+    }
+
+    public CompletableFuture<BufferedImage> decompressAsync(final ImageCompressor compressor,
+                                                            final CompressedImage compressedImage) {
+        return supplyAsync(new Callable<BufferedImage>() {
+            public BufferedImage call() {
+                return compressor.decompress(compressedImage);
+            }
+        });
+    }
+
+    /**
+     * Decompresses an image from the stream, on the I/O executor. The stream is not closed.
+     */
+    public CompletableFuture<BufferedImage> decompressAsync(final ImageCompressor compressor, final InputStream in) {
+        return supplyIoAsync(new Callable<BufferedImage>() {
+            public BufferedImage call() throws IOException {
+                return compressor.decompress(in);
+            }
+        });
+    }
+
+    /**
+     * Reads an image file with {@link ImageIO}, on the I/O executor.
+     */
+    public CompletableFuture<BufferedImage> readAsync(final File file) {
+        return supplyIoAsync(new Callable<BufferedImage>() {
+            public BufferedImage call() throws IOException {
+                BufferedImage image = ImageIO.read(file);
+                if (image == null) throw new IOException("Not a readable image: " + file);
+                return image;
+            }
+        });
+    }
+
+    /**
+     * Writes an image file with {@link ImageIO}, on the I/O executor.
+     *
+     * @param format The informal name of the format, such as "png"
+     */
+    public CompletableFuture<Void> writeAsync(final BufferedImage image, final String format, final File file) {
+        return supplyIoAsync(new Callable<Void>() {
+            public Void call() throws IOException {
+                if (!ImageIO.write(image, format, file)) throw new IOException("No writer for format " + format);
+                return null;
+            }
+        });
+    }
+
+    public CompletableFuture<BufferedImage> convertToGrayScaleAsync(final BufferedImage image) {
+        return supplyAsync(new Callable<BufferedImage>() {
+            public BufferedImage call() {
+                return ImageConverter.convertToGrayScale(image);
+            }
+        });
+    }
+
+    public CompletableFuture<BufferedImage> downSampleAsync(final BufferedImage image) {
+        return supplyAsync(new Callable<BufferedImage>() {
+            public BufferedImage call() throws Exception {
+                return ImageSampler.downSample(image);
+            }
+        });
+    }
+
+    public CompletableFuture<BufferedImage> upSampleAsync(final BufferedImage image) {
+        return supplyAsync(new Callable<BufferedImage>() {
+            public BufferedImage call() {
+                return ImageSampler.upSample(image);
+            }
+        });
+    }
+
+    public CompletableFuture<BufferedImage> resampleAsync(final BufferedImage image, final int width,
+                                                          final int height, final Resampler.Filter filter) {
+        return supplyAsync(new Callable<BufferedImage>() {
+            public BufferedImage call() {
+                return Resampler.resample(image, width, height, filter);
+            }
+        });
+    }
+
+    public CompletableFuture<QualityMetrics> calculateMetricsAsync(final BufferedImage originalImage,
+                                                                   final BufferedImage modifiedImage) {
+        return supplyAsync(new Callable<QualityMetrics>() {
+            public QualityMetrics call() throws Exception {
+                return ImageAnalyser.calculateMetrics(originalImage, modifiedImage);
+            }
+        });
+    }
+
+    /**
+     * Runs a computation on the compute executor.
+     */
+    public <T> CompletableFuture<T> supplyAsync(Callable<T> callable) {
+        return submit(callable, computeExecutor);
+    }
+
+    /**
+     * Runs a task which waits on streams, files or the network on the I/O executor.
+     */
+    public <T> CompletableFuture<T> supplyIoAsync(Callable<T> callable) {
+        return submit(callable, ioExecutor);
+    }
+
+    /**
+     * Fails the future with a {@link TimeoutException} if it is not done in time, and cancels it, which interrupts
+     * the task if the future is one of those given by this class.
+     *
+     * @return The given future
+     */
+    public <T> CompletableFuture<T> withTimeout(final CompletableFuture<T> future, long timeout, TimeUnit unit) {
+        final ScheduledFuture<?> timeoutTask = timer.schedule(new Runnable() {
+            public void run() {
+                if (future.completeExceptionally(new TimeoutException("Timed out"))) future.cancel(true);
+            }
+        }, timeout, unit);
+        future.whenComplete(new BiConsumer<T, Throwable>() {
+            public void accept(T value, Throwable failure) {
+                timeoutTask.cancel(false);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Stops taking tasks. Tasks which have been taken still run.
+     */
+    public void close() {
+        computeExecutor.shutdown();
+        ioThreads.shutdown();
+        timer.shutdown();
+    }
+
+    private <T> CompletableFuture<T> submit(Callable<T> callable, Executor executor) {
+        Task<T> task = new Task<T>(callable);
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.completeExceptionally(e);
+            return task;
+        }
+        if (timeoutNanos > 0) withTimeout(task, timeoutNanos, TimeUnit.NANOSECONDS);
+        return task;
+    }
+
+    /**
+     * A future which runs its own computation, and interrupts it when cancelled.
+     */
+    private static final class Task<T> extends CompletableFuture<T> implements Runnable {
+        private final Callable<T> callable;
+        private Thread runner;
+
+        Task(Callable<T> callable) {
+            this.callable = callable;
+        }
+
+        public void run() {
+            synchronized (this) {
+                // Cancelled or timed out while waiting
+                if (isDone()) return;
+                runner = Thread.currentThread();
+            }
+            try {
+                complete(callable.call());
+            } catch (Throwable e) {
+                completeExceptionally(e);
+            } finally {
+                synchronized (this) {
+                    runner = null;
+                }
+                // Do not leave an interrupt meant for this task to the next one on the thread
+                Thread.interrupted();
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (mayInterruptIfRunning) {
+                synchronized (this) {
+                    if (runner != null) runner.interrupt();
+                }
+            }
+            return cancelled;
+        }
+    }
+
+    /**
+     * Hands tasks to an unbounded executor, with at most a given number of them running and waiting.
+     */
+    private static final class BoundedExecutor implements Executor {
+        private final Executor executor;
+        private final Semaphore running;
+        private final Semaphore admitted;
+
+        BoundedExecutor(Executor executor, int maxRunning, int maxWaiting) {
+            this.executor = executor;
+            this.running = new Semaphore(maxRunning);
+            this.admitted = new Semaphore(maxRunning + maxWaiting);
+        }
+
+        public void execute(final Runnable command) {
+            if (!admitted.tryAcquire()) throw new RejectedExecutionException("Too many waiting tasks");
+            try {
+                executor.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            running.acquireUninterruptibly();
+                            try {
+                                command.run();
+                            } finally {
+                                running.release();
+                            }
+                        } finally {
+                            admitted.release();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                admitted.release();
+                throw e;
+            }
+        }
+    }
+
+    private static final class NamedThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /**
+     * Creates an executor which starts a virtual thread per task, if the runtime has virtual threads.
+     *
+     * @return The executor, or null on runtimes without virtual threads
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Builds an {@link AsyncImageProcessor}.
+     */
+    public static class Builder {
+        private int computeThreads = Runtime.getRuntime().availableProcessors();
+        private int ioThreads = 4 * Runtime.getRuntime().availableProcessors();
+        private int queueCapacity = 256;
+        private boolean virtualThreads = true;
+        private long timeoutNanos;
+
+        /**
+         * Sets the number of threads computations run on. Defaults to the number of available processors.
+         */
+        public Builder computeThreads(int threads) {
+            if (threads < 1) throw new IllegalArgumentException("Thread count must be positive: " + threads);
+            this.computeThreads = threads;
+            return this;
+        }
+
+        /**
+         * Sets the number of I/O tasks which run at a time. Defaults to four per available processor.
+         */
+        public Builder ioThreads(int threads) {
+            if (threads < 1) throw new IllegalArgumentException("Thread count must be positive: " + threads);
+            this.ioThreads = threads;
+            return this;
+        }
+
+        /**
+         * Sets the number of tasks each executor holds while all its threads are busy. Defaults to 256.
+         */
+        public Builder queueCapacity(int capacity) {
+            if (capacity < 1) throw new IllegalArgumentException("Queue capacity must be positive: " + capacity);
+            this.queueCapacity = capacity;
+            return this;
+        }
+
+        /**
+         * Sets whether I/O tasks run on virtual threads when the runtime has them. Defaults to true.
+         */
+        public Builder virtualThreads(boolean virtualThreads) {
+            this.virtualThreads = virtualThreads;
+            return this;
+        }
+
+        /**
+         * Sets the time after which every task fails with a {@link TimeoutException}. Defaults to no timeout.
+         */
+        public Builder timeout(long timeout, TimeUnit unit) {
+            if (timeout < 0) throw new IllegalArgumentException("Timeout must not be negative: " + timeout);
+            this.timeoutNanos = unit.toNanos(timeout);
+            return this;
+        }
+
+        public AsyncImageProcessor build() {
+            return new AsyncImageProcessor(this);
+        }
+    }
+}
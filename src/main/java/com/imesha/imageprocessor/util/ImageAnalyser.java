@@ -1,7 +1,10 @@
 package com.imesha.imageprocessor.util;
 
+import com.imesha.imageprocessor.util.metrics.Metrics;
+import com.imesha.imageprocessor.util.metrics.StageMetrics;
+
 import java.awt.image.BufferedImage;
-import java.awt.image.Raster;
+import java.util.List;
 
 /**
  * The MIT License (MIT)
@@ -20,39 +23,296 @@ import java.awt.image.Raster;
  */
 public class ImageAnalyser {
 
+    /**
+     * The width and height of the windows {@link #calculateStructuralSimilarity(BufferedImage, BufferedImage)}
+     * compares.
+     */
+    public static final int DEFAULT_SSIM_WINDOW = 8;
+
+    private static final StageMetrics METRICS = Metrics.stage("metrics");
+    private static final StageMetrics STRUCTURAL_SIMILARITY = Metrics.stage("structuralSimilarity");
+
+    /**
+     * Calculates the mean absolute difference between the samples of two images of the same size.
+     *
+     * @param originalImage The reference image
+     * @param modifiedImage The image to be compared with the reference
+     * @return The average distortion per pixel
+     * @throws Exception If the sizes or the numbers of bands of the images differ
+     * @see #calculateMetrics(BufferedImage, BufferedImage)
+     */
     public static double calculateAverageDistortion(BufferedImage originalImage, BufferedImage modifiedImage)
             throws Exception {
-        if (originalImage.getHeight() != modifiedImage.getHeight() ||
-                originalImage.getWidth() != modifiedImage.getWidth())
-            throw new Exception("Images cannot be compared");
-        double distortion = 0;
-        Raster originalImageRaster = originalImage.getRaster();
-        Raster modifiedImageRaster = modifiedImage.getRaster();
-        for (int i = 0; i < originalImage.getWidth(); i++) {
-            for (int j = 0; j < originalImage.getHeight(); j++) {
-                distortion += Math
-                        .abs(originalImageRaster.getSample(i, j, 0) - modifiedImageRaster.getSample(i, j, 0));
-            }
-        }
-        distortion = distortion / (originalImage.getHeight() * originalImage.getWidth());
-        return distortion;
+        return calculateMetrics(originalImage, modifiedImage).getMeanAbsoluteError();
     }
 
+    /**
+     * Calculates the standard deviation of the differences between the samples of two images of the same size from
+     * 0, ie: the root mean squared error.
+     *
+     * @param originalImage The reference image
+     * @param modifiedImage The image to be compared with the reference
+     * @return The root mean squared error
+     * @throws Exception If the sizes or the numbers of bands of the images differ
+     * @see #calculateMetrics(BufferedImage, BufferedImage)
+     */
     public static double calculateStandardDeviation(BufferedImage originalImage, BufferedImage modifiedImage)
             throws Exception {
-        if (originalImage.getHeight() != modifiedImage.getHeight() ||
-                originalImage.getWidth() != modifiedImage.getWidth())
-            throw new Exception("Images cannot be compared");
-        int differenceSum = 0;
-        Raster originalImageRaster = originalImage.getRaster();
-        Raster modifiedImageRaster = modifiedImage.getRaster();
-        for (int i = 0; i < originalImage.getWidth(); i++) {
-            for (int j = 0; j < originalImage.getHeight(); j++) {
-                int difference = originalImageRaster.getSample(i, j, 0) ^ 2 - modifiedImageRaster.getSample(i, j, 0) ^ 2;
-                differenceSum += Math.abs(difference ^ 2);
+        return calculateMetrics(originalImage, modifiedImage).getRootMeanSquaredError();
+    }
+
+    /**
+     * Measures the differences between two images of the same size in a single pass, which is split up over the
+     * {@link StripeExecutor}. Every band is compared, concurrently, and each sample counts as much as any other, so
+     * the errors of a colour image are those over all of its channels.
+     *
+     * @param originalImage The reference image
+     * @param modifiedImage The image to be compared with the reference
+     * @return The absolute and squared errors, the peak signal to noise ratio and the error histogram
+     * @throws Exception If the sizes or the numbers of bands of the images differ
+     */
+    public static QualityMetrics calculateMetrics(BufferedImage originalImage, BufferedImage modifiedImage)
+            throws Exception {
+        checkSizes(originalImage, modifiedImage);
+        StageMetrics.Sample sample = METRICS.start();
+        QualityMetrics metrics = calculateMetrics(PixelAccess.bands(originalImage), PixelAccess.bands(modifiedImage),
+                getPeak(originalImage));
+        sample.stop((long) originalImage.getWidth() * originalImage.getHeight());
+        return metrics;
+    }
+
+    /**
+     * Measures the differences between two rasters of the same size, which may be larger than any
+     * {@link BufferedImage}, as {@link #calculateMetrics(BufferedImage, BufferedImage)} does two images.
+     *
+     * @throws Exception If the sizes or the numbers of bands of the rasters differ
+     */
+    public static QualityMetrics calculateMetrics(OffHeapRaster originalRaster, OffHeapRaster modifiedRaster)
+            throws Exception {
+        checkSizes(originalRaster, modifiedRaster);
+        StageMetrics.Sample sample = METRICS.start();
+        QualityMetrics metrics = calculateMetrics(PixelAccess.bands(originalRaster),
+                PixelAccess.bands(modifiedRaster), 255);
+        sample.stop((long) originalRaster.getWidth() * originalRaster.getHeight());
+        return metrics;
+    }
+
+    private static QualityMetrics calculateMetrics(final PixelAccess.Band[] originalBands,
+                                                   final PixelAccess.Band[] modifiedBands, final int peak) {
+        final int width = originalBands[0].getWidth();
+        int height = originalBands[0].getHeight();
+        List<QualityMetrics> stripeMetrics = StripeExecutor.mapPlaneStripes(width, height, originalBands.length,
+                new StripeExecutor.PlaneStripeFunction<QualityMetrics>() {
+                    public QualityMetrics process(int band, int fromRow, int toRow) {
+                        PixelAccess.Band originalBand = originalBands[band];
+                        PixelAccess.Band modifiedBand = modifiedBands[band];
+                        int[] originalRow = new int[width];
+                        int[] modifiedRow = new int[width];
+                        QualityMetrics metrics = new QualityMetrics(peak);
+                        for (int j = fromRow; j < toRow; j++) {
+                            originalBand.getRow(j, originalRow);
+                            modifiedBand.getRow(j, modifiedRow);
+                            metrics.add(originalRow, modifiedRow, width);
+                        }
+                        return metrics;
+                    }
+                });
+        QualityMetrics metrics = new QualityMetrics(peak);
+        for (QualityMetrics stripe : stripeMetrics) {
+            metrics.add(stripe);
+        }
+        return metrics;
+    }
+
+    /**
+     * Calculates the structural similarity of two images of the same size, over windows of
+     * {@link #DEFAULT_SSIM_WINDOW} pixels square.
+     *
+     * @see #calculateStructuralSimilarity(BufferedImage, BufferedImage, int)
+     */
+    public static double calculateStructuralSimilarity(BufferedImage originalImage, BufferedImage modifiedImage)
+            throws Exception {
+        return calculateStructuralSimilarity(originalImage, modifiedImage, DEFAULT_SSIM_WINDOW);
+    }
+
+    /**
+     * Calculates the structural similarity (SSIM) of two images of the same size: the mean of the SSIM of every
+     * square window of every band of the images, each weighting its pixels equally. The sums over a window are kept
+     * up to date as it slides, from running sums over the columns of the window rows, so the cost per pixel does not
+     * depend on the window size. The bands are processed concurrently.
+     *
+     * @param originalImage The reference image
+     * @param modifiedImage The image to be compared with the reference
+     * @param windowSize    The width and height of the windows, reduced to fit in small images
+     * @return The structural similarity, 1 for identical images
+     * @throws Exception If the sizes or the numbers of bands of the images differ
+     */
+    public static double calculateStructuralSimilarity(BufferedImage originalImage, BufferedImage modifiedImage,
+                                                       int windowSize) throws Exception {
+        checkSizes(originalImage, modifiedImage);
+        if (windowSize <= 0) throw new IllegalArgumentException("Window size must be positive: " + windowSize);
+        StageMetrics.Sample sample = STRUCTURAL_SIMILARITY.start();
+        double similarity = calculateStructuralSimilarity(PixelAccess.bands(originalImage),
+                PixelAccess.bands(modifiedImage), windowSize, getPeak(originalImage));
+        sample.stop((long) originalImage.getWidth() * originalImage.getHeight());
+        return similarity;
+    }
+
+    /**
+     * Calculates the structural similarity of two rasters of the same size, over windows of
+     * {@link #DEFAULT_SSIM_WINDOW} pixels square.
+     *
+     * @see #calculateStructuralSimilarity(OffHeapRaster, OffHeapRaster, int)
+     */
+    public static double calculateStructuralSimilarity(OffHeapRaster originalRaster, OffHeapRaster modifiedRaster)
+            throws Exception {
+        return calculateStructuralSimilarity(originalRaster, modifiedRaster, DEFAULT_SSIM_WINDOW);
+    }
+
+    /**
+     * Calculates the structural similarity of two rasters of the same size, which may be larger than any
+     * {@link BufferedImage}, as {@link #calculateStructuralSimilarity(BufferedImage, BufferedImage, int)} does that
+     * of two images.
+     *
+     * @throws Exception If the sizes or the numbers of bands of the rasters differ
+     */
+    public static double calculateStructuralSimilarity(OffHeapRaster originalRaster, OffHeapRaster modifiedRaster,
+                                                       int windowSize) throws Exception {
+        checkSizes(originalRaster, modifiedRaster);
+        if (windowSize <= 0) throw new IllegalArgumentException("Window size must be positive: " + windowSize);
+        StageMetrics.Sample sample = STRUCTURAL_SIMILARITY.start();
+        double similarity = calculateStructuralSimilarity(PixelAccess.bands(originalRaster),
+                PixelAccess.bands(modifiedRaster), windowSize, 255);
+        sample.stop((long) originalRaster.getWidth() * originalRaster.getHeight());
+        return similarity;
+    }
+
+    private static double calculateStructuralSimilarity(final PixelAccess.Band[] originalBands,
+                                                        final PixelAccess.Band[] modifiedBands, int windowSize,
+                                                        int peak) {
+        final int width = originalBands[0].getWidth();
+        int height = originalBands[0].getHeight();
+        final int window = Math.min(windowSize, Math.min(width, height));
+        final int windowsX = width - window + 1;
+        int windowsY = height - window + 1;
+        final double c1 = (0.01 * peak) * (0.01 * peak);
+        final double c2 = (0.03 * peak) * (0.03 * peak);
+        List<Double> stripeSums = StripeExecutor.mapPlaneStripes(width, windowsY, originalBands.length,
+                new StripeExecutor.PlaneStripeFunction<Double>() {
+                    public Double process(int band, int fromRow, int toRow) {
+                        ColumnSums sums = new ColumnSums(originalBands[band], modifiedBands[band], window);
+                        for (int j = fromRow; j < fromRow + window; j++) {
+                            sums.add(j);
+                        }
+
+                        double n = window * window;
+                        double ssimSum = 0;
+                        for (int top = fromRow; top < toRow; top++) {
+                            if (top > fromRow) {
+                                sums.remove(top - 1);
+                                sums.add(top + window - 1);
+                            }
+                            long x = 0, y = 0, xx = 0, yy = 0, xy = 0;
+                            for (int i = 0; i < width; i++) {
+                                x += sums.x[i];
+                                y += sums.y[i];
+                                xx += sums.xx[i];
+                                yy += sums.yy[i];
+                                xy += sums.xy[i];
+                                if (i >= window) {
+                                    x -= sums.x[i - window];
+                                    y -= sums.y[i - window];
+                                    xx -= sums.xx[i - window];
+                                    yy -= sums.yy[i - window];
+                                    xy -= sums.xy[i - window];
+                                }
+                                if (i < window - 1) continue;
+
+                                double meanX = x / n, meanY = y / n;
+                                double varianceX = xx / n - meanX * meanX;
+                                double varianceY = yy / n - meanY * meanY;
+                                double covariance = xy / n - meanX * meanY;
+                                ssimSum += (2 * meanX * meanY + c1) * (2 * covariance + c2)
+                                        / ((meanX * meanX + meanY * meanY + c1) * (varianceX + varianceY + c2));
+                            }
+                        }
+                        return ssimSum;
+                    }
+                });
+        double ssimSum = 0;
+        for (double stripeSum : stripeSums) {
+            ssimSum += stripeSum;
+        }
+        return ssimSum / ((double) windowsX * windowsY * originalBands.length);
+    }
+
+    /**
+     * The sums of the samples, their squares and their products over the rows of a window, for each column. The rows
+     * in the window are kept in a ring indexed by row % window size, to be taken off again when the window moves.
+     */
+    private static final class ColumnSums {
+        private final PixelAccess.Band originalBand;
+        private final PixelAccess.Band modifiedBand;
+        private final int[][] originalRows;
+        private final int[][] modifiedRows;
+        final long[] x, y, xx, yy, xy;
+
+        ColumnSums(PixelAccess.Band originalBand, PixelAccess.Band modifiedBand, int window) {
+            this.originalBand = originalBand;
+            this.modifiedBand = modifiedBand;
+            int width = originalBand.getWidth();
+            originalRows = new int[window][width];
+            modifiedRows = new int[window][width];
+            x = new long[width];
+            y = new long[width];
+            xx = new long[width];
+            yy = new long[width];
+            xy = new long[width];
+        }
+
+        void add(int row) {
+            int[] originalRow = originalRows[row % originalRows.length];
+            int[] modifiedRow = modifiedRows[row % modifiedRows.length];
+            originalBand.getRow(row, originalRow);
+            modifiedBand.getRow(row, modifiedRow);
+            update(originalRow, modifiedRow, 1);
+        }
+
+        void remove(int row) {
+            update(originalRows[row % originalRows.length], modifiedRows[row % modifiedRows.length], -1);
+        }
+
+        private void update(int[] originalRow, int[] modifiedRow, int sign) {
+            for (int i = 0; i < x.length; i++) {
+                long a = originalRow[i], b = modifiedRow[i];
+                x[i] += sign * a;
+                y[i] += sign * b;
+                xx[i] += sign * a * a;
+                yy[i] += sign * b * b;
+                xy[i] += sign * a * b;
             }
         }
-        double standardDeviation = Math.sqrt(differenceSum / (originalImage.getHeight() * originalImage.getWidth()));
-        return standardDeviation;
     }
-}
\ No newline at end of file
+
+    private static void checkSizes(BufferedImage originalImage, BufferedImage modifiedImage) throws Exception {
+        if (originalImage.getHeight() != modifiedImage.getHeight() ||
+                originalImage.getWidth() != modifiedImage.getWidth()
+                || originalImage.getRaster().getNumBands() != modifiedImage.getRaster().getNumBands())
+            throw new Exception("Images cannot be compared");
+    }
+
+    private static void checkSizes(OffHeapRaster originalRaster, OffHeapRaster modifiedRaster) throws Exception {
+        if (originalRaster.getHeight() != modifiedRaster.getHeight()
+                || originalRaster.getWidth() != modifiedRaster.getWidth()
+                || originalRaster.getNumBands() != modifiedRaster.getNumBands())
+            throw new Exception("Rasters cannot be compared");
+    }
+
+    /**
+     * @return The largest sample the first band of the image can hold, which the other bands are taken to share
+     */
+    private static int getPeak(BufferedImage image) {
+        int bits = image.getSampleModel().getSampleSize(0);
+        return bits >= 31 ? Integer.MAX_VALUE : (1 << bits) - 1;
+    }
+}
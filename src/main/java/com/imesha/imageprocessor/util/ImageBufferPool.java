@@ -0,0 +1,275 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 imesha
+ */
+
+package com.imesha.imageprocessor.util;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A thread safe pool of image buffers, bucketed by type and capacity, so that batch processing can reuse the output
+ * images of the operations instead of allocating new ones for every image, even when the images differ in size.
+ * <pre>
+ *     BufferedImage gray = pool.acquire(width, height, BufferedImage.TYPE_BYTE_GRAY);
+ *     ImageConverter.convertToGrayScale(image, gray);
+ *     ...
+ *     pool.release(gray);
+ * </pre>
+ * The pool keeps the data buffers of released images. The capacity of a bucket is rounded up to a power of two, or
+ * to 1.25, 1.5 or 1.75 times one, so that no buffer is more than a quarter larger than what was asked for, and
+ * {@link #acquire} hands out an image of the requested size over a buffer of the bucket at least as large, which
+ * holds whatever samples it had when it was released. The pool keeps at most {@link #getMaxBytes()} of buffers;
+ * when that is exceeded, the buffers of the least recently used bucket are dropped first.
+ * <p>
+ * Only images of the standard {@link BufferedImage} types which the pool can create itself are pooled.
+ */
+public class ImageBufferPool {
+
+    private static final ImageBufferPool DEFAULT = new ImageBufferPool(
+            Long.getLong("imageprocessor.pool.maxBytes", 256L * 1024 * 1024));
+    // An image of each type, whose colour and sample models are those of the images of the type
+    private static final Map<Integer, BufferedImage> PROTOTYPES = new HashMap<Integer, BufferedImage>();
+
+    private final long maxBytes;
+    // Buckets in least recently used order
+    private final LinkedHashMap<Key, ArrayDeque<DataBuffer>> buckets =
+            new LinkedHashMap<Key, ArrayDeque<DataBuffer>>(16, 0.75f, true);
+    private long retainedBytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param maxBytes The most memory the released images may take up
+     */
+    public ImageBufferPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return The pool shared by the application. Its size is set with the {@code imageprocessor.pool.maxBytes}
+     * system property, 256 MB by default.
+     */
+    public static ImageBufferPool getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Gives an image of the requested type and size, over a pooled buffer if there is one large enough in the
+     * bucket of the size, or a new one otherwise.
+     *
+     * @param width  The width
+     * @param height The height
+     * @param type   One of the BufferedImage.TYPE_ constants, except TYPE_CUSTOM
+     * @return The image, with undefined contents
+     */
+    public BufferedImage acquire(int width, int height, int type) {
+        BufferedImage prototype = getPrototype(type);
+        ColorModel colorModel = prototype.getColorModel();
+        SampleModel sampleModel = prototype.getSampleModel().createCompatibleSampleModel(width, height);
+        long elements = getElements(sampleModel);
+        DataBuffer buffer = null;
+        if (elements <= Integer.MAX_VALUE) {
+            Key key = new Key(type, roundUp(elements));
+            synchronized (this) {
+                ArrayDeque<DataBuffer> bucket = buckets.get(key);
+                if (bucket != null && !bucket.isEmpty()) {
+                    buffer = bucket.pop();
+                    retainedBytes -= getBytes(buffer);
+                    hits++;
+                } else {
+                    misses++;
+                }
+            }
+            if (buffer == null) buffer = createBuffer(sampleModel.getDataType(), key.capacity);
+        } else {
+            buffer = sampleModel.createDataBuffer();
+        }
+        return new BufferedImage(colorModel, Raster.createWritableRaster(sampleModel, buffer, null),
+                colorModel.isAlphaPremultiplied(), null);
+    }
+
+    /**
+     * Gives an image back to the pool. Neither it, nor any image sharing its data, must be used afterwards.
+     *
+     * @param image The image, ignored if null or not of a poolable type
+     */
+    public void release(BufferedImage image) {
+        if (image == null || image.getType() == BufferedImage.TYPE_CUSTOM) return;
+        DataBuffer buffer = image.getRaster().getDataBuffer();
+        if (buffer.getNumBanks() != 1 || buffer.getOffset() != 0) return;
+        long bytes = getBytes(buffer);
+        if (bytes > maxBytes) return;
+        // Whatever the buffer can hold, it serves the requests of the largest bucket it is not smaller than
+        Key key = new Key(image.getType(), roundDown(buffer.getSize()));
+        synchronized (this) {
+            ArrayDeque<DataBuffer> bucket = buckets.get(key);
+            if (bucket == null) {
+                bucket = new ArrayDeque<DataBuffer>();
+                buckets.put(key, bucket);
+            }
+            bucket.push(buffer);
+            retainedBytes += bytes;
+            evict();
+        }
+    }
+
+    /**
+     * Drops all the pooled images.
+     */
+    public synchronized void clear() {
+        buckets.clear();
+        retainedBytes = 0;
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<Key, ArrayDeque<DataBuffer>>> iterator = buckets.entrySet().iterator();
+        while (retainedBytes > maxBytes && iterator.hasNext()) {
+            ArrayDeque<DataBuffer> bucket = iterator.next().getValue();
+            while (retainedBytes > maxBytes && !bucket.isEmpty()) {
+                // The oldest buffer of the bucket goes first
+                retainedBytes -= getBytes(bucket.removeLast());
+                evictions++;
+            }
+            if (bucket.isEmpty()) iterator.remove();
+        }
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return The memory taken up by the buffers in the pool
+     */
+    public synchronized long getRetainedBytes() {
+        return retainedBytes;
+    }
+
+    /**
+     * @return The number of times {@link #acquire} was served from the pool, by a buffer of the size of the image
+     * or larger
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return The number of times {@link #acquire} had to create a new buffer
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return The number of released buffers which were dropped to stay within the memory cap
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("ImageBufferPool[hits=%d, misses=%d, evictions=%d, retained=%d/%d bytes]", hits, misses,
+                evictions, retainedBytes, maxBytes);
+    }
+
+    /**
+     * Rounds a capacity up to the nearest of the bucket sizes: the powers of two, and 1.25, 1.5 and 1.75 times them.
+     */
+    static long roundUp(long elements) {
+        if (elements <= 4) return Math.max(1, elements);
+        long step = Long.highestOneBit(elements) >> 2;
+        return (elements + step - 1) / step * step;
+    }
+
+    /**
+     * Rounds a capacity down to the nearest of the bucket sizes.
+     */
+    static long roundDown(long elements) {
+        if (elements <= 4) return elements;
+        long step = Long.highestOneBit(elements) >> 2;
+        return elements / step * step;
+    }
+
+    /**
+     * @return The number of data elements a raster of the sample model takes up, all of them in a single bank
+     */
+    private static long getElements(SampleModel sampleModel) {
+        int height = sampleModel.getHeight();
+        if (sampleModel instanceof ComponentSampleModel)
+            return (long) ((ComponentSampleModel) sampleModel).getScanlineStride() * height;
+        if (sampleModel instanceof SinglePixelPackedSampleModel)
+            return (long) ((SinglePixelPackedSampleModel) sampleModel).getScanlineStride() * height;
+        if (sampleModel instanceof MultiPixelPackedSampleModel)
+            return (long) ((MultiPixelPackedSampleModel) sampleModel).getScanlineStride() * height;
+        return sampleModel.createDataBuffer().getSize();
+    }
+
+    private static long getBytes(DataBuffer buffer) {
+        return (long) buffer.getSize() * (DataBuffer.getDataTypeSize(buffer.getDataType()) / 8);
+    }
+
+    private static DataBuffer createBuffer(int dataType, long capacity) {
+        switch (dataType) {
+            case DataBuffer.TYPE_BYTE:
+                return new DataBufferByte((int) capacity);
+            case DataBuffer.TYPE_USHORT:
+                return new DataBufferUShort((int) capacity);
+            case DataBuffer.TYPE_INT:
+                return new DataBufferInt((int) capacity);
+            default:
+                throw new IllegalArgumentException("Unsupported data type " + dataType);
+        }
+    }
+
+    private static BufferedImage getPrototype(int type) {
+        if (type == BufferedImage.TYPE_CUSTOM) throw new IllegalArgumentException("Custom images can not be pooled");
+        synchronized (PROTOTYPES) {
+            BufferedImage prototype = PROTOTYPES.get(type);
+            if (prototype == null) {
+                prototype = new BufferedImage(1, 1, type);
+                PROTOTYPES.put(type, prototype);
+            }
+            return prototype;
+        }
+    }
+
+    private static final class Key {
+        final int type;
+        final long capacity;
+
+        Key(int type, long capacity) {
+            this.type = type;
+            this.capacity = capacity;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return type == key.type && capacity == key.capacity;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (capacity ^ (capacity >>> 32)) * 31 + type;
+        }
+    }
+}
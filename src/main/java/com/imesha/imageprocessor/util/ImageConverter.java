@@ -1,6 +1,8 @@
 package com.imesha.imageprocessor.util;
 
-import java.awt.*;
+import com.imesha.imageprocessor.util.metrics.Metrics;
+import com.imesha.imageprocessor.util.metrics.StageMetrics;
+
 import java.awt.image.BufferedImage;
 
 /**
@@ -20,26 +22,62 @@ import java.awt.image.BufferedImage;
  */
 public class ImageConverter {
 
+    private static final StageMetrics GRAY_SCALE = Metrics.stage("grayScale");
+
     /**
      * Converts a given BufferedImage to gray scale BufferedImage.
      *
      * @param image the image to be converted to gray
-     * @return
+     * @return a TYPE_BYTE_GRAY image with 0.3 R + 0.59 G + 0.11 B as the gray level of each pixel
      */
     public static BufferedImage convertToGrayScale(BufferedImage image) {
-        BufferedImage newImage = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
-        for (int i = 0; i < image.getWidth(); i++) {
-            for (int j = 0; j < image.getHeight(); j++) {
-                Color color = new Color(image.getRGB(i, j));
-                double r = color.getRed() * 0.3;
-                double g = color.getGreen() * 0.59;
-                double b = color.getBlue() * 0.11;
+        return convertToGrayScale(image, null);
+    }
 
-                int avg = (int) (r + g + b);
-                Color newColor = new Color(avg, avg, avg);
-                newImage.setRGB(i, j, newColor.getRGB());
+    /**
+     * Converts a given BufferedImage to gray scale, writing the result into the given image.
+     *
+     * @param image       the image to be converted to gray
+     * @param destination a TYPE_BYTE_GRAY image of the same size, eg: from an {@link ImageBufferPool}, or null to
+     *                    create a new one
+     * @return the destination
+     */
+    public static BufferedImage convertToGrayScale(BufferedImage image, BufferedImage destination) {
+        StageMetrics.Sample sample = GRAY_SCALE.start();
+        final int width = image.getWidth();
+        int height = image.getHeight();
+        BufferedImage newImage = PixelAccess.grayDestination(destination, width, height);
+        final PixelAccess.Band gray = PixelAccess.band(newImage, 0);
+        final PixelAccess.RgbRows rgbRows = PixelAccess.rgbRows(image);
+        final byte[] grayData = gray.getData();
+        StripeExecutor.StripeTask task = new StripeExecutor.StripeTask() {
+            public void process(int fromRow, int toRow) {
+                int[] row = new int[width];
+                for (int j = fromRow; j < toRow; j++) {
+                    rgbRows.getRow(j, row);
+                    RowKernels.toGrayLevels(row, row, width);
+                    int index = gray.index(0, j);
+                    for (int i = 0; i < width; i++) {
+                        grayData[index++] = PixelAccess.toGraySample(row[i]);
+                    }
+                }
             }
-        }
+        };
+        // Colour models are not guaranteed to be thread safe, so only images read directly are split up
+        if (rgbRows.isDirect()) StripeExecutor.forEachStripe(width, height, task);
+        else task.process(0, height);
+        sample.stop((long) width * height);
         return newImage;
     }
+
+    /**
+     * Gives the gray level of a colour, weighting each component by its contribution to the perceived brightness.
+     * The sum is computed exactly in fixed point, see {@link RowKernels#toGrayLevel(int)}.
+     *
+     * @param rgb A packed RGB value
+     * @return 0.3 R + 0.59 G + 0.11 B, rounded down
+     */
+    public static int toGrayLevel(int rgb) {
+        return RowKernels.toGrayLevel(rgb);
+    }
 }
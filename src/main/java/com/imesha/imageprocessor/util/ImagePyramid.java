@@ -0,0 +1,95 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 imesha
+ */
+
+package com.imesha.imageprocessor.util;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The levels of an image from full size down to 1x1, each half the width and height of the one before it, rounded
+ * down but never below 1. Every level is resampled from the previous one with {@link Resampler}, so odd sizes lose
+ * no pixels and colour images stay in colour.
+ */
+public final class ImagePyramid {
+    private final List<BufferedImage> levels;
+
+    private ImagePyramid(List<BufferedImage> levels) {
+        this.levels = Collections.unmodifiableList(levels);
+    }
+
+    /**
+     * Builds the pyramid of an image with the box filter, so each level of an even size is the average of the 2x2
+     * blocks of the one before it.
+     *
+     * @param image The full size image, which becomes level 0 as it is
+     * @return The pyramid
+     */
+    public static ImagePyramid build(BufferedImage image) {
+        return build(image, Resampler.Filter.BOX);
+    }
+
+    /**
+     * Builds the pyramid of an image.
+     *
+     * @param image  The full size image, which becomes level 0 as it is
+     * @param filter The filter each level is resampled with
+     * @return The pyramid
+     */
+    public static ImagePyramid build(BufferedImage image, Resampler.Filter filter) {
+        List<BufferedImage> levels = new ArrayList<BufferedImage>();
+        BufferedImage level = image;
+        levels.add(level);
+        while (level.getWidth() > 1 || level.getHeight() > 1) {
+            level = Resampler.resample(level, Math.max(1, level.getWidth() / 2), Math.max(1, level.getHeight() / 2),
+                    filter);
+            levels.add(level);
+        }
+        return new ImagePyramid(levels);
+    }
+
+    /**
+     * @return The number of levels, including the full size image
+     */
+    public int getLevelCount() {
+        return levels.size();
+    }
+
+    /**
+     * @param level The level, 0 being the full size image
+     * @return The image of the level
+     */
+    public BufferedImage getLevel(int level) {
+        return levels.get(level);
+    }
+
+    /**
+     * @return All the levels, from the full size image down
+     */
+    public List<BufferedImage> getLevels() {
+        return levels;
+    }
+
+    /**
+     * Finds the level to display the image from at a zoom, which is the smallest level at least as large as the
+     * image at that zoom, or the full size image when zooming in.
+     *
+     * @param scale The zoom, 1 being full size
+     * @return The level
+     */
+    public int getLevelForScale(double scale) {
+        if (!(scale > 0)) throw new IllegalArgumentException("Scale must be positive: " + scale);
+        BufferedImage full = levels.get(0);
+        int level = 0;
+        while (level + 1 < levels.size()) {
+            BufferedImage next = levels.get(level + 1);
+            if (next.getWidth() < full.getWidth() * scale || next.getHeight() < full.getHeight() * scale) break;
+            level++;
+        }
+        return level;
+    }
+}
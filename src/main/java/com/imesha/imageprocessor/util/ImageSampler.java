@@ -1,8 +1,9 @@
 package com.imesha.imageprocessor.util;
 
-import java.awt.*;
+import com.imesha.imageprocessor.util.metrics.Metrics;
+import com.imesha.imageprocessor.util.metrics.StageMetrics;
+
 import java.awt.image.BufferedImage;
-import java.awt.image.Raster;
 
 /**
  * The MIT License (MIT)
@@ -21,71 +22,257 @@ import java.awt.image.Raster;
  */
 public class ImageSampler {
 
+    private static final StageMetrics DOWN_SAMPLE = Metrics.stage("downSample");
+    private static final StageMetrics UP_SAMPLE = Metrics.stage("upSample");
+
     /**
      * Down samples the given image. This will use the bi-linear interpolation method to down sample the image.
+     * When a dimension is odd, the last row or column is dropped. Every band is down sampled on its own, so colour
+     * images keep their colours.
      *
      * @param bufferedImage The image to be down sampled.
      * @return the image which is down sampled.
-     * @throws Exception If the image is not in Gray Scale format.
+     * @throws Exception If the image is neither in Gray Scale format nor made of 8 bit bands.
      */
     public static BufferedImage downSample(BufferedImage bufferedImage) throws Exception {
-        if (bufferedImage.getType() != BufferedImage.TYPE_BYTE_GRAY) throw new Exception("incompatible Image Format");
-        BufferedImage newImage = new BufferedImage(bufferedImage.getWidth() / 2, bufferedImage.getHeight() / 2, BufferedImage.TYPE_BYTE_GRAY);
-        Raster raster = bufferedImage.getData();
-        for (int i = 0; i < bufferedImage.getWidth(); i += 2) {
-            for (int j = 0; j < bufferedImage.getHeight(); j += 2) {
-                int avgValue = raster.getSample(i, j, 0);
-                avgValue += raster.getSample(i, j + 1, 0);
-                avgValue += raster.getSample(i + 1, j, 0);
-                avgValue += raster.getSample(i + 1, j + 1, 0);
-
-                avgValue = avgValue / 4;
-                newImage.setRGB(i / 2, j / 2, new Color(avgValue, avgValue, avgValue).getRGB());
-            }
-        }
+        return downSample(bufferedImage, null);
+    }
+
+    /**
+     * Down samples the given image into the given destination. The bands are processed concurrently, stripe by
+     * stripe.
+     *
+     * @param bufferedImage The image to be down sampled.
+     * @param destination   An image of half the width and height, rounded down, or null to create a new one. It is
+     *                      TYPE_BYTE_GRAY for a gray scale image and has the colour model of the image otherwise
+     * @return the destination
+     * @throws Exception If the image is neither in Gray Scale format nor made of 8 bit bands.
+     */
+    public static BufferedImage downSample(BufferedImage bufferedImage, BufferedImage destination) throws Exception {
+        boolean gray = bufferedImage.getType() == BufferedImage.TYPE_BYTE_GRAY;
+        if (!gray && !PixelAccess.hasByteSamples(bufferedImage)) throw new Exception("incompatible Image Format");
+        StageMetrics.Sample sample = DOWN_SAMPLE.start();
+        int newWidth = bufferedImage.getWidth() / 2;
+        int newHeight = bufferedImage.getHeight() / 2;
+        BufferedImage newImage = gray ? PixelAccess.grayDestination(destination, newWidth, newHeight)
+                : PixelAccess.compatibleDestination(bufferedImage, destination, newWidth, newHeight);
+        downSample(PixelAccess.bands(bufferedImage), PixelAccess.bands(newImage), gray);
+        sample.stop((long) bufferedImage.getWidth() * bufferedImage.getHeight());
         return newImage;
     }
 
+    /**
+     * Down samples a raster, which may be larger than any {@link BufferedImage}, as
+     * {@link #downSample(BufferedImage)} does an image of 8 bit bands.
+     *
+     * @param raster      The raster to be down sampled
+     * @param destination A raster of half the width and height, rounded down, and of the same number of bands, or
+     *                    null to allocate a new one
+     * @return The destination
+     */
+    public static OffHeapRaster downSample(OffHeapRaster raster, OffHeapRaster destination) {
+        StageMetrics.Sample sample = DOWN_SAMPLE.start();
+        OffHeapRaster newRaster = rasterDestination(raster, destination, raster.getWidth() / 2,
+                raster.getHeight() / 2);
+        downSample(PixelAccess.bands(raster), PixelAccess.bands(newRaster), false);
+        sample.stop((long) raster.getWidth() * raster.getHeight());
+        return newRaster;
+    }
+
+    /**
+     * Averages every 2x2 block of the sources into a sample of the targets, band by band.
+     *
+     * @param gray Whether the samples are gray levels, to be stored as {@link PixelAccess#toGraySample(int)} does
+     */
+    private static void downSample(final PixelAccess.Band[] sources, final PixelAccess.Band[] targets,
+                                   final boolean gray) {
+        final int newWidth = targets[0].getWidth();
+        StripeExecutor.forEachPlaneStripe(newWidth, targets[0].getHeight(), sources.length,
+                new StripeExecutor.PlaneStripeTask() {
+                    public void process(int band, int fromRow, int toRow) {
+                        PixelAccess.Band source = sources[band];
+                        PixelAccess.Band target = targets[band];
+                        // Sums of each column over the two source rows, which are then averaged in pairs
+                        int[] sums = new int[2 * newWidth];
+                        int[] upperRow = null;
+                        int[] lowerRow = null;
+                        boolean packed = source.isDirect() && source.getPixelStride() == 1;
+                        if (!packed) {
+                            upperRow = new int[source.getWidth()];
+                            lowerRow = new int[source.getWidth()];
+                        }
+                        byte[] sourceData = packed ? source.getData() : null;
+                        byte[] targetData = target.getData();
+                        for (int j = fromRow; j < toRow; j++) {
+                            if (packed) {
+                                RowKernels.addRows(sourceData, source.index(0, 2 * j), source.index(0, 2 * j + 1),
+                                        sums, sums.length);
+                            } else {
+                                source.getRow(2 * j, upperRow);
+                                source.getRow(2 * j + 1, lowerRow);
+                                RowKernels.addRows(upperRow, lowerRow, sums, sums.length);
+                            }
+                            RowKernels.averagePairs(sums, sums, newWidth, 0);
+                            if (targetData == null) {
+                                target.setRow(j, sums);
+                                continue;
+                            }
+                            int step = target.getPixelStride();
+                            for (int i = 0, index = target.index(0, j); i < newWidth; i++, index += step) {
+                                targetData[index] = gray ? PixelAccess.toGraySample(sums[i]) : (byte) sums[i];
+                            }
+                        }
+                    }
+                });
+    }
+
 
     /**
      * Up samples an image. This will loop through the existing image and calculate the new pixel value
-     * of the new image. This is using the nearest neighbour method to do this.
+     * of the new image. Each new pixel is the average of the source pixel it falls on and its right, lower and
+     * lower right neighbours which exist. Images made of 8 bit bands are up sampled band by band, anything else is
+     * up sampled from its first band into a gray scale image.
      *
      * @param bufferedImage The image to be down sampled
      * @return The up sampled image.
      */
     public static BufferedImage upSample(BufferedImage bufferedImage) {
-        BufferedImage newImage = new BufferedImage(bufferedImage.getWidth() * 2, bufferedImage.getHeight() * 2, BufferedImage.TYPE_BYTE_GRAY);
-        Raster raster = bufferedImage.getData();
-        for (int i = 0; i < newImage.getWidth(); i++) {
-            for (int j = 0; j < newImage.getHeight(); j++) {
-                int val = 0;
-                int pixelCount = 0;
-
-                val = raster.getSample(i / 2, j / 2, 0);
-                pixelCount++;
-
-                if (i / 2 + 1 < bufferedImage.getWidth()) {
-                    val += raster.getSample(i / 2 + 1, j / 2, 0);
-                    pixelCount++;
-                    if (j / 2 + 1 < bufferedImage.getHeight()) {
-                        val += raster.getSample(i / 2 + 1, j / 2 + 1, 0);
-                        pixelCount++;
-                    }
-                }
+        return upSample(bufferedImage, null);
+    }
 
-                if (j / 2 + 1 < bufferedImage.getHeight()) {
-                    val += raster.getSample(i / 2, j / 2 + 1, 0);
-                    pixelCount++;
-                }
+    /**
+     * Up samples an image into the given destination. The bands are processed concurrently, stripe by stripe.
+     *
+     * @param bufferedImage The image to be up sampled
+     * @param destination   An image of twice the width and height, or null to create a new one. It is
+     *                      TYPE_BYTE_GRAY unless the image is made of 8 bit bands, in which case it has the colour
+     *                      model of the image
+     * @return The destination
+     */
+    public static BufferedImage upSample(BufferedImage bufferedImage, BufferedImage destination) {
+        StageMetrics.Sample sample = UP_SAMPLE.start();
+        int width = bufferedImage.getWidth();
+        int height = bufferedImage.getHeight();
+        boolean gray = bufferedImage.getType() == BufferedImage.TYPE_BYTE_GRAY
+                || !PixelAccess.hasByteSamples(bufferedImage);
+        BufferedImage newImage = gray ? PixelAccess.grayDestination(destination, width * 2, height * 2)
+                : PixelAccess.compatibleDestination(bufferedImage, destination, width * 2, height * 2);
+        PixelAccess.Band[] sources = gray ? new PixelAccess.Band[]{PixelAccess.band(bufferedImage, 0)}
+                : PixelAccess.bands(bufferedImage);
+        upSample(sources, PixelAccess.bands(newImage), gray);
+        sample.stop((long) width * height);
+        return newImage;
+    }
+
+    /**
+     * Up samples a raster, which may be larger than any {@link BufferedImage}, as {@link #upSample(BufferedImage)}
+     * does an image of 8 bit bands.
+     *
+     * @param raster      The raster to be up sampled
+     * @param destination A raster of twice the width and height and of the same number of bands, or null to
+     *                    allocate a new one
+     * @return The destination
+     */
+    public static OffHeapRaster upSample(OffHeapRaster raster, OffHeapRaster destination) {
+        StageMetrics.Sample sample = UP_SAMPLE.start();
+        OffHeapRaster newRaster = rasterDestination(raster, destination, raster.getWidth() * 2,
+                raster.getHeight() * 2);
+        upSample(PixelAccess.bands(raster), PixelAccess.bands(newRaster), false);
+        sample.stop((long) raster.getWidth() * raster.getHeight());
+        return newRaster;
+    }
+
+    /**
+     * Spreads every sample of the sources over a 2x2 block of the targets, band by band.
+     *
+     * @param gray Whether the samples are gray levels, to be stored as {@link PixelAccess#toGraySample(int)} does
+     */
+    private static void upSample(final PixelAccess.Band[] sources, final PixelAccess.Band[] targets,
+                                 final boolean gray) {
+        final int width = sources[0].getWidth();
+        final int height = sources[0].getHeight();
+        // Stripes are over the source rows, each of which makes two rows of the new image
+        StripeExecutor.forEachPlaneStripe(width * 2, height, sources.length, new StripeExecutor.PlaneStripeTask() {
+            public void process(int band, int fromRow, int toRow) {
+                PixelAccess.Band source = sources[band];
+                PixelAccess.Band target = targets[band];
+                byte[] targetData = target.getData();
+                int[] newRow = targetData == null ? new int[width * 2] : null;
+                int[] row = new int[width];
+                int[] nextRow = new int[width];
+                source.getRow(fromRow, nextRow);
+                for (int y = fromRow; y < toRow; y++) {
+                    // The row read as the next row in the previous iteration is the current row now
+                    int[] swap = row;
+                    row = nextRow;
+                    nextRow = swap;
+                    boolean hasNextRow = y + 1 < height;
+                    if (hasNextRow) source.getRow(y + 1, nextRow);
 
-                /*
-                 * Finally, find the pixel value by dividing the Integer val by pixelCount.
-                 */
-                int pixelValue = (int) ((float) val) / pixelCount;
-                newImage.setRGB(i, j, new Color(pixelValue, pixelValue, pixelValue).getRGB());
+                    int index = targetData == null ? 0 : target.index(0, 2 * y);
+                    int step = target.getPixelStride();
+                    for (int x = 0; x < width; x++) {
+                        int val = row[x];
+                        int pixelCount = 1;
+
+                        if (x + 1 < width) {
+                            val += row[x + 1];
+                            pixelCount++;
+                            if (hasNextRow) {
+                                val += nextRow[x + 1];
+                                pixelCount++;
+                            }
+                        }
+
+                        if (hasNextRow) {
+                            val += nextRow[x];
+                            pixelCount++;
+                        }
+
+                        /*
+                         * Finally, find the pixel value by dividing the Integer val by pixelCount.
+                         * Both new pixels covering the source pixel in this row get the same value.
+                         */
+                        if (targetData == null) {
+                            newRow[2 * x] = newRow[2 * x + 1] = val / pixelCount;
+                            continue;
+                        }
+                        byte pixelValue = gray ? PixelAccess.toGraySample(val / pixelCount) : (byte) (val / pixelCount);
+                        targetData[index] = pixelValue;
+                        targetData[index + step] = pixelValue;
+                        index += 2 * step;
+                    }
+                    // Every new row is repeated, as the source row is the same for both
+                    if (targetData == null) {
+                        target.setRow(2 * y, newRow);
+                        target.setRow(2 * y + 1, newRow);
+                    } else if (step == 1) {
+                        System.arraycopy(targetData, target.index(0, 2 * y), targetData,
+                                target.index(0, 2 * y + 1), width * 2);
+                    } else {
+                        for (int i = 0, from = target.index(0, 2 * y), to = target.index(0, 2 * y + 1);
+                             i < width * 2; i++, from += step, to += step) {
+                            targetData[to] = targetData[from];
+                        }
+                    }
+                }
             }
-        }
-        return newImage;
+        });
+    }
+
+    /**
+     * Checks a raster given to an operation to write its result into.
+     *
+     * @return The destination, or a new raster of the number of bands of the source if it was null
+     * @throws IllegalArgumentException If the destination does not have the size and the number of bands required
+     */
+    private static OffHeapRaster rasterDestination(OffHeapRaster source, OffHeapRaster destination, int width,
+                                                   int height) {
+        if (destination == null) return OffHeapRaster.allocate(width, height, source.getNumBands());
+        if (destination.getWidth() != width || destination.getHeight() != height
+                || destination.getNumBands() != source.getNumBands())
+            throw new IllegalArgumentException("Destination must be a " + width + "x" + height + " raster of "
+                    + source.getNumBands() + " bands");
+        return destination;
     }
 }
@@ -17,4 +17,19 @@ public class ImageUtils {
         return new BufferedImage(cm, raster, isAlphaPremultiplied, null);
     }
 
+    /**
+     * Copies the pixels of an image into another one.
+     *
+     * @param bi          The image to be copied
+     * @param destination An image of the same type and size, eg: from an {@link ImageBufferPool}
+     * @return The destination
+     */
+    public static BufferedImage deepCopy(BufferedImage bi, BufferedImage destination) {
+        if (destination.getType() != bi.getType() || destination.getType() == BufferedImage.TYPE_CUSTOM
+                || destination.getWidth() != bi.getWidth() || destination.getHeight() != bi.getHeight())
+            throw new IllegalArgumentException("Destination must be of the same type and size");
+        bi.copyData(destination.getRaster());
+        return destination;
+    }
+
 }
@@ -0,0 +1,334 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 imesha
+ */
+
+package com.imesha.imageprocessor.util;
+
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An image of 8 bit, pixel interleaved samples held outside of the Java heap, in direct or memory mapped buffers.
+ * Unlike a {@link BufferedImage}, whose samples are in a single array indexed by an int, it may hold more than 2^31
+ * samples, and it puts no large arrays on the heap for the garbage collector to trace and move.
+ * <p>
+ * The samples are kept row by row in segments of at most {@link #MAX_SEGMENT_SIZE} bytes, each holding whole rows,
+ * so a row never spans two segments. Samples are addressed by their pixel and band or by their long index in the
+ * whole raster, see {@link #index(int, int)}. Regions of up to 2^31 samples, eg: tiles, are seen as
+ * {@link BufferedImage}s through {@link #getImage(int, int, int, int)} without being copied, and
+ * {@link PixelAccess} reads and writes the rows of such views straight from the segments.
+ * <p>
+ * {@link ImageSampler}, {@link ImageAnalyser} and the tiled image container of the compression package work on
+ * rasters directly. Reading and writing different rows from different threads is safe.
+ * <p>
+ * The buffers are released when the raster is no longer reachable, as for any direct or mapped buffer. Direct
+ * buffers count towards the limit set by -XX:MaxDirectMemorySize, while mapped ones are paged in and out by the
+ * operating system, so mapping a file is the way to hold rasters larger than the memory of the machine.
+ */
+public final class OffHeapRaster {
+
+    /**
+     * The largest number of bytes in a segment.
+     */
+    public static final int MAX_SEGMENT_SIZE = 1 << 30;
+
+    private static final int MAX_BANDS = 4;
+
+    private final int width;
+    private final int height;
+    private final int bands;
+    private final int rowSize;
+    private final int rowsPerSegment;
+    private final ByteBuffer[] segments;
+
+    private OffHeapRaster(int width, int height, int bands, ByteBuffer[] segments) {
+        this.width = width;
+        this.height = height;
+        this.bands = bands;
+        this.rowSize = width * bands;
+        this.rowsPerSegment = getRowsPerSegment(width, bands);
+        this.segments = segments;
+    }
+
+    /**
+     * Creates a raster in direct buffers, with all samples 0.
+     *
+     * @param width  The width of the raster
+     * @param height The height of the raster
+     * @param bands  The number of bands, 1 to 4: gray, gray and alpha, RGB or RGB and alpha
+     * @return The raster
+     */
+    public static OffHeapRaster allocate(int width, int height, int bands) {
+        checkSize(width, height, bands);
+        int rowsPerSegment = getRowsPerSegment(width, bands);
+        ByteBuffer[] segments = new ByteBuffer[(height + rowsPerSegment - 1) / rowsPerSegment];
+        for (int segment = 0; segment < segments.length; segment++) {
+            int rows = Math.min(rowsPerSegment, height - segment * rowsPerSegment);
+            segments[segment] = ByteBuffer.allocateDirect(rows * width * bands);
+        }
+        return new OffHeapRaster(width, height, bands, segments);
+    }
+
+    /**
+     * Creates a raster backed by a file, which is mapped into memory. The samples are laid out in the file row by
+     * row from the start, without a header, so a raster of the same size and number of bands mapped from the same
+     * file later holds the same samples. The file is created, or made longer, if it is too short to hold them.
+     *
+     * @param file   The file holding the samples
+     * @param width  The width of the raster
+     * @param height The height of the raster
+     * @param bands  The number of bands, 1 to 4: gray, gray and alpha, RGB or RGB and alpha
+     * @return The raster
+     * @throws IOException If the file cannot be opened or mapped
+     */
+    public static OffHeapRaster map(File file, int width, int height, int bands) throws IOException {
+        checkSize(width, height, bands);
+        int rowsPerSegment = getRowsPerSegment(width, bands);
+        long rowSize = (long) width * bands;
+        ByteBuffer[] segments = new ByteBuffer[(height + rowsPerSegment - 1) / rowsPerSegment];
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            if (randomAccessFile.length() < rowSize * height) randomAccessFile.setLength(rowSize * height);
+            FileChannel channel = randomAccessFile.getChannel();
+            // The mappings stay valid after the channel is closed
+            for (int segment = 0; segment < segments.length; segment++) {
+                long firstRow = (long) segment * rowsPerSegment;
+                long rows = Math.min(rowsPerSegment, height - firstRow);
+                segments[segment] = channel.map(FileChannel.MapMode.READ_WRITE, firstRow * rowSize, rows * rowSize);
+            }
+        } finally {
+            randomAccessFile.close();
+        }
+        return new OffHeapRaster(width, height, bands, segments);
+    }
+
+    private static void checkSize(int width, int height, int bands) {
+        if (width <= 0 || height <= 0)
+            throw new IllegalArgumentException("Size must be positive: " + width + "x" + height);
+        if (bands < 1 || bands > MAX_BANDS)
+            throw new IllegalArgumentException("Number of bands must be 1 to " + MAX_BANDS + ": " + bands);
+        if ((long) width * bands > MAX_SEGMENT_SIZE)
+            throw new IllegalArgumentException("A row of " + width + " pixels does not fit in a segment");
+    }
+
+    private static int getRowsPerSegment(int width, int bands) {
+        return MAX_SEGMENT_SIZE / (width * bands);
+    }
+
+    /**
+     * Writes the samples of a raster mapped from a file to the file.
+     */
+    public void force() {
+        for (ByteBuffer segment : segments) {
+            if (segment instanceof MappedByteBuffer) ((MappedByteBuffer) segment).force();
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getNumBands() {
+        return bands;
+    }
+
+    /**
+     * @return The number of samples, ie: of bytes, in the raster
+     */
+    public long getSize() {
+        return (long) rowSize * height;
+    }
+
+    /**
+     * @return The index of the first sample of the pixel (x, y), counting the samples of the whole raster row by row
+     */
+    public long index(int x, int y) {
+        return (long) y * rowSize + (long) x * bands;
+    }
+
+    /**
+     * @param index The index of the sample, see {@link #index(int, int)} and {@link #getSize()}
+     * @return The sample, 0 - 255
+     */
+    public int getSample(long index) {
+        int y = (int) (index / rowSize);
+        return segments[y / rowsPerSegment].get(position(y, (int) (index - (long) y * rowSize))) & 0xFF;
+    }
+
+    /**
+     * @param index The index of the sample, see {@link #index(int, int)} and {@link #getSize()}
+     * @param value The sample, 0 - 255
+     */
+    public void setSample(long index, int value) {
+        int y = (int) (index / rowSize);
+        segments[y / rowsPerSegment].put(position(y, (int) (index - (long) y * rowSize)), (byte) value);
+    }
+
+    public int getSample(int x, int y, int band) {
+        return segments[y / rowsPerSegment].get(position(y, x * bands + band)) & 0xFF;
+    }
+
+    public void setSample(int x, int y, int band, int value) {
+        segments[y / rowsPerSegment].put(position(y, x * bands + band), (byte) value);
+    }
+
+    /**
+     * Reads a row of samples of one band.
+     *
+     * @param y    The row
+     * @param band The band
+     * @param row  The array to be filled, at least as long as the width
+     * @return The given array
+     */
+    public int[] getRow(int y, int band, int[] row) {
+        return getRow(0, y, width, band, row);
+    }
+
+    /**
+     * Reads part of a row of samples of one band.
+     *
+     * @param x      The first column
+     * @param y      The row
+     * @param length The number of samples
+     * @param band   The band
+     * @param row    The array to be filled, at least as long as the given length
+     * @return The given array
+     */
+    public int[] getRow(int x, int y, int length, int band, int[] row) {
+        ByteBuffer segment = segments[y / rowsPerSegment];
+        for (int i = 0, position = position(y, x * bands + band); i < length; i++, position += bands) {
+            row[i] = segment.get(position) & 0xFF;
+        }
+        return row;
+    }
+
+    /**
+     * Writes a row of samples of one band.
+     *
+     * @param y    The row
+     * @param band The band
+     * @param row  The samples, at least as many as the width
+     */
+    public void setRow(int y, int band, int[] row) {
+        setRow(0, y, width, band, row);
+    }
+
+    /**
+     * Writes part of a row of samples of one band.
+     *
+     * @param x      The first column
+     * @param y      The row
+     * @param length The number of samples
+     * @param band   The band
+     * @param row    The samples, at least as many as the given length
+     */
+    public void setRow(int x, int y, int length, int band, int[] row) {
+        ByteBuffer segment = segments[y / rowsPerSegment];
+        for (int i = 0, position = position(y, x * bands + band); i < length; i++, position += bands) {
+            segment.put(position, (byte) row[i]);
+        }
+    }
+
+    /**
+     * @return The whole raster as an image, see {@link #getImage(int, int, int, int)}
+     */
+    public BufferedImage getImage() {
+        return getImage(0, 0, width, height);
+    }
+
+    /**
+     * Gives a region of the raster as an image which reads and writes the samples of the raster, rather than a
+     * copy of them. The bands are taken as gray, gray and alpha, RGB or RGB and alpha, depending on their number.
+     * The image is of TYPE_CUSTOM; {@link PixelAccess} reads and writes its rows at about the speed of those of the
+     * raster, while going through the methods of the image itself costs a division per sample.
+     *
+     * @param x      The left edge of the region
+     * @param y      The top edge of the region
+     * @param width  The width of the region
+     * @param height The height of the region
+     * @return The region, of at most 2^31 - 1 samples
+     * @throws IllegalArgumentException If the region is not within the raster or holds too many samples
+     */
+    public BufferedImage getImage(int x, int y, int width, int height) {
+        if (x < 0 || y < 0 || width <= 0 || height <= 0 || (long) x + width > this.width
+                || (long) y + height > this.height)
+            throw new IllegalArgumentException("Region " + width + "x" + height + " at " + x + ", " + y
+                    + " is not within the " + this.width + "x" + this.height + " raster");
+        if ((long) width * height * bands > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Region " + width + "x" + height + " is too large for an image");
+        int[] bandOffsets = new int[bands];
+        for (int band = 0; band < bands; band++) {
+            bandOffsets[band] = band;
+        }
+        PixelInterleavedSampleModel sampleModel = new PixelInterleavedSampleModel(DataBuffer.TYPE_BYTE, width, height,
+                bands, width * bands, bandOffsets);
+        WritableRaster raster = Raster.createWritableRaster(sampleModel, new ViewBuffer(this, x, y, width, height),
+                null);
+        return new BufferedImage(getColorModel(bands), raster, false, null);
+    }
+
+    private static ColorModel getColorModel(int bands) {
+        ColorSpace colorSpace = ColorSpace.getInstance(bands < 3 ? ColorSpace.CS_GRAY : ColorSpace.CS_sRGB);
+        boolean alpha = bands == 2 || bands == 4;
+        return new ComponentColorModel(colorSpace, alpha, false, alpha ? Transparency.TRANSLUCENT : Transparency.OPAQUE,
+                DataBuffer.TYPE_BYTE);
+    }
+
+    /**
+     * @return The position in its segment of the sample at the given byte of a row
+     */
+    private int position(int y, int column) {
+        return y % rowsPerSegment * rowSize + column;
+    }
+
+    /**
+     * The samples of a region of a raster, as the data of an image. The elements are the samples of the region row
+     * by row, with a scanline stride of the width of the region times the number of bands.
+     */
+    static final class ViewBuffer extends DataBuffer {
+        final OffHeapRaster raster;
+        final int x;
+        final int y;
+        final int stride;
+
+        ViewBuffer(OffHeapRaster raster, int x, int y, int width, int height) {
+            super(DataBuffer.TYPE_BYTE, width * height * raster.bands);
+            this.raster = raster;
+            this.x = x;
+            this.y = y;
+            this.stride = width * raster.bands;
+        }
+
+        @Override
+        public int getElem(int bank, int i) {
+            int row = i / stride;
+            int column = x * raster.bands + i - row * stride;
+            return raster.segments[(y + row) / raster.rowsPerSegment].get(raster.position(y + row, column)) & 0xFF;
+        }
+
+        @Override
+        public void setElem(int bank, int i, int val) {
+            int row = i / stride;
+            int column = x * raster.bands + i - row * stride;
+            raster.segments[(y + row) / raster.rowsPerSegment].put(raster.position(y + row, column), (byte) val);
+        }
+    }
+}
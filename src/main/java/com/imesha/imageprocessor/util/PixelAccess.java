@@ -0,0 +1,438 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 imesha
+ */
+
+package com.imesha.imageprocessor.util;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * Row major access to the pixels of a {@link BufferedImage} which works on the backing arrays of the raster whenever
+ * the layout allows it, and falls back to the bulk {@link Raster} methods otherwise. Nothing is allocated per pixel;
+ * callers keep one row buffer per row they need and reuse it for the whole image.
+ */
+public final class PixelAccess {
+
+    /**
+     * The sample which {@link BufferedImage#setRGB(int, int, int)} stores in a TYPE_BYTE_GRAY image for an opaque
+     * gray colour of each level. The gray colour space is linear, so this is not the identity.
+     */
+    private static final byte[] GRAY_LEVEL_SAMPLES = new byte[256];
+
+    static {
+        BufferedImage image = new BufferedImage(1, 1, BufferedImage.TYPE_BYTE_GRAY);
+        for (int level = 0; level < 256; level++) {
+            image.setRGB(0, 0, new Color(level, level, level).getRGB());
+            GRAY_LEVEL_SAMPLES[level] = (byte) image.getRaster().getSample(0, 0, 0);
+        }
+    }
+
+    private PixelAccess() {
+    }
+
+    /**
+     * Gives the sample to be written into a TYPE_BYTE_GRAY raster so that the pixel ends up with the same value
+     * as setting it to the gray colour of the given level with {@link BufferedImage#setRGB(int, int, int)}.
+     *
+     * @param level The gray level, 0 - 255
+     * @return The raw sample, as a byte
+     */
+    public static byte toGraySample(int level) {
+        return GRAY_LEVEL_SAMPLES[level];
+    }
+
+    /**
+     * Creates a TYPE_BYTE_GRAY image. Its raster is always a single, zero offset byte array with a scanline stride
+     * equal to the width, so {@link Band#getData()} indexes it as {@code y * width + x}.
+     */
+    public static BufferedImage createGrayImage(int width, int height) {
+        return new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+    }
+
+    /**
+     * Checks an image given to an operation to write its gray scale result into.
+     *
+     * @param destination The image, or null to have a new one created
+     * @param width       The width of the result
+     * @param height      The height of the result
+     * @return The destination, or a new TYPE_BYTE_GRAY image if it was null
+     * @throws IllegalArgumentException If the destination is not a TYPE_BYTE_GRAY image of the given size
+     */
+    public static BufferedImage grayDestination(BufferedImage destination, int width, int height) {
+        if (destination == null) return createGrayImage(width, height);
+        if (destination.getType() != BufferedImage.TYPE_BYTE_GRAY || destination.getWidth() != width
+                || destination.getHeight() != height)
+            throw new IllegalArgumentException("Destination must be a " + width + "x" + height + " TYPE_BYTE_GRAY image");
+        return destination;
+    }
+
+    /**
+     * Checks an image given to an operation to write a result of the same kind as its source into.
+     *
+     * @param source      The image the result is computed from
+     * @param destination The image, or null to have a new one created
+     * @param width       The width of the result
+     * @param height      The height of the result
+     * @return The destination, or a new image of the type of the source if it was null
+     * @throws IllegalArgumentException If the destination does not have the size and the colour model required
+     */
+    public static BufferedImage compatibleDestination(BufferedImage source, BufferedImage destination, int width,
+                                                      int height) {
+        ColorModel colorModel = source.getColorModel();
+        if (destination == null) {
+            int type = source.getType();
+            if (type != BufferedImage.TYPE_CUSTOM) return new BufferedImage(width, height, type);
+            return new BufferedImage(colorModel, colorModel.createCompatibleWritableRaster(width, height),
+                    colorModel.isAlphaPremultiplied(), null);
+        }
+        if (!destination.getColorModel().equals(colorModel) || destination.getWidth() != width
+                || destination.getHeight() != height)
+            throw new IllegalArgumentException("Destination must be a " + width + "x" + height
+                    + " image with the colour model of the source");
+        return destination;
+    }
+
+    /**
+     * Tells whether every band of an image holds 8 bit samples which can be processed on their own, ie: which are
+     * not indices into a palette.
+     */
+    public static boolean hasByteSamples(BufferedImage image) {
+        if (image.getColorModel() instanceof IndexColorModel) return false;
+        SampleModel sampleModel = image.getSampleModel();
+        for (int band = 0; band < sampleModel.getNumBands(); band++) {
+            if (sampleModel.getSampleSize(band) != 8) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param image The image
+     * @param band  The band of the raster to be accessed
+     * @return An accessor for a single band of the image
+     */
+    public static Band band(BufferedImage image, int band) {
+        return new Band(image.getRaster(), band);
+    }
+
+    /**
+     * @param image The image
+     * @return Accessors for every band of the image, in the order of the bands of its raster
+     */
+    public static Band[] bands(BufferedImage image) {
+        Band[] bands = new Band[image.getRaster().getNumBands()];
+        for (int band = 0; band < bands.length; band++) {
+            bands[band] = new Band(image.getRaster(), band);
+        }
+        return bands;
+    }
+
+    /**
+     * @param raster The raster
+     * @return Accessors for every band of the raster, in order
+     */
+    public static Band[] bands(OffHeapRaster raster) {
+        Band[] bands = new Band[raster.getNumBands()];
+        for (int band = 0; band < bands.length; band++) {
+            bands[band] = new Band(raster, band);
+        }
+        return bands;
+    }
+
+    /**
+     * @param image The image
+     * @return An accessor which reads rows of the image as packed, non premultiplied sRGB values
+     */
+    public static RgbRows rgbRows(BufferedImage image) {
+        return new RgbRows(image);
+    }
+
+
+    /**
+     * One band of a raster. When the band is stored as bytes in a single bank (which is the case for every byte
+     * based {@link BufferedImage} type) the backing array is exposed through {@link #getData()} and {@link #index}.
+     * The bands of an {@link OffHeapRaster}, and of the images which are views of one, are read and written in its
+     * segments.
+     */
+    public static final class Band {
+        private final WritableRaster raster;
+        private final int band;
+        private final int width;
+        private final int height;
+        private final byte[] data;
+        private final int offset;
+        private final int scanlineStride;
+        private final int pixelStride;
+        private final OffHeapRaster offHeapRaster;
+        private final int offHeapX;
+        private final int offHeapY;
+        private final int offHeapBand;
+
+        Band(OffHeapRaster raster, int band) {
+            this.raster = null;
+            this.band = band;
+            this.width = raster.getWidth();
+            this.height = raster.getHeight();
+            this.data = null;
+            this.offset = 0;
+            this.scanlineStride = 0;
+            this.pixelStride = 0;
+            this.offHeapRaster = raster;
+            this.offHeapX = 0;
+            this.offHeapY = 0;
+            this.offHeapBand = band;
+        }
+
+        Band(WritableRaster raster, int band) {
+            this.raster = raster;
+            this.band = band;
+            this.width = raster.getWidth();
+            this.height = raster.getHeight();
+
+            byte[] data = null;
+            int offset = 0, scanlineStride = 0, pixelStride = 0;
+            DataBuffer dataBuffer = raster.getDataBuffer();
+            if (dataBuffer instanceof DataBufferByte && raster.getSampleModel() instanceof ComponentSampleModel) {
+                ComponentSampleModel sampleModel = (ComponentSampleModel) raster.getSampleModel();
+                int bank = sampleModel.getBankIndices()[band];
+                data = ((DataBufferByte) dataBuffer).getData(bank);
+                offset = dataBuffer.getOffsets()[bank] + sampleModel.getOffset(
+                        raster.getMinX() - raster.getSampleModelTranslateX(),
+                        raster.getMinY() - raster.getSampleModelTranslateY(), band);
+                scanlineStride = sampleModel.getScanlineStride();
+                pixelStride = sampleModel.getPixelStride();
+            }
+            OffHeapRaster offHeapRaster = null;
+            int offHeapX = 0, offHeapY = 0, offHeapBand = 0;
+            if (dataBuffer instanceof OffHeapRaster.ViewBuffer
+                    && raster.getSampleModel() instanceof ComponentSampleModel) {
+                OffHeapRaster.ViewBuffer view = (OffHeapRaster.ViewBuffer) dataBuffer;
+                ComponentSampleModel sampleModel = (ComponentSampleModel) raster.getSampleModel();
+                int bands = view.raster.getNumBands();
+                // Sub images and child rasters of the view share its layout, but start elsewhere in it
+                if (sampleModel.getPixelStride() == bands && sampleModel.getScanlineStride() == view.stride) {
+                    int element = sampleModel.getOffset(raster.getMinX() - raster.getSampleModelTranslateX(),
+                            raster.getMinY() - raster.getSampleModelTranslateY(), band);
+                    offHeapRaster = view.raster;
+                    offHeapX = view.x + element % view.stride / bands;
+                    offHeapY = view.y + element / view.stride;
+                    offHeapBand = element % view.stride % bands;
+                }
+            }
+            this.data = data;
+            this.offset = offset;
+            this.scanlineStride = scanlineStride;
+            this.pixelStride = pixelStride;
+            this.offHeapRaster = offHeapRaster;
+            this.offHeapX = offHeapX;
+            this.offHeapY = offHeapY;
+            this.offHeapBand = offHeapBand;
+        }
+
+        /**
+         * @return true if the samples can be accessed through {@link #getData()}
+         */
+        public boolean isDirect() {
+            return data != null;
+        }
+
+        /**
+         * @return The backing array of the band, or null if the band is not stored as bytes
+         */
+        public byte[] getData() {
+            return data;
+        }
+
+        /**
+         * @return The position of the sample of the pixel (x, y) in {@link #getData()}
+         */
+        public int index(int x, int y) {
+            return offset + y * scanlineStride + x * pixelStride;
+        }
+
+        public int getPixelStride() {
+            return pixelStride;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public int getSample(int x, int y) {
+            if (data != null) return data[index(x, y)] & 0xFF;
+            if (offHeapRaster != null) return offHeapRaster.getSample(offHeapX + x, offHeapY + y, offHeapBand);
+            return raster.getSample(raster.getMinX() + x, raster.getMinY() + y, band);
+        }
+
+        public void setSample(int x, int y, int value) {
+            if (data != null) data[index(x, y)] = (byte) value;
+            else if (offHeapRaster != null) offHeapRaster.setSample(offHeapX + x, offHeapY + y, offHeapBand, value);
+            else raster.setSample(raster.getMinX() + x, raster.getMinY() + y, band, value);
+        }
+
+        /**
+         * Reads a row of samples.
+         *
+         * @param y   The row
+         * @param row The array to be filled, at least as long as the width
+         * @return The given array
+         */
+        public int[] getRow(int y, int[] row) {
+            if (offHeapRaster != null) return offHeapRaster.getRow(offHeapX, offHeapY + y, width, offHeapBand, row);
+            if (data == null) return raster.getSamples(raster.getMinX(), raster.getMinY() + y, width, 1, band, row);
+            for (int x = 0, index = index(0, y); x < width; x++, index += pixelStride) {
+                row[x] = data[index] & 0xFF;
+            }
+            return row;
+        }
+
+        /**
+         * Writes a row of samples.
+         *
+         * @param y   The row
+         * @param row The samples, at least as many as the width
+         */
+        public void setRow(int y, int[] row) {
+            if (offHeapRaster != null) {
+                offHeapRaster.setRow(offHeapX, offHeapY + y, width, offHeapBand, row);
+                return;
+            }
+            if (data == null) {
+                raster.setSamples(raster.getMinX(), raster.getMinY() + y, width, 1, band, row);
+                return;
+            }
+            for (int x = 0, index = index(0, y); x < width; x++, index += pixelStride) {
+                data[index] = (byte) row[x];
+            }
+        }
+    }
+
+
+    /**
+     * Reads rows of an image as packed ARGB ints, giving the same values as
+     * {@link BufferedImage#getRGB(int, int, int, int, int[], int, int)}. Integer RGB images and 8 bit RGB(A)
+     * component images are read from their backing arrays, anything else goes through the colour model.
+     */
+    public static final class RgbRows {
+        private final BufferedImage image;
+        private final int width;
+
+        // TYPE_INT_RGB and TYPE_INT_ARGB
+        private final int[] ints;
+        private final int intOffset;
+        private final int intStride;
+        private final int alphaMask;
+
+        // Non premultiplied 8 bit RGB(A) component rasters, eg: TYPE_3BYTE_BGR and TYPE_4BYTE_ABGR
+        private final Band red, green, blue, alpha;
+
+        RgbRows(BufferedImage image) {
+            this.image = image;
+            this.width = image.getWidth();
+            WritableRaster raster = image.getRaster();
+
+            int[] ints = null;
+            int intOffset = 0, intStride = 0, alphaMask = 0;
+            Band red = null, green = null, blue = null, alpha = null;
+            int type = image.getType();
+            if ((type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB)
+                    && raster.getDataBuffer() instanceof DataBufferInt
+                    && raster.getSampleModel() instanceof SinglePixelPackedSampleModel) {
+                SinglePixelPackedSampleModel sampleModel = (SinglePixelPackedSampleModel) raster.getSampleModel();
+                ints = ((DataBufferInt) raster.getDataBuffer()).getData();
+                intOffset = raster.getDataBuffer().getOffset() + sampleModel.getOffset(
+                        raster.getMinX() - raster.getSampleModelTranslateX(),
+                        raster.getMinY() - raster.getSampleModelTranslateY());
+                intStride = sampleModel.getScanlineStride();
+                alphaMask = type == BufferedImage.TYPE_INT_RGB ? 0xFF000000 : 0;
+            } else if (isPlainRgbComponentImage(image)) {
+                red = new Band(raster, 0);
+                green = new Band(raster, 1);
+                blue = new Band(raster, 2);
+                if (raster.getNumBands() == 4) alpha = new Band(raster, 3);
+            }
+            this.ints = ints;
+            this.intOffset = intOffset;
+            this.intStride = intStride;
+            this.alphaMask = alphaMask;
+            this.red = red;
+            this.green = green;
+            this.blue = blue;
+            this.alpha = alpha;
+        }
+
+        private static boolean isPlainRgbComponentImage(BufferedImage image) {
+            if (!(image.getColorModel() instanceof ComponentColorModel)) return false;
+            ComponentColorModel colorModel = (ComponentColorModel) image.getColorModel();
+            int bands = image.getRaster().getNumBands();
+            if (!colorModel.getColorSpace().isCS_sRGB() || colorModel.isAlphaPremultiplied()
+                    || colorModel.getTransferType() != DataBuffer.TYPE_BYTE || (bands != 3 && bands != 4)) {
+                return false;
+            }
+            for (int bits : colorModel.getComponentSize()) {
+                if (bits != 8) return false;
+            }
+            Raster raster = image.getRaster();
+            return raster.getDataBuffer() instanceof DataBufferByte
+                    && raster.getSampleModel() instanceof ComponentSampleModel;
+        }
+
+        /**
+         * @return true if the rows are read from the backing arrays rather than through the colour model
+         */
+        public boolean isDirect() {
+            return ints != null || red != null;
+        }
+
+        /**
+         * Reads a row of pixels.
+         *
+         * @param y   The row
+         * @param row The array to be filled with packed ARGB values, at least as long as the width
+         * @return The given array
+         */
+        public int[] getRow(int y, int[] row) {
+            if (ints != null) {
+                System.arraycopy(ints, intOffset + y * intStride, row, 0, width);
+                if (alphaMask != 0) {
+                    for (int x = 0; x < width; x++) {
+                        row[x] |= alphaMask;
+                    }
+                }
+                return row;
+            }
+            if (red != null) {
+                byte[] reds = red.getData(), greens = green.getData(), blues = blue.getData();
+                int r = red.index(0, y), g = green.index(0, y), b = blue.index(0, y);
+                int step = red.getPixelStride();
+                for (int x = 0; x < width; x++, r += step, g += step, b += step) {
+                    row[x] = 0xFF000000 | (reds[r] & 0xFF) << 16 | (greens[g] & 0xFF) << 8 | (blues[b] & 0xFF);
+                }
+                if (alpha != null) {
+                    byte[] alphas = alpha.getData();
+                    for (int x = 0, a = alpha.index(0, y); x < width; x++, a += step) {
+                        row[x] = (row[x] & 0xFFFFFF) | (alphas[a] & 0xFF) << 24;
+                    }
+                }
+                return row;
+            }
+            return image.getRGB(0, y, width, 1, row, 0, width);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 imesha
+ */
+
+package com.imesha.imageprocessor.util;
+
+/**
+ * The differences between the samples of all the bands of a reference image and a modified copy of it, as measured
+ * by {@link ImageAnalyser#calculateMetrics(java.awt.image.BufferedImage, java.awt.image.BufferedImage)}. Each
+ * sample of a colour image counts as a pixel of its own.
+ */
+public final class QualityMetrics {
+
+    /**
+     * The number of bins of the error histogram. Errors of this size or more are counted in the last one.
+     */
+    public static final int HISTOGRAM_BINS = 256;
+
+    private final int peak;
+    private long pixelCount;
+    private long absoluteErrorSum;
+    private long squaredErrorSum;
+    private int maxError;
+    private final long[] histogram = new long[HISTOGRAM_BINS];
+
+    QualityMetrics(int peak) {
+        this.peak = peak;
+    }
+
+    /**
+     * Adds the differences between two rows of samples.
+     */
+    void add(int[] originalRow, int[] modifiedRow, int length) {
+        long absoluteSum = 0;
+        long squaredSum = 0;
+        int max = maxError;
+        for (int i = 0; i < length; i++) {
+            int error = Math.abs(originalRow[i] - modifiedRow[i]);
+            absoluteSum += error;
+            squaredSum += (long) error * error;
+            if (error > max) max = error;
+            histogram[error < HISTOGRAM_BINS ? error : HISTOGRAM_BINS - 1]++;
+        }
+        pixelCount += length;
+        absoluteErrorSum += absoluteSum;
+        squaredErrorSum += squaredSum;
+        maxError = max;
+    }
+
+    /**
+     * Adds the differences counted by another instance, eg: of another part of the same images.
+     */
+    void add(QualityMetrics other) {
+        pixelCount += other.pixelCount;
+        absoluteErrorSum += other.absoluteErrorSum;
+        squaredErrorSum += other.squaredErrorSum;
+        maxError = Math.max(maxError, other.maxError);
+        for (int i = 0; i < HISTOGRAM_BINS; i++) {
+            histogram[i] += other.histogram[i];
+        }
+    }
+
+    public long getPixelCount() {
+        return pixelCount;
+    }
+
+    /**
+     * @return The mean absolute error, which is what {@link ImageAnalyser#calculateAverageDistortion} gives
+     */
+    public double getMeanAbsoluteError() {
+        return pixelCount == 0 ? 0 : (double) absoluteErrorSum / pixelCount;
+    }
+
+    public double getMeanSquaredError() {
+        return pixelCount == 0 ? 0 : (double) squaredErrorSum / pixelCount;
+    }
+
+    /**
+     * @return The root mean squared error, which is what {@link ImageAnalyser#calculateStandardDeviation} gives
+     */
+    public double getRootMeanSquaredError() {
+        return Math.sqrt(getMeanSquaredError());
+    }
+
+    /**
+     * @return The peak signal to noise ratio in decibels, relative to the largest sample of the reference image,
+     * or positive infinity if the images are identical
+     */
+    public double getPeakSignalToNoiseRatio() {
+        double meanSquaredError = getMeanSquaredError();
+        if (meanSquaredError == 0) return Double.POSITIVE_INFINITY;
+        return 10 * Math.log10((double) peak * peak / meanSquaredError);
+    }
+
+    public int getMaxError() {
+        return maxError;
+    }
+
+    /**
+     * @return The number of pixels with each absolute error, see {@link #HISTOGRAM_BINS}
+     */
+    public long[] getErrorHistogram() {
+        return histogram.clone();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("MAE=%.4f MSE=%.4f RMSE=%.4f PSNR=%.2fdB max=%d", getMeanAbsoluteError(),
+                getMeanSquaredError(), getRootMeanSquaredError(), getPeakSignalToNoiseRatio(), maxError);
+    }
+}
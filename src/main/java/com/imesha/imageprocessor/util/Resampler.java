@@ -0,0 +1,374 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 imesha
+ */
+
+package com.imesha.imageprocessor.util;
+
+import com.imesha.imageprocessor.util.metrics.Metrics;
+import com.imesha.imageprocessor.util.metrics.StageMetrics;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * Resizes images to any size with a separable filter. Each output row is filtered horizontally and then vertically,
+ * using weight tables computed once per resize, in fixed point. When shrinking, the filter is widened by the scale
+ * factor so every source pixel contributes to the result. Pixels beyond the edges are left out and the remaining
+ * weights renormalized, so any size, odd or not, is resampled without reading past the image.
+ * <p>
+ * TYPE_BYTE_GRAY images are resampled sample by sample into a TYPE_BYTE_GRAY image. Anything else is read as sRGB
+ * and resampled into a TYPE_INT_RGB image, or a TYPE_INT_ARGB image when it has alpha, in which case the colours are
+ * weighted by alpha while filtering.
+ */
+public final class Resampler {
+
+    private static final StageMetrics RESAMPLE = Metrics.stage("resample");
+
+    /**
+     * The filters, with the distance from the centre beyond which they are 0 when not shrinking.
+     */
+    public enum Filter {
+        /**
+         * The average of the pixels covered, which at exactly half the size is the average of each 2x2 block.
+         */
+        BOX(0.5) {
+            double weight(double x) {
+                return Math.abs(x) < 0.5 ? 1 : 0;
+            }
+        },
+        /**
+         * Linear interpolation between the two nearest pixels.
+         */
+        BILINEAR(1) {
+            double weight(double x) {
+                x = Math.abs(x);
+                return x < 1 ? 1 - x : 0;
+            }
+        },
+        /**
+         * The Catmull-Rom cubic, which is sharper than bilinear with a small overshoot at edges.
+         */
+        BICUBIC(2) {
+            double weight(double x) {
+                x = Math.abs(x);
+                if (x < 1) return (1.5 * x - 2.5) * x * x + 1;
+                if (x < 2) return ((-0.5 * x + 2.5) * x - 4) * x + 2;
+                return 0;
+            }
+        },
+        /**
+         * The windowed sinc with three lobes, the sharpest of the three.
+         */
+        LANCZOS(3) {
+            double weight(double x) {
+                x = Math.abs(x);
+                if (x >= 3) return 0;
+                return sinc(x) * sinc(x / 3);
+            }
+        };
+
+        private final double support;
+
+        Filter(double support) {
+            this.support = support;
+        }
+
+        abstract double weight(double x);
+
+        public double getSupport() {
+            return support;
+        }
+
+        private static double sinc(double x) {
+            if (x == 0) return 1;
+            x *= Math.PI;
+            return Math.sin(x) / x;
+        }
+    }
+
+    private static final int WEIGHT_BITS = 14;
+    private static final int WEIGHT_ONE = 1 << WEIGHT_BITS;
+    /*
+     * Horizontally filtered values keep 7 fractional bits. With the overshoot of the sharper filters they stay below
+     * 2^16, and the absolute weights of a pixel sum to less than 2^15, so the vertical sums fit in an int.
+     */
+    private static final int HORIZONTAL_SHIFT = WEIGHT_BITS - 7;
+    private static final int VERTICAL_SHIFT = WEIGHT_BITS + 7;
+
+    private Resampler() {
+    }
+
+    /**
+     * @param image  The image to be resized
+     * @param width  The width of the result
+     * @param height The height of the result
+     * @param filter The filter to interpolate with
+     * @return A new image of the given size
+     */
+    public static BufferedImage resample(BufferedImage image, int width, int height, Filter filter) {
+        return resample(image, width, height, filter, null);
+    }
+
+    /**
+     * Resizes an image into the given destination.
+     *
+     * @param image       The image to be resized
+     * @param width       The width of the result
+     * @param height      The height of the result
+     * @param filter      The filter to interpolate with
+     * @param destination An image of the given size and of the type given by {@link #getResultType}, or null to
+     *                    create a new one
+     * @return The destination
+     * @throws IllegalArgumentException If the size is not positive, or the destination does not fit
+     */
+    public static BufferedImage resample(BufferedImage image, final int width, final int height, Filter filter,
+                                         BufferedImage destination) {
+        if (width <= 0 || height <= 0)
+            throw new IllegalArgumentException("Size must be positive: " + width + "x" + height);
+        int type = getResultType(image);
+        BufferedImage result = destination;
+        if (result == null) {
+            result = new BufferedImage(width, height, type);
+        } else if (result.getType() != type || result.getWidth() != width || result.getHeight() != height) {
+            throw new IllegalArgumentException("Destination must be a " + width + "x" + height + " image of type "
+                    + type);
+        }
+
+        StageMetrics.Sample sample = RESAMPLE.start();
+        final int sourceWidth = image.getWidth();
+        if (filter == Filter.BOX && type == BufferedImage.TYPE_BYTE_GRAY && sourceWidth == 2 * width
+                && image.getHeight() == 2 * height) {
+            halve(image, result);
+            sample.stop((long) sourceWidth * image.getHeight());
+            return result;
+        }
+
+        final int channels = type == BufferedImage.TYPE_BYTE_GRAY ? 1 : type == BufferedImage.TYPE_INT_ARGB ? 4 : 3;
+        final Weights columns = new Weights(sourceWidth, width, filter);
+        final Weights rows = new Weights(image.getHeight(), height, filter);
+        final PixelAccess.Band sourceBand = channels == 1 ? PixelAccess.band(image, 0) : null;
+        final PixelAccess.RgbRows sourceRgb = channels == 1 ? null : PixelAccess.rgbRows(image);
+        final PixelAccess.Band targetBand = channels == 1 ? PixelAccess.band(result, 0) : null;
+        final BufferedImage target = result;
+
+        StripeExecutor.StripeTask task = new StripeExecutor.StripeTask() {
+            public void process(int fromRow, int toRow) {
+                // The source rows under this stripe, each filtered horizontally once
+                int firstSourceRow = rows.starts[fromRow];
+                int sourceRows = rows.starts[toRow - 1] + rows.counts[toRow - 1] - firstSourceRow;
+                int[][] filtered = new int[sourceRows][width * channels];
+                int[] sourceRow = new int[sourceWidth * channels];
+                int[] packed = channels == 1 ? null : new int[Math.max(sourceWidth, width)];
+                for (int y = 0; y < sourceRows; y++) {
+                    if (channels == 1) {
+                        sourceBand.getRow(firstSourceRow + y, sourceRow);
+                    } else {
+                        sourceRgb.getRow(firstSourceRow + y, packed);
+                        unpack(packed, sourceRow, sourceWidth, channels);
+                    }
+                    filterRow(sourceRow, filtered[y], columns, channels);
+                }
+
+                int[] row = new int[width * channels];
+                for (int j = fromRow; j < toRow; j++) {
+                    filterColumns(filtered, rows.starts[j] - firstSourceRow, rows, j, row);
+                    if (channels == 1) {
+                        targetBand.setRow(j, row);
+                    } else {
+                        pack(row, packed, width, channels);
+                        target.getRaster().setDataElements(0, j, width, 1, packed);
+                    }
+                }
+            }
+        };
+        // Colour models are not guaranteed to be thread safe, so only images read directly are split up
+        if (sourceRgb == null || sourceRgb.isDirect()) StripeExecutor.forEachStripe(width, height, task);
+        else task.process(0, height);
+        sample.stop((long) sourceWidth * image.getHeight());
+        return result;
+    }
+
+    /**
+     * @param image An image to be resampled
+     * @return The type of the image {@link #resample} makes of it
+     */
+    public static int getResultType(BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_BYTE_GRAY) return BufferedImage.TYPE_BYTE_GRAY;
+        return image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+    }
+
+    /**
+     * The box filter at exactly half the size of a gray image, which is the rounded average of each 2x2 block.
+     */
+    private static void halve(BufferedImage image, BufferedImage result) {
+        final PixelAccess.Band source = PixelAccess.band(image, 0);
+        final PixelAccess.Band target = PixelAccess.band(result, 0);
+        final int width = result.getWidth();
+        StripeExecutor.forEachStripe(width, result.getHeight(), new StripeExecutor.StripeTask() {
+            public void process(int fromRow, int toRow) {
+                int[] sums = new int[2 * width];
+                int[] upperRow = new int[2 * width];
+                int[] lowerRow = new int[2 * width];
+                for (int j = fromRow; j < toRow; j++) {
+                    if (source.isDirect() && source.getPixelStride() == 1) {
+                        RowKernels.addRows(source.getData(), source.index(0, 2 * j), source.index(0, 2 * j + 1),
+                                sums, sums.length);
+                    } else {
+                        source.getRow(2 * j, upperRow);
+                        source.getRow(2 * j + 1, lowerRow);
+                        RowKernels.addRows(upperRow, lowerRow, sums, sums.length);
+                    }
+                    RowKernels.averagePairs(sums, sums, width, 2);
+                    target.setRow(j, sums);
+                }
+            }
+        });
+    }
+
+    private static void filterRow(int[] source, int[] target, Weights columns, int channels) {
+        int[] weights = columns.weights;
+        int round = 1 << (HORIZONTAL_SHIFT - 1);
+        for (int x = 0; x < columns.starts.length; x++) {
+            int start = columns.starts[x] * channels;
+            int count = columns.counts[x];
+            int base = x * columns.taps;
+            if (channels == 1) {
+                int sum = round;
+                for (int t = 0; t < count; t++) {
+                    sum += weights[base + t] * source[start + t];
+                }
+                target[x] = sum >> HORIZONTAL_SHIFT;
+                continue;
+            }
+            for (int c = 0; c < channels; c++) {
+                int sum = round;
+                for (int t = 0, i = start + c; t < count; t++, i += channels) {
+                    sum += weights[base + t] * source[i];
+                }
+                target[x * channels + c] = sum >> HORIZONTAL_SHIFT;
+            }
+        }
+    }
+
+    /**
+     * Filters one output row vertically from the horizontally filtered source rows, a source row at a time.
+     */
+    private static void filterColumns(int[][] filtered, int start, Weights rows, int row, int[] target) {
+        int count = rows.counts[row];
+        int base = row * rows.taps;
+        Arrays.fill(target, 1 << (VERTICAL_SHIFT - 1));
+        for (int t = 0; t < count; t++) {
+            int weight = rows.weights[base + t];
+            int[] source = filtered[start + t];
+            for (int i = 0; i < target.length; i++) {
+                target[i] += weight * source[i];
+            }
+        }
+        for (int i = 0; i < target.length; i++) {
+            target[i] = clamp(target[i] >> VERTICAL_SHIFT);
+        }
+    }
+
+    /**
+     * Splits packed ARGB values into R, G, B (and A) samples, weighting the colours by alpha.
+     */
+    private static void unpack(int[] packed, int[] samples, int width, int channels) {
+        for (int x = 0, i = 0; x < width; x++, i += channels) {
+            int argb = packed[x];
+            int red = (argb >> 16) & 0xFF, green = (argb >> 8) & 0xFF, blue = argb & 0xFF;
+            if (channels == 4) {
+                int alpha = argb >>> 24;
+                red = (red * alpha + 127) / 255;
+                green = (green * alpha + 127) / 255;
+                blue = (blue * alpha + 127) / 255;
+                samples[i + 3] = alpha;
+            }
+            samples[i] = red;
+            samples[i + 1] = green;
+            samples[i + 2] = blue;
+        }
+    }
+
+    /**
+     * The reverse of {@link #unpack}.
+     */
+    private static void pack(int[] samples, int[] packed, int width, int channels) {
+        for (int x = 0, i = 0; x < width; x++, i += channels) {
+            int red = samples[i], green = samples[i + 1], blue = samples[i + 2];
+            int alpha = 0xFF;
+            if (channels == 4) {
+                alpha = samples[i + 3];
+                if (alpha == 0) {
+                    red = green = blue = 0;
+                } else {
+                    red = Math.min(255, (red * 255 + alpha / 2) / alpha);
+                    green = Math.min(255, (green * 255 + alpha / 2) / alpha);
+                    blue = Math.min(255, (blue * 255 + alpha / 2) / alpha);
+                }
+            }
+            packed[x] = (alpha << 24) | (red << 16) | (green << 8) | blue;
+        }
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : value > 255 ? 255 : value;
+    }
+
+    /**
+     * The source pixels and fixed point weights making up each pixel of the result along one axis.
+     */
+    static final class Weights {
+        final int[] starts;
+        final int[] counts;
+        // Row major, taps weights per target pixel, summing to WEIGHT_ONE
+        final int[] weights;
+        final int taps;
+
+        Weights(int sourceSize, int targetSize, Filter filter) {
+            double scale = (double) targetSize / sourceSize;
+            double filterScale = Math.max(1, 1 / scale);
+            double support = filter.getSupport() * filterScale;
+            this.taps = Math.min(sourceSize, (int) Math.ceil(support) * 2 + 1);
+            this.starts = new int[targetSize];
+            this.counts = new int[targetSize];
+            this.weights = new int[targetSize * taps];
+
+            double[] exact = new double[taps];
+            for (int i = 0; i < targetSize; i++) {
+                double center = (i + 0.5) / scale;
+                int start = Math.max(0, (int) Math.floor(center - support + 0.5));
+                int end = Math.min(sourceSize, (int) Math.floor(center + support + 0.5));
+                end = Math.min(end, start + taps);
+                if (end <= start) {
+                    // Only when the centre is at the very edge; the nearest pixel takes all the weight
+                    start = Math.min(sourceSize - 1, Math.max(0, (int) center));
+                    end = start + 1;
+                }
+
+                double total = 0;
+                for (int t = 0; t < end - start; t++) {
+                    exact[t] = filter.weight((start + t + 0.5 - center) / filterScale);
+                    total += exact[t];
+                }
+                int base = i * taps;
+                if (total == 0) {
+                    // Every tap fell on a zero of the filter, so take the nearest pixel
+                    int nearest = Math.min(end - 1, Math.max(start, (int) center)) - start;
+                    weights[base + nearest] = WEIGHT_ONE;
+                } else {
+                    // Round each weight, then give the rounding error to the largest so they sum to exactly one
+                    int sum = 0, largest = 0;
+                    for (int t = 0; t < end - start; t++) {
+                        weights[base + t] = (int) Math.round(exact[t] / total * WEIGHT_ONE);
+                        sum += weights[base + t];
+                        if (weights[base + t] > weights[base + largest]) largest = t;
+                    }
+                    weights[base + largest] += WEIGHT_ONE - sum;
+                }
+                starts[i] = start;
+                counts[i] = end - start;
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 imesha
+ */
+
+package com.imesha.imageprocessor.util;
+
+/**
+ * Integer kernels which process a whole row of pixels per call. The loops are kept free of branches, calls and
+ * floating point, with a single array index, so that the JIT compiler can unroll them and turn them into SIMD
+ * instructions.
+ */
+public final class RowKernels {
+
+    /*
+     * 0.3 R + 0.59 G + 0.11 B is (30 R + 59 G + 11 B) / 100, and for 0 <= x <= 25500, x / 100 == (x * 41944) >>> 22.
+     */
+    private static final int RED_WEIGHT = 30;
+    private static final int GREEN_WEIGHT = 59;
+    private static final int BLUE_WEIGHT = 11;
+    private static final int RECIPROCAL_OF_100 = 41944;
+    private static final int RECIPROCAL_SHIFT = 22;
+
+    private RowKernels() {
+    }
+
+    /**
+     * Gives the gray level of a colour, 0.3 R + 0.59 G + 0.11 B rounded down, in fixed point.
+     * <p>
+     * The result is exact. Computing the same sum in double arithmetic sometimes gives a value just below a whole
+     * number where the exact sum is that number, so it is 1 level darker for about 0.2% of all colours; this kernel
+     * is never off by more than that from the floating point formula.
+     *
+     * @param rgb A packed RGB value
+     * @return The gray level, 0 - 255
+     */
+    public static int toGrayLevel(int rgb) {
+        int weighted = RED_WEIGHT * ((rgb >> 16) & 0xFF) + GREEN_WEIGHT * ((rgb >> 8) & 0xFF)
+                + BLUE_WEIGHT * (rgb & 0xFF);
+        return (weighted * RECIPROCAL_OF_100) >>> RECIPROCAL_SHIFT;
+    }
+
+    /**
+     * Converts a row of packed RGB values to gray levels, see {@link #toGrayLevel(int)}.
+     *
+     * @param rgb    The packed RGB values
+     * @param levels The array for the gray levels, which may be the same as rgb
+     * @param length The number of pixels
+     */
+    public static void toGrayLevels(int[] rgb, int[] levels, int length) {
+        for (int i = 0; i < length; i++) {
+            int pixel = rgb[i];
+            int weighted = RED_WEIGHT * ((pixel >> 16) & 0xFF) + GREEN_WEIGHT * ((pixel >> 8) & 0xFF)
+                    + BLUE_WEIGHT * (pixel & 0xFF);
+            levels[i] = (weighted * RECIPROCAL_OF_100) >>> RECIPROCAL_SHIFT;
+        }
+    }
+
+    /**
+     * Adds two rows of unsigned byte samples, stored one sample per byte.
+     *
+     * @param data   The array holding both rows
+     * @param upper  The index of the first sample of one row
+     * @param lower  The index of the first sample of the other row
+     * @param sums   The array for the sums
+     * @param length The number of samples
+     */
+    public static void addRows(byte[] data, int upper, int lower, int[] sums, int length) {
+        for (int i = 0; i < length; i++) {
+            sums[i] = (data[upper + i] & 0xFF) + (data[lower + i] & 0xFF);
+        }
+    }
+
+    /**
+     * Adds two rows of samples.
+     */
+    public static void addRows(int[] upper, int[] lower, int[] sums, int length) {
+        for (int i = 0; i < length; i++) {
+            sums[i] = upper[i] + lower[i];
+        }
+    }
+
+    /**
+     * Averages the sums of two rows given by {@link #addRows} over 2x2 blocks: for each i,
+     * (sums[2i] + sums[2i + 1] + bias) / 4.
+     *
+     * @param sums     The column sums
+     * @param averages The array for the averages, which may be the same as sums
+     * @param length   The number of averages
+     * @param bias     0 to round down, 2 to round to the nearest
+     */
+    public static void averagePairs(int[] sums, int[] averages, int length, int bias) {
+        for (int i = 0; i < length; i++) {
+            averages[i] = (sums[2 * i] + sums[2 * i + 1] + bias) >> 2;
+        }
+    }
+}
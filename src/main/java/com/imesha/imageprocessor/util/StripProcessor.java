@@ -0,0 +1,313 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 imesha
+ */
+
+package com.imesha.imageprocessor.util;
+
+import com.imesha.imageprocessor.util.compression.ImageCompressor;
+import com.imesha.imageprocessor.util.compression.StripedImageWriter;
+import org.w3c.dom.Node;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Runs the gray scale conversion, down sampling and compression over an image a strip of rows at a time, so that
+ * the intermediate images depend on the strip height instead of the size of the image.
+ * <p>
+ * TIFF and BMP sources are decoded region by region with {@link ImageReadParam#setSourceRegion(Rectangle)}, as are
+ * those of any reader which reports random access to be easy, see {@link ImageReader#isRandomAccessEasy(int)}. The
+ * readers of other formats, PNG and JPEG among them, decode the image again from its first row for every region,
+ * which would take time quadratic in the height of the image. Those are decoded in a single pass into an image which
+ * only keeps the rows of the strip being decoded, so they are never fully loaded either. Sources whose rows are not
+ * decoded in order, eg: interlaced PNG and GIF images, can not be processed that way and fail with an
+ * {@link IOException}.
+ * <p>
+ * The strip height is even, which makes the down sampled strips put together the same as down sampling the whole
+ * image.
+ */
+public class StripProcessor {
+
+    /**
+     * The formats whose readers decode a region without decoding the rows above it, whether or not they report
+     * random access to be easy.
+     */
+    private static final Set<String> REGION_FORMATS = new HashSet<String>(Arrays.asList("tif", "tiff", "bmp"));
+
+    /**
+     * Receives the results for each strip as soon as it has been processed. The images are only valid during the
+     * call; copy them to keep them.
+     */
+    public interface StripListener {
+        /**
+         * @param y                The row of the source image at which the strip starts
+         * @param grayStrip        The gray scale strip
+         * @param downSampledStrip The down sampled gray scale strip, null if the strip is a single row
+         */
+        void onStrip(int y, BufferedImage grayStrip, BufferedImage downSampledStrip) throws Exception;
+    }
+
+    private final int stripHeight;
+
+    /**
+     * @param stripHeight The number of source rows in each strip, a positive even number
+     */
+    public StripProcessor(int stripHeight) {
+        if (stripHeight <= 0 || stripHeight % 2 != 0)
+            throw new IllegalArgumentException("Strip height must be a positive even number: " + stripHeight);
+        this.stripHeight = stripHeight;
+    }
+
+    /**
+     * Processes an image file.
+     *
+     * @param source     The image file
+     * @param compressor The compressor for the gray scale strips, or null to skip compression
+     * @param out        The stream to which the compressed gray scale image is written with a
+     *                   {@link StripedImageWriter}, or null to skip compression
+     * @param listener   Receives the processed strips, may be null
+     * @throws Exception If the file can not be read, or processing fails
+     */
+    public void process(File source, ImageCompressor compressor, OutputStream out, StripListener listener)
+            throws Exception {
+        ImageInputStream input = ImageIO.createImageInputStream(source);
+        if (input == null) throw new IOException("Can not read " + source);
+        try {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) throw new IOException("No image reader for " + source);
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                process(reader, compressor, out, listener);
+            } finally {
+                reader.dispose();
+            }
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Processes the first image of a reader whose input has been set.
+     *
+     * @see #process(File, ImageCompressor, OutputStream, StripListener)
+     */
+    public void process(ImageReader reader, ImageCompressor compressor, OutputStream out, StripListener listener)
+            throws Exception {
+        int width = reader.getWidth(0);
+        int height = reader.getHeight(0);
+        StripedImageWriter writer = null;
+        if (compressor != null && out != null) {
+            writer = new StripedImageWriter(out, compressor, width, height, stripHeight);
+        }
+
+        if (reader.isRandomAccessEasy(0) || REGION_FORMATS.contains(reader.getFormatName().toLowerCase(Locale.ROOT))) {
+            ImageReadParam param = reader.getDefaultReadParam();
+            for (int y = 0; y < height; y += stripHeight) {
+                param.setSourceRegion(new Rectangle(0, y, width, Math.min(stripHeight, height - y)));
+                processStrip(y, reader.read(0, param), writer, listener);
+            }
+        } else {
+            readInOnePass(reader, width, height, writer, listener);
+        }
+        if (writer != null) writer.finish();
+    }
+
+    /**
+     * Decodes the image into a destination which only holds the rows of a strip. Each strip is processed as soon as
+     * the decoder moves on to the rows of the next one, from within the decoder.
+     */
+    private void readInOnePass(ImageReader reader, int width, int height, StripedImageWriter writer,
+                               StripListener listener) throws Exception {
+        if (isDecodedInPasses(reader.getImageMetadata(0)))
+            throw new IOException("The " + reader.getFormatName() + " image is interlaced or progressive, so it can "
+                    + "not be read a strip at a time");
+        ImageTypeSpecifier type = reader.getImageTypes(0).next();
+        SampleModel sampleModel = type.getSampleModel(width, height);
+        SampleModel stripModel = type.getSampleModel(width, stripHeight);
+        int stride = getScanlineStride(sampleModel);
+        if (stride <= 0 || stride != getScanlineStride(stripModel) || sampleModel.getNumDataElements() == 0)
+            throw new IOException("Images of " + reader.getFormatName() + " can not be read a strip at a time");
+        if ((long) stride * height > Integer.MAX_VALUE)
+            throw new IOException("The " + width + "x" + height + " image is too large to be decoded in one pass");
+
+        StripBuffer buffer = new StripBuffer(type.getColorModel(), stripModel, stride, stride * height, height,
+                writer, listener);
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setDestination(new BufferedImage(type.getColorModel(),
+                Raster.createWritableRaster(sampleModel, buffer, null), type.getColorModel().isAlphaPremultiplied(),
+                null));
+        try {
+            reader.read(0, param);
+        } catch (Exception e) {
+            // The readers wrap what is thrown from within them
+            for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+                if (cause instanceof StripFailure) throw (Exception) cause.getCause();
+                if (cause instanceof RowOrderException)
+                    throw new IOException("The " + reader.getFormatName() + " image does not decode its rows in "
+                            + "order, eg: it is interlaced, so it can not be read a strip at a time", cause);
+            }
+            throw e;
+        }
+        buffer.finish();
+    }
+
+    /**
+     * Tells from the native metadata of an image whether its rows are decoded over several passes: those of
+     * interlaced PNG and GIF images, and of progressive JPEG images.
+     */
+    private static boolean isDecodedInPasses(IIOMetadata metadata) {
+        if (metadata == null || metadata.getNativeMetadataFormatName() == null) return false;
+        Node root = metadata.getAsTree(metadata.getNativeMetadataFormatName());
+        return hasAttribute(root, "IHDR", "interlaceMethod", "adam7")
+                || hasAttribute(root, "ImageDescriptor", "interlaceFlag", "TRUE")
+                || hasAttribute(root, "sof", "process", "2");
+    }
+
+    private static boolean hasAttribute(Node node, String element, String attribute, String value) {
+        if (node.getNodeName().equals(element) && node.getAttributes() != null) {
+            Node found = node.getAttributes().getNamedItem(attribute);
+            if (found != null && value.equals(found.getNodeValue())) return true;
+        }
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (hasAttribute(child, element, attribute, value)) return true;
+        }
+        return false;
+    }
+
+    private static int getScanlineStride(SampleModel sampleModel) {
+        if (sampleModel instanceof ComponentSampleModel) {
+            ComponentSampleModel model = (ComponentSampleModel) sampleModel;
+            // All the bands must be in the same bank for the rows to be laid out one after the other
+            for (int bank : model.getBankIndices()) {
+                if (bank != 0) return -1;
+            }
+            return model.getScanlineStride();
+        }
+        if (sampleModel instanceof MultiPixelPackedSampleModel)
+            return ((MultiPixelPackedSampleModel) sampleModel).getScanlineStride();
+        if (sampleModel instanceof SinglePixelPackedSampleModel)
+            return ((SinglePixelPackedSampleModel) sampleModel).getScanlineStride();
+        return -1;
+    }
+
+    private void processStrip(int y, BufferedImage strip, StripedImageWriter writer, StripListener listener)
+            throws Exception {
+        BufferedImage grayStrip = ImageConverter.convertToGrayScale(strip);
+        // A single row left at the bottom has nothing to be averaged with, as when down sampling a whole image
+        BufferedImage downSampledStrip = strip.getHeight() > 1 ? ImageSampler.downSample(grayStrip) : null;
+        if (writer != null) writer.writeStrip(grayStrip);
+        if (listener != null) listener.onStrip(y, grayStrip, downSampledStrip);
+    }
+    /**
+     * The data of an image as large as the source, of which only the rows of the current strip are kept. Once the
+     * decoder writes to a row below the strip, the strip is complete and is processed, and the rows of the next
+     * strip take its place. Rows which are not kept read as 0.
+     */
+    private final class StripBuffer extends DataBuffer {
+        private final ColorModel colorModel;
+        private final SampleModel stripModel;
+        private final DataBuffer strip;
+        private final int stride;
+        private final int height;
+        private final StripedImageWriter writer;
+        private final StripListener listener;
+        private int stripTop;
+
+        StripBuffer(ColorModel colorModel, SampleModel stripModel, int stride, int size, int height,
+                    StripedImageWriter writer, StripListener listener) {
+            super(stripModel.getDataType(), size);
+            this.colorModel = colorModel;
+            this.stripModel = stripModel;
+            this.strip = stripModel.createDataBuffer();
+            this.stride = stride;
+            this.height = height;
+            this.writer = writer;
+            this.listener = listener;
+        }
+
+        @Override
+        public int getElem(int bank, int i) {
+            int row = i / stride;
+            if (row < stripTop || row >= stripTop + stripHeight) return 0;
+            return strip.getElem(i - stripTop * stride);
+        }
+
+        @Override
+        public void setElem(int bank, int i, int value) {
+            int row = i / stride;
+            if (row < stripTop) throw new RowOrderException(row, stripTop);
+            while (row >= stripTop + stripHeight) {
+                completeStrip();
+            }
+            strip.setElem(i - stripTop * stride, value);
+        }
+
+        /**
+         * Processes the last strip, once the decoder has finished.
+         */
+        void finish() {
+            while (stripTop < height) {
+                completeStrip();
+            }
+        }
+
+        private void completeStrip() {
+            int rows = Math.min(stripHeight, height - stripTop);
+            WritableRaster raster = Raster.createWritableRaster(stripModel.createCompatibleSampleModel(
+                    stripModel.getWidth(), rows), strip, null);
+            try {
+                processStrip(stripTop, new BufferedImage(colorModel, raster, colorModel.isAlphaPremultiplied(),
+                        null), writer, listener);
+            } catch (Exception e) {
+                throw new StripFailure(e);
+            }
+            stripTop += stripHeight;
+        }
+    }
+
+    /**
+     * Carries what processing a strip threw out of the decoder.
+     */
+    private static final class StripFailure extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        StripFailure(Exception cause) {
+            super(cause);
+        }
+    }
+
+    /**
+     * Thrown when the decoder goes back to a row of a strip which has already been processed.
+     */
+    private static final class RowOrderException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        RowOrderException(int row, int stripTop) {
+            super("Row " + row + " was decoded after row " + stripTop);
+        }
+    }
+}
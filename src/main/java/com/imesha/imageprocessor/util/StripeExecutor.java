@@ -0,0 +1,216 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 imesha
+ */
+
+package com.imesha.imageprocessor.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs per row image operations in parallel by splitting the image into horizontal stripes, which are processed on a
+ * shared {@link ForkJoinPool}.
+ * <p>
+ * The stripe height only depends on the width of the image, never on the parallelism, so the same stripes are
+ * produced on every machine. Reductions get the stripe results back in stripe order and combine them sequentially,
+ * which keeps the results of floating point reductions reproducible.
+ * <p>
+ * The parallelism defaults to the number of available processors and can be set with the
+ * {@code imageprocessor.parallelism} system property or {@link #setParallelism(int)}.
+ */
+public final class StripeExecutor {
+
+    /**
+     * Minimum number of pixels in a stripe, so that tiny stripes do not drown in scheduling overhead.
+     */
+    private static final int MIN_STRIPE_PIXELS = 1 << 16;
+
+    private static volatile ForkJoinPool pool = new ForkJoinPool(Integer.getInteger("imageprocessor.parallelism",
+            Runtime.getRuntime().availableProcessors()));
+
+    private StripeExecutor() {
+    }
+
+    /**
+     * Processes a range of rows, [fromRow, toRow).
+     */
+    public interface StripeTask {
+        void process(int fromRow, int toRow);
+    }
+
+    /**
+     * Processes a range of rows, [fromRow, toRow), and gives a partial result for them.
+     */
+    public interface StripeFunction<T> {
+        T process(int fromRow, int toRow);
+    }
+
+    /**
+     * Processes a range of rows, [fromRow, toRow), of one plane of an image, eg: one band.
+     */
+    public interface PlaneStripeTask {
+        void process(int plane, int fromRow, int toRow);
+    }
+
+    /**
+     * Processes a range of rows, [fromRow, toRow), of one plane of an image and gives a partial result for them.
+     */
+    public interface PlaneStripeFunction<T> {
+        T process(int plane, int fromRow, int toRow);
+    }
+
+    /**
+     * Sets the number of threads used for image operations. A parallelism of 1 runs everything on the calling
+     * thread. Operations which are already running, or which have already taken the pool with {@link #getPool()},
+     * finish on the previous pool. It is not shut down, so that they can still schedule work on it; its threads end
+     * once it has been idle for a while.
+     *
+     * @param parallelism The number of worker threads
+     */
+    public static synchronized void setParallelism(int parallelism) {
+        if (parallelism < 1) throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+        if (pool.getParallelism() == parallelism) return;
+        pool = new ForkJoinPool(parallelism);
+    }
+
+    public static int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    /**
+     * @return The pool which runs the stripes, for operations which need to schedule other work along with them.
+     */
+    public static ForkJoinPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Gives the number of rows in each stripe of an image of the given width.
+     */
+    public static int getStripeHeight(int width) {
+        return Math.max(1, MIN_STRIPE_PIXELS / Math.max(1, width));
+    }
+
+    /**
+     * Runs the task over all the rows of an image, each stripe at most once and in parallel with the others.
+     *
+     * @param width  The width of the image, used to size the stripes
+     * @param height The number of rows to be processed
+     * @param task   The task, which must only write to the rows it has been given
+     */
+    public static void forEachStripe(int width, int height, final StripeTask task) {
+        mapStripes(width, height, new StripeFunction<Void>() {
+            public Void process(int fromRow, int toRow) {
+                task.process(fromRow, toRow);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Runs the function over all the stripes of an image and collects the partial results.
+     *
+     * @param width    The width of the image, used to size the stripes
+     * @param height   The number of rows to be processed
+     * @param function The function to be run on each stripe
+     * @return The partial results in the order of the stripes, from the top of the image to the bottom
+     */
+    public static <T> List<T> mapStripes(int width, int height, StripeFunction<T> function) {
+        int stripeHeight = getStripeHeight(width);
+        int stripes = (height + stripeHeight - 1) / stripeHeight;
+        Object[] results = new Object[stripes];
+        ForkJoinPool pool = StripeExecutor.pool;
+        if (stripes <= 1 || pool.getParallelism() == 1) {
+            for (int stripe = 0; stripe < stripes; stripe++) {
+                int fromRow = stripe * stripeHeight;
+                results[stripe] = function.process(fromRow, Math.min(height, fromRow + stripeHeight));
+            }
+        } else {
+            pool.invoke(new StripeAction<T>(function, results, 0, stripes, stripeHeight, height));
+        }
+        @SuppressWarnings("unchecked")
+        List<T> list = (List<T>) new ArrayList<Object>(Arrays.asList(results));
+        return list;
+    }
+
+    /**
+     * Runs the task over all the rows of every plane of an image. The stripes of all the planes are scheduled
+     * together, so that the planes are processed concurrently as well as the stripes within them.
+     *
+     * @param width  The width of the image, used to size the stripes
+     * @param height The number of rows of each plane
+     * @param planes The number of planes
+     * @param task   The task, which must only write to the rows of the plane it has been given
+     */
+    public static void forEachPlaneStripe(int width, int height, int planes, final PlaneStripeTask task) {
+        mapPlaneStripes(width, height, planes, new PlaneStripeFunction<Void>() {
+            public Void process(int plane, int fromRow, int toRow) {
+                task.process(plane, fromRow, toRow);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Runs the function over all the stripes of every plane of an image and collects the partial results.
+     *
+     * @param width    The width of the image, used to size the stripes
+     * @param height   The number of rows of each plane
+     * @param planes   The number of planes
+     * @param function The function to be run on each stripe
+     * @return The partial results, those of the first plane from the top to the bottom first
+     */
+    public static <T> List<T> mapPlaneStripes(int width, final int height, int planes,
+                                              final PlaneStripeFunction<T> function) {
+        final int stripeHeight = getStripeHeight(width);
+        final int stripesPerPlane = (height + stripeHeight - 1) / stripeHeight;
+        // Each stripe counts as a single row of the minimum stripe size, so that none are merged
+        return mapStripes(MIN_STRIPE_PIXELS, planes * stripesPerPlane, new StripeFunction<T>() {
+            public T process(int fromStripe, int toStripe) {
+                int plane = fromStripe / stripesPerPlane;
+                int fromRow = fromStripe % stripesPerPlane * stripeHeight;
+                return function.process(plane, fromRow, Math.min(height, fromRow + stripeHeight));
+            }
+        });
+    }
+
+    /**
+     * Splits the stripes in halves until a single stripe is left, which is then processed.
+     */
+    private static final class StripeAction<T> extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final StripeFunction<T> function;
+        private final Object[] results;
+        private final int fromStripe;
+        private final int toStripe;
+        private final int stripeHeight;
+        private final int height;
+
+        StripeAction(StripeFunction<T> function, Object[] results, int fromStripe, int toStripe, int stripeHeight,
+                     int height) {
+            this.function = function;
+            this.results = results;
+            this.fromStripe = fromStripe;
+            this.toStripe = toStripe;
+            this.stripeHeight = stripeHeight;
+            this.height = height;
+        }
+
+        @Override
+        protected void compute() {
+            if (toStripe - fromStripe == 1) {
+                int fromRow = fromStripe * stripeHeight;
+                results[fromStripe] = function.process(fromRow, Math.min(height, fromRow + stripeHeight));
+                return;
+            }
+            int middle = (fromStripe + toStripe) >>> 1;
+            invokeAll(new StripeAction<T>(function, results, fromStripe, middle, stripeHeight, height),
+                    new StripeAction<T>(function, results, middle, toStripe, stripeHeight, height));
+        }
+    }
+}
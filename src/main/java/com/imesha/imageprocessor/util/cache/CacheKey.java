@@ -0,0 +1,249 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 imesha
+ */
+
+package com.imesha.imageprocessor.util.cache;
+
+import com.imesha.imageprocessor.util.PixelAccess;
+import com.imesha.imageprocessor.util.StripeExecutor;
+import com.imesha.imageprocessor.util.compression.CompressedImage;
+import org.apache.commons.codec.digest.MurmurHash3;
+
+import java.awt.color.ColorSpace;
+import java.awt.color.ICC_ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DirectColorModel;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * A 128 bit MurmurHash3 of some content and the parameters of what is computed from it, which identifies a result
+ * in a {@link ResultCache}.
+ * <p>
+ * Images are hashed row by row, in parallel, as their rasters store them, and the row hashes are hashed together
+ * with the type and size of the image and a hash of its colour model, which tells apart eg: indexed images of the
+ * same indices into different palettes. The hash is not cryptographic; it only tells apart content which was not made
+ * to collide on purpose.
+ */
+public final class CacheKey {
+    private static final int SEED = 0;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final long high;
+    private final long low;
+
+    private CacheKey(long high, long low) {
+        this.high = high;
+        this.low = low;
+    }
+
+    /**
+     * @param image      The image the result is computed from
+     * @param parameters What is computed from it, eg: the name of the operation and its settings
+     * @return The key of the result
+     */
+    public static CacheKey of(BufferedImage image, String parameters) {
+        final int width = image.getWidth();
+        int height = image.getHeight();
+        final Raster raster = image.getRaster();
+        final PixelAccess.Band gray = raster.getNumBands() == 1 ? PixelAccess.band(image, 0) : null;
+        final long[] rowHashes = new long[2 * height];
+        StripeExecutor.forEachStripe(width * raster.getNumDataElements(), height, new StripeExecutor.StripeTask() {
+            public void process(int fromRow, int toRow) {
+                Object elements = null;
+                byte[] row = null;
+                for (int y = fromRow; y < toRow; y++) {
+                    long[] hash;
+                    if (gray != null && gray.isDirect() && gray.getPixelStride() == 1) {
+                        hash = MurmurHash3.hash128x64(gray.getData(), gray.index(0, y), width, SEED);
+                    } else {
+                        // The row as stored, whatever the layout of the raster
+                        elements = raster.getDataElements(raster.getMinX(), raster.getMinY() + y, width, 1, elements);
+                        row = toBytes(elements, row);
+                        hash = MurmurHash3.hash128x64(row, 0, row.length, SEED);
+                    }
+                    rowHashes[2 * y] = hash[0];
+                    rowHashes[2 * y + 1] = hash[1];
+                }
+            }
+        });
+
+        long[] colorModelHash = hashColorModel(image.getColorModel());
+        byte[] parameterBytes = parameters.getBytes(UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(32 + 8 * rowHashes.length + parameterBytes.length);
+        buffer.putInt(image.getType()).putInt(width).putInt(height).putInt(raster.getNumBands());
+        buffer.putLong(colorModelHash[0]).putLong(colorModelHash[1]);
+        for (long rowHash : rowHashes) {
+            buffer.putLong(rowHash);
+        }
+        buffer.put(parameterBytes);
+        return hash(buffer);
+    }
+
+    /**
+     * Hashes what the colour model makes of the samples: its colour space, the sizes of the components and how
+     * alpha is stored, the palette of indexed images and the masks of packed ones.
+     */
+    private static long[] hashColorModel(ColorModel colorModel) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeUTF(colorModel.getClass().getName());
+            writeColorSpace(colorModel.getColorSpace(), out);
+            out.writeBoolean(colorModel.hasAlpha());
+            out.writeBoolean(colorModel.isAlphaPremultiplied());
+            out.writeInt(colorModel.getTransparency());
+            out.writeInt(colorModel.getTransferType());
+            for (int size : colorModel.getComponentSize()) {
+                out.writeInt(size);
+            }
+            if (colorModel instanceof IndexColorModel) {
+                IndexColorModel indexColorModel = (IndexColorModel) colorModel;
+                int[] palette = new int[indexColorModel.getMapSize()];
+                indexColorModel.getRGBs(palette);
+                for (int rgb : palette) {
+                    out.writeInt(rgb);
+                }
+                out.writeInt(indexColorModel.getTransparentPixel());
+            } else if (colorModel instanceof DirectColorModel) {
+                for (int mask : ((DirectColorModel) colorModel).getMasks()) {
+                    out.writeInt(mask);
+                }
+            }
+        } catch (IOException e) {
+            // A ByteArrayOutputStream never fails
+            throw new IllegalStateException(e);
+        }
+        return MurmurHash3.hash128x64(bytes.toByteArray(), 0, bytes.size(), SEED);
+    }
+
+    /**
+     * Writes the predefined colour spaces by their constant, and others by their ICC profile.
+     */
+    private static void writeColorSpace(ColorSpace colorSpace, DataOutputStream out) throws IOException {
+        for (int predefined : new int[]{ColorSpace.CS_sRGB, ColorSpace.CS_LINEAR_RGB, ColorSpace.CS_GRAY,
+                ColorSpace.CS_CIEXYZ, ColorSpace.CS_PYCC}) {
+            if (colorSpace == ColorSpace.getInstance(predefined)) {
+                out.writeInt(predefined);
+                return;
+            }
+        }
+        out.writeInt(-1);
+        if (colorSpace instanceof ICC_ColorSpace) {
+            byte[] profile = ((ICC_ColorSpace) colorSpace).getProfile().getData();
+            out.writeInt(profile.length);
+            out.write(profile);
+        } else {
+            out.writeUTF(colorSpace.getClass().getName());
+            out.writeInt(colorSpace.getType());
+        }
+    }
+
+    /**
+     * @param image      The compressed image the result is computed from
+     * @param parameters What is computed from it
+     * @return The key of the result
+     */
+    public static CacheKey of(CompressedImage image, String parameters) {
+        long[] dataHash = MurmurHash3.hash128x64(image.getData(), 0, image.getSize(), SEED);
+        byte[] parameterBytes = parameters.getBytes(UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(24 + parameterBytes.length);
+        buffer.putInt(image.getWidth()).putInt(image.getHeight()).putLong(dataHash[0]).putLong(dataHash[1]);
+        buffer.put(parameterBytes);
+        return hash(buffer);
+    }
+
+    /**
+     * @param parameters What is computed from the inputs
+     * @param inputs     The keys of the inputs, in order
+     * @return The key of a result computed from several inputs
+     */
+    public static CacheKey of(String parameters, CacheKey... inputs) {
+        byte[] parameterBytes = parameters.getBytes(UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(16 * inputs.length + parameterBytes.length);
+        for (CacheKey input : inputs) {
+            buffer.putLong(input.high).putLong(input.low);
+        }
+        buffer.put(parameterBytes);
+        return hash(buffer);
+    }
+
+    /**
+     * @param string A key as given by {@link #toString()}
+     * @return The key
+     * @throws IllegalArgumentException If the string is not a key
+     */
+    public static CacheKey fromString(String string) {
+        if (string.length() != 32) throw new IllegalArgumentException("Not a cache key: " + string);
+        try {
+            return new CacheKey(Long.parseUnsignedLong(string.substring(0, 16), 16),
+                    Long.parseUnsignedLong(string.substring(16), 16));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a cache key: " + string, e);
+        }
+    }
+
+    /**
+     * @param elements A primitive array of data elements
+     * @param bytes    An array to reuse, if it has the right length
+     * @return The elements as big endian bytes
+     */
+    private static byte[] toBytes(Object elements, byte[] bytes) {
+        if (elements instanceof byte[]) return (byte[]) elements;
+        ByteBuffer buffer;
+        if (elements instanceof short[]) {
+            short[] shorts = (short[]) elements;
+            buffer = wrap(bytes, 2 * shorts.length);
+            buffer.asShortBuffer().put(shorts);
+        } else if (elements instanceof int[]) {
+            int[] ints = (int[]) elements;
+            buffer = wrap(bytes, 4 * ints.length);
+            buffer.asIntBuffer().put(ints);
+        } else if (elements instanceof float[]) {
+            float[] floats = (float[]) elements;
+            buffer = wrap(bytes, 4 * floats.length);
+            buffer.asFloatBuffer().put(floats);
+        } else {
+            double[] doubles = (double[]) elements;
+            buffer = wrap(bytes, 8 * doubles.length);
+            buffer.asDoubleBuffer().put(doubles);
+        }
+        return buffer.array();
+    }
+
+    private static ByteBuffer wrap(byte[] bytes, int length) {
+        return ByteBuffer.wrap(bytes != null && bytes.length == length ? bytes : new byte[length]);
+    }
+
+    private static CacheKey hash(ByteBuffer buffer) {
+        long[] hash = MurmurHash3.hash128x64(buffer.array(), 0, buffer.position(), SEED);
+        return new CacheKey(hash[0], hash[1]);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof CacheKey)) return false;
+        CacheKey key = (CacheKey) o;
+        return high == key.high && low == key.low;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (low ^ (low >>> 32));
+    }
+
+    /**
+     * @return The key as 32 hexadecimal digits
+     */
+    @Override
+    public String toString() {
+        return String.format("%016x%016x", high, low);
+    }
+}
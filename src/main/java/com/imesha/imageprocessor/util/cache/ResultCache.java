@@ -0,0 +1,428 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 imesha
+ */
+
+package com.imesha.imageprocessor.util.cache;
+
+import com.imesha.imageprocessor.util.compression.CompressedImage;
+import com.imesha.imageprocessor.util.compression.ImageCompressor;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A thread safe cache of computed results, such as processed images and compressed images, by {@link CacheKey}.
+ * <pre>
+ *     CompressedImage compressed = cache.compress(image, compressor);
+ * </pre>
+ * Results are kept in memory up to {@link #getMaxMemoryBytes()}, the least recently used being dropped first.
+ * Compressed images are also written to a directory, if one is given, which keeps up to {@link #getMaxDiskBytes()}
+ * of them across runs and serves them when they have been dropped from memory.
+ * <p>
+ * Results handed out by the cache are shared, so they must not be modified, nor released to an
+ * {@link com.imesha.imageprocessor.util.ImageBufferPool}.
+ */
+public class ResultCache {
+
+    // What is counted for a result whose size is not known, eg: a Double
+    private static final long NOMINAL_BYTES = 64;
+    private static final String FILE_SUFFIX = ".cimg";
+
+    private static ResultCache defaultCache;
+
+    private final long maxMemoryBytes;
+    private final File directory;
+    private final long maxDiskBytes;
+
+    // Both in least recently used order, the disk tier holding the file size of each result
+    private final LinkedHashMap<CacheKey, Object> memory = new LinkedHashMap<CacheKey, Object>(16, 0.75f, true);
+    private final LinkedHashMap<CacheKey, Long> disk = new LinkedHashMap<CacheKey, Long>(16, 0.75f, true);
+    private long memoryBytes;
+    private long diskBytes;
+
+    private long memoryHits;
+    private long diskHits;
+    private long misses;
+    private long evictions;
+    private long diskEvictions;
+
+    /**
+     * Creates a cache which keeps results in memory only.
+     *
+     * @param maxMemoryBytes The most memory the results may take up
+     */
+    public ResultCache(long maxMemoryBytes) {
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.directory = null;
+        this.maxDiskBytes = 0;
+    }
+
+    /**
+     * Creates a cache which also keeps compressed images in a directory. Files left there by earlier runs are served
+     * again.
+     *
+     * @param maxMemoryBytes The most memory the results may take up
+     * @param directory      The directory, created if it does not exist. It must belong to the current user.
+     * @param maxDiskBytes   The most space the files may take up
+     * @throws IOException If the directory cannot be created, or belongs to another user
+     */
+    public ResultCache(long maxMemoryBytes, File directory, long maxDiskBytes) throws IOException {
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.directory = directory;
+        this.maxDiskBytes = maxDiskBytes;
+        checkDirectory(directory);
+
+        File[] files = directory.listFiles();
+        if (files == null) throw new IOException("Cannot list the cache directory " + directory);
+        // Files are taken in the order they were last used in
+        Arrays.sort(files, new Comparator<File>() {
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.endsWith(FILE_SUFFIX)) continue;
+            try {
+                disk.put(CacheKey.fromString(name.substring(0, name.length() - FILE_SUFFIX.length())),
+                        file.length());
+                diskBytes += file.length();
+            } catch (IllegalArgumentException e) {
+                // Not one of ours
+            }
+        }
+        synchronized (disk) {
+            evictFromDisk();
+        }
+    }
+
+    /**
+     * Creates the directory so that only its owner may use it, where the file system has POSIX permissions, and
+     * checks that it belongs to the current user, so that other users can neither read the results kept in it nor
+     * plant results of their own.
+     */
+    private static void checkDirectory(File directory) throws IOException {
+        Path path = directory.toPath();
+        if (!Files.isDirectory(path)) {
+            try {
+                Files.createDirectories(path,
+                        PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+            } catch (UnsupportedOperationException e) {
+                Files.createDirectories(path);
+            }
+        }
+        UserPrincipal owner = Files.getOwner(path);
+        UserPrincipal user = path.getFileSystem().getUserPrincipalLookupService()
+                .lookupPrincipalByName(System.getProperty("user.name"));
+        if (!owner.equals(user))
+            throw new IOException("The cache directory " + directory + " belongs to " + owner.getName());
+    }
+
+    /**
+     * @return The cache shared by the application. Its memory size is set with the
+     * {@code imageprocessor.cache.maxBytes} system property, 256 MB by default. Compressed images are kept in the
+     * directory given by {@code imageprocessor.cache.dir}, .imageprocessor/cache in the home directory of the user by
+     * default or none if it is set to an empty string, up to {@code imageprocessor.cache.maxDiskBytes}, 1 GB by
+     * default.
+     */
+    public static synchronized ResultCache getDefault() {
+        if (defaultCache == null) {
+            long maxMemoryBytes = Long.getLong("imageprocessor.cache.maxBytes", 256L * 1024 * 1024);
+            String directory = System.getProperty("imageprocessor.cache.dir",
+                    new File(new File(System.getProperty("user.home"), ".imageprocessor"), "cache").getPath());
+            defaultCache = new ResultCache(maxMemoryBytes);
+            if (!directory.isEmpty()) {
+                try {
+                    defaultCache = new ResultCache(maxMemoryBytes, new File(directory),
+                            Long.getLong("imageprocessor.cache.maxDiskBytes", 1024L * 1024 * 1024));
+                } catch (IOException e) {
+                    // Results are still cached in memory
+                    System.err.println("Not caching results on disk: " + e.getMessage());
+                }
+            }
+        }
+        return defaultCache;
+    }
+
+    /**
+     * Looks up a result, first in memory and then on disk.
+     *
+     * @param key The key of the result
+     * @return The result, or null if it is not cached
+     */
+    public Object get(CacheKey key) {
+        synchronized (memory) {
+            Object value = memory.get(key);
+            if (value != null) {
+                memoryHits++;
+                return value;
+            }
+        }
+        CompressedImage compressedImage = readFromDisk(key);
+        if (compressedImage == null) {
+            synchronized (memory) {
+                misses++;
+            }
+            return null;
+        }
+        synchronized (memory) {
+            diskHits++;
+            putInMemory(key, compressedImage);
+        }
+        return compressedImage;
+    }
+
+    /**
+     * Caches a result. Compressed images are written to disk as well, if the cache has a directory.
+     *
+     * @param key   The key of the result
+     * @param value The result, which must not be modified afterwards
+     */
+    public void put(CacheKey key, Object value) {
+        synchronized (memory) {
+            putInMemory(key, value);
+        }
+        if (value instanceof CompressedImage) writeToDisk(key, (CompressedImage) value);
+    }
+
+    /**
+     * Compresses an image, or gives the result of compressing the same pixels with a compressor of the same
+     * {@link ImageCompressor#getParameters() parameters} before.
+     *
+     * @param image      The image
+     * @param compressor The compressor
+     * @return The compressed image
+     */
+    public CompressedImage compress(BufferedImage image, ImageCompressor compressor) {
+        CacheKey key = CacheKey.of(image, "compress " + compressor.getParameters());
+        CompressedImage compressedImage = (CompressedImage) get(key);
+        if (compressedImage == null) {
+            compressedImage = compressor.compress(image);
+            put(key, compressedImage);
+        }
+        return compressedImage;
+    }
+
+    /**
+     * Drops all the results, in memory and on disk.
+     */
+    public void clear() {
+        synchronized (memory) {
+            memory.clear();
+            memoryBytes = 0;
+        }
+        synchronized (disk) {
+            for (CacheKey key : disk.keySet()) {
+                deleteFile(key);
+            }
+            disk.clear();
+            diskBytes = 0;
+        }
+    }
+
+    private void putInMemory(CacheKey key, Object value) {
+        long bytes = sizeOf(value);
+        if (bytes > maxMemoryBytes) return;
+        Object previous = memory.put(key, value);
+        if (previous != null) memoryBytes -= sizeOf(previous);
+        memoryBytes += bytes;
+        Iterator<Object> iterator = memory.values().iterator();
+        while (memoryBytes > maxMemoryBytes && iterator.hasNext()) {
+            memoryBytes -= sizeOf(iterator.next());
+            iterator.remove();
+            evictions++;
+        }
+    }
+
+    private CompressedImage readFromDisk(CacheKey key) {
+        if (directory == null) return null;
+        File file;
+        synchronized (disk) {
+            if (disk.get(key) == null) return null;
+            file = getFile(key);
+            file.setLastModified(System.currentTimeMillis());
+        }
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                int width = in.readInt();
+                int height = in.readInt();
+                byte[] data = new byte[(int) (file.length() - 8)];
+                in.readFully(data);
+                return new CompressedImage(width, height, data);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // Deleted or damaged since, so it is not cached after all
+            synchronized (disk) {
+                Long bytes = disk.remove(key);
+                if (bytes != null) diskBytes -= bytes;
+                deleteFile(key);
+            }
+            return null;
+        }
+    }
+
+    private void writeToDisk(CacheKey key, CompressedImage compressedImage) {
+        if (directory == null || compressedImage.getSize() + 8L > maxDiskBytes) return;
+        synchronized (disk) {
+            if (disk.containsKey(key)) return;
+        }
+        // Written under another name first, so that a partly written file is never read
+        File file = getFile(key);
+        File temporaryFile = new File(directory, file.getName() + "." + Thread.currentThread().getId() + ".tmp");
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile)));
+            try {
+                out.writeInt(compressedImage.getWidth());
+                out.writeInt(compressedImage.getHeight());
+                out.write(compressedImage.getData(), 0, compressedImage.getSize());
+            } finally {
+                out.close();
+            }
+            synchronized (disk) {
+                if (!temporaryFile.renameTo(file)) {
+                    file.delete();
+                    if (!temporaryFile.renameTo(file)) throw new IOException("Cannot rename " + temporaryFile);
+                }
+                Long previous = disk.put(key, file.length());
+                if (previous != null) diskBytes -= previous;
+                diskBytes += file.length();
+                evictFromDisk();
+            }
+        } catch (IOException e) {
+            // The result is still cached in memory
+            temporaryFile.delete();
+        }
+    }
+
+    private void evictFromDisk() {
+        Iterator<Map.Entry<CacheKey, Long>> iterator = disk.entrySet().iterator();
+        while (diskBytes > maxDiskBytes && iterator.hasNext()) {
+            Map.Entry<CacheKey, Long> entry = iterator.next();
+            deleteFile(entry.getKey());
+            diskBytes -= entry.getValue();
+            iterator.remove();
+            diskEvictions++;
+        }
+    }
+
+    private File getFile(CacheKey key) {
+        return new File(directory, key + FILE_SUFFIX);
+    }
+
+    private void deleteFile(CacheKey key) {
+        getFile(key).delete();
+    }
+
+    private static long sizeOf(Object value) {
+        if (value instanceof CompressedImage) return ((CompressedImage) value).getSize() + NOMINAL_BYTES;
+        if (value instanceof BufferedImage) {
+            DataBuffer dataBuffer = ((BufferedImage) value).getRaster().getDataBuffer();
+            return (long) dataBuffer.getSize() * dataBuffer.getNumBanks()
+                    * DataBuffer.getDataTypeSize(dataBuffer.getDataType()) / 8 + NOMINAL_BYTES;
+        }
+        return NOMINAL_BYTES;
+    }
+
+    public long getMaxMemoryBytes() {
+        return maxMemoryBytes;
+    }
+
+    public long getMaxDiskBytes() {
+        return maxDiskBytes;
+    }
+
+    /**
+     * @return The approximate memory taken up by the results in memory
+     */
+    public long getMemoryBytes() {
+        synchronized (memory) {
+            return memoryBytes;
+        }
+    }
+
+    /**
+     * @return The space taken up by the files on disk
+     */
+    public long getDiskBytes() {
+        synchronized (disk) {
+            return diskBytes;
+        }
+    }
+
+    /**
+     * @return The number of times {@link #get} found the result in memory
+     */
+    public long getMemoryHits() {
+        synchronized (memory) {
+            return memoryHits;
+        }
+    }
+
+    /**
+     * @return The number of times {@link #get} found the result on disk only
+     */
+    public long getDiskHits() {
+        synchronized (memory) {
+            return diskHits;
+        }
+    }
+
+    /**
+     * @return The number of times {@link #get} did not find the result
+     */
+    public long getMisses() {
+        synchronized (memory) {
+            return misses;
+        }
+    }
+
+    /**
+     * @return The number of results dropped from memory to stay within its cap
+     */
+    public long getEvictions() {
+        synchronized (memory) {
+            return evictions;
+        }
+    }
+
+    /**
+     * @return The number of files deleted to stay within the disk cap
+     */
+    public long getDiskEvictions() {
+        synchronized (disk) {
+            return diskEvictions;
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (memory) {
+            synchronized (disk) {
+                return String.format("ResultCache[hits=%d (disk %d), misses=%d, evictions=%d (disk %d), "
+                                + "memory=%d/%d bytes, disk=%d/%d bytes]", memoryHits + diskHits, diskHits, misses,
+                        evictions, diskEvictions, memoryBytes, maxMemoryBytes, diskBytes, maxDiskBytes);
+            }
+        }
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 imesha
+ */
+
+package com.imesha.imageprocessor.util.compression;
+
+import com.imesha.imageprocessor.util.metrics.Metrics;
+import com.imesha.imageprocessor.util.metrics.StageMetrics;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Base class for compressors which are implemented on streams. The in memory and channel variants of
+ * {@link ImageCompressor} are implemented here in terms of the stream ones, which in turn call
+ * {@link #encode(BufferedImage, OutputStream)} and {@link #decode(InputStream, BufferedImage)} of the subclass.
+ * Every compression and decompression is measured in the {@link Metrics} stages
+ * &lt;class name&gt;.compress and &lt;class name&gt;.decompress, the compressed bytes counted on the streams and the
+ * uncompressed ones taken as a byte per sample of every band.
+ * <p>
+ * Subclasses only code gray scale images. Images of several bands, eg: colour images, are split into a gray scale
+ * plane per band here, after the {@link ColorTransform} of the compressor, and the planes are coded concurrently by
+ * the subclass, see {@link PlanarImageCoder}.
+ */
+public abstract class AbstractImageCompressor implements ImageCompressor {
+
+    private final StageMetrics compressMetrics = Metrics.stage(getClass().getSimpleName() + ".compress");
+    private final StageMetrics decompressMetrics = Metrics.stage(getClass().getSimpleName() + ".decompress");
+    private final ColorTransform colorTransform;
+
+    /**
+     * Creates a compressor which applies {@link ColorTransform#YCOCG_R} to colour images.
+     */
+    protected AbstractImageCompressor() {
+        this(ColorTransform.YCOCG_R);
+    }
+
+    /**
+     * @param colorTransform The transform applied to the red, green and blue bands of colour images
+     */
+    protected AbstractImageCompressor(ColorTransform colorTransform) {
+        if (colorTransform == null) throw new IllegalArgumentException("Colour transform must not be null");
+        this.colorTransform = colorTransform;
+    }
+
+    public ColorTransform getColorTransform() {
+        return colorTransform;
+    }
+
+    /**
+     * Describes the class, the version of its format and of the planar layout, and the colour transform. Subclasses
+     * with settings of their own add them.
+     */
+    public String getParameters() {
+        return getClass().getName() + " version " + getVersion() + " planar " + CompressionHeader.PLANAR_VERSION
+                + " colour " + colorTransform;
+    }
+
+    /**
+     * @return The version of the format which {@link #encode(BufferedImage, OutputStream)} writes
+     */
+    protected abstract int getVersion();
+
+    public CompressedImage compress(BufferedImage originalImage) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(
+                Math.max(64, originalImage.getWidth() * originalImage.getHeight() / 4));
+        try {
+            compress(originalImage, out);
+        } catch (IOException e) {
+            // A ByteArrayOutputStream never fails
+            throw new IllegalStateException(e);
+        }
+        return new CompressedImage(originalImage.getWidth(), originalImage.getHeight(), out.toByteArray());
+    }
+
+    public void compress(BufferedImage originalImage, WritableByteChannel channel) throws IOException {
+        compress(originalImage, Channels.newOutputStream(channel));
+    }
+
+    /**
+     * Decompresses an image held in memory.
+     *
+     * @param compressedImage Image to be Decompressed
+     * @return The decompressed image
+     * @throws IllegalArgumentException If the data is not a valid image of this compressor's format
+     */
+    public BufferedImage decompress(CompressedImage compressedImage) {
+        return decompress(compressedImage, null);
+    }
+
+    public BufferedImage decompress(CompressedImage compressedImage, BufferedImage destination) {
+        try {
+            return decompress(new ByteArrayInputStream(compressedImage.getData()), destination);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Corrupted compressed image: " + e.getMessage(), e);
+        }
+    }
+
+    public BufferedImage decompress(ReadableByteChannel channel) throws IOException {
+        return decompress(Channels.newInputStream(channel));
+    }
+
+    public final void compress(BufferedImage originalImage, OutputStream out) throws IOException {
+        StageMetrics.Sample sample = compressMetrics.start();
+        CountingOutputStream counted = sample.isRecording() ? new CountingOutputStream(out) : null;
+        OutputStream target = counted == null ? out : counted;
+        if (PlanarImageCoder.isPlanar(originalImage)) {
+            PlanarImageCoder.encode(this, originalImage, target);
+        } else {
+            encode(originalImage, target);
+        }
+        long pixels = (long) originalImage.getWidth() * originalImage.getHeight();
+        long samples = pixels * originalImage.getRaster().getNumBands();
+        sample.stop(pixels, samples, counted == null ? 0 : counted.count);
+    }
+
+    public BufferedImage decompress(InputStream in) throws IOException {
+        return decompress(in, null);
+    }
+
+    public final BufferedImage decompress(InputStream in, BufferedImage destination) throws IOException {
+        StageMetrics.Sample sample = decompressMetrics.start();
+        CountingInputStream counted = sample.isRecording() ? new CountingInputStream(in) : null;
+        PushbackInputStream source = new PushbackInputStream(counted == null ? in : counted,
+                CompressionHeader.FORMAT_LENGTH + 1);
+        BufferedImage image = PlanarImageCoder.isPlanar(source) ? PlanarImageCoder.decode(this, source, destination)
+                : decode(source, destination);
+        long pixels = (long) image.getWidth() * image.getHeight();
+        long samples = pixels * image.getRaster().getNumBands();
+        sample.stop(pixels, counted == null ? 0 : counted.count, samples);
+        return image;
+    }
+
+    /**
+     * Compresses the image into the stream, see {@link ImageCompressor#compress(BufferedImage, OutputStream)}. Only
+     * the first band of the image is coded, as a gray scale image.
+     */
+    protected abstract void encode(BufferedImage originalImage, OutputStream out) throws IOException;
+
+    /**
+     * Decompresses an image from the stream, see {@link ImageCompressor#decompress(InputStream, BufferedImage)}.
+     */
+    protected abstract BufferedImage decode(InputStream in, BufferedImage destination) throws IOException;
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            out.write(bytes, offset, length);
+            count += length;
+        }
+    }
+
+    /**
+     * Counts the bytes read, which takes in what the decoder reads ahead past the end of the image.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            int read = in.read(bytes, offset, length);
+            if (read > 0) count += read;
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            // Bytes read again after a reset would be counted twice
+            return false;
+        }
+    }
+}
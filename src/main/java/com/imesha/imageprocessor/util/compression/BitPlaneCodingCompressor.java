@@ -5,97 +5,446 @@
 
 package com.imesha.imageprocessor.util.compression;
 
-import java.awt.*;
+import com.imesha.imageprocessor.util.PixelAccess;
+import com.imesha.imageprocessor.util.StripeExecutor;
+
 import java.awt.image.BufferedImage;
-import java.awt.image.Raster;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Lossless compressor which splits the gray levels into 8 bit planes and codes every line of every plane, a line
+ * being a row or a column depending on the scan order. Layout of the data following the {@link CompressionHeader}:
+ * <pre>
+ *     flags: 1 = Gray coded levels, 2 = row scan (column scan otherwise)
+ *     for plane 7..0 (most significant first)
+ *         mode: 0 = runs, 1 = raw
+ *         for every line, in the scan order
+ *             runs: run lengths as varints, alternating between runs of 1s and runs of 0s, starting with 1s
+ *             raw:  the bits of the line packed into bytes, first bit in the highest bit, padded with 0s
+ * </pre>
+ * The first run of a line is 0 when the line starts with a 0 bit, and the runs of a line always add up to the line
+ * length. Each plane is coded in whichever mode is smaller, so the noisy low planes are not blown up into runs of one
+ * or two pixels. With Gray coding, neighbouring levels differ in a single bit, so smooth gradients flip fewer bits
+ * of the upper planes and give longer runs. Version 1 data, which has no flags and plane modes and always runs down
+ * the columns of the binary levels, is still decoded.
+ * <p>
+ * Lines are independent of each other, so both directions run on the {@link StripeExecutor}, each task taking a
+ * stripe of adjacent lines. Encoding goes a plane at a time and writes the stripes out in order; the output is the
+ * same whatever the parallelism. Decoding first reads through the planes to find where each line starts, which has
+ * to be done in order, and then each task ORs the bits of all the planes of its lines into the image. Colour images
+ * are coded as a gray scale image per band, see {@link AbstractImageCompressor}.
+ */
+public class BitPlaneCodingCompressor extends AbstractImageCompressor {
+
+    static final int VERSION = 2;
+    private static final int PLANES = 8;
+
+    private static final int GRAY_CODE = 1;
+    private static final int ROW_SCAN = 2;
+
+    private static final int RUNS = 0;
+    private static final int RAW = 1;
+
+    private static final byte[] GRAY_CODES = new byte[256];
+    private static final byte[] BINARY_CODES = new byte[256];
+
+    static {
+        for (int level = 0; level < 256; level++) {
+            int code = level ^ (level >> 1);
+            GRAY_CODES[level] = (byte) code;
+            BINARY_CODES[code] = (byte) level;
+        }
+    }
+
+    /**
+     * The order in which the pixels of each plane are coded.
+     */
+    public enum ScanOrder {
+        ROWS, COLUMNS
+    }
+
+    private final boolean grayCode;
+    private final ScanOrder scanOrder;
+
+    /**
+     * Creates a compressor which Gray codes the levels and scans the planes row by row.
+     */
+    public BitPlaneCodingCompressor() {
+        this(true, ScanOrder.ROWS);
+    }
+
+    /**
+     * @param grayCode  Whether to code the Gray codes of the levels instead of the levels themselves
+     * @param scanOrder Whether the runs go along the rows or down the columns of the image
+     */
+    public BitPlaneCodingCompressor(boolean grayCode, ScanOrder scanOrder) {
+        this(grayCode, scanOrder, ColorTransform.YCOCG_R);
+    }
+
+    /**
+     * @param grayCode       Whether to code the Gray codes of the levels instead of the levels themselves
+     * @param scanOrder      Whether the runs go along the rows or down the columns of the image
+     * @param colorTransform The transform applied to the red, green and blue bands of colour images
+     */
+    public BitPlaneCodingCompressor(boolean grayCode, ScanOrder scanOrder, ColorTransform colorTransform) {
+        super(colorTransform);
+        if (scanOrder == null) throw new IllegalArgumentException("Scan order must not be null");
+        this.grayCode = grayCode;
+        this.scanOrder = scanOrder;
+    }
 
-public class BitPlaneCodingCompressor implements ImageCompressor {
+    @Override
+    public String getParameters() {
+        return super.getParameters() + " gray code " + grayCode + " scan " + scanOrder;
+    }
+
+    protected int getVersion() {
+        return VERSION;
+    }
+
+    /**
+     * The pixels of an array laid out as the lines of a scan order.
+     */
+    private static final class Lines {
+        final int count;
+        final int length;
+        final int offset;
+        final int lineStride;
+        final int pixelStride;
+        final int bytesPerLine;
+
+        Lines(int count, int length, int offset, int lineStride, int pixelStride) {
+            this.count = count;
+            this.length = length;
+            this.offset = offset;
+            this.lineStride = lineStride;
+            this.pixelStride = pixelStride;
+            this.bytesPerLine = (length + 7) >> 3;
+        }
 
-    private static final String ROW_SEPERATOR = "\n";
-    private static final String BIT_SEPERATOR = ":";
-    private static final String CHARACTER_SEPERATOR = ",";
+        static Lines of(boolean rowScan, int width, int height, int offset, int columnStride, int rowStride) {
+            return rowScan ? new Lines(height, width, offset, rowStride, columnStride)
+                    : new Lines(width, height, offset, columnStride, rowStride);
+        }
 
+        int index(int line) {
+            return offset + line * lineStride;
+        }
+    }
 
     /**
-     * Compresses the image using bit plane coding
+     * Compresses the image using bit plane coding, writing each plane to the stream once it has been coded.
      *
      * @param image The image to be compressed
-     * @return the compressed image
-     */
-    public CompressedImage compress(BufferedImage image) {
-        Raster raster = image.getRaster();
-        String[][] binaryValues = new String[image.getWidth()][image.getHeight()];
-        for (int i = 0; i < image.getWidth(); i++) {
-            for (int j = 0; j < image.getHeight(); j++) {
-                int pixel = raster.getSample(i, j, 0);
-                String binaryString = Integer.toBinaryString(pixel);
-                binaryValues[i][j] = String.format("%1$8s", binaryString).replace(' ', '0');
+     * @param out   The stream to which the compressed image is written
+     */
+    protected void encode(BufferedImage image, OutputStream out) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+
+        // Walk the backing array of the image if possible, a row major copy of it otherwise
+        PixelAccess.Band band = PixelAccess.band(image, 0);
+        byte[] pixels;
+        int offset, columnStride, rowStride;
+        if (band.isDirect() && !grayCode) {
+            pixels = band.getData();
+            offset = band.index(0, 0);
+            columnStride = band.getPixelStride();
+            rowStride = band.index(0, 1) - offset;
+        } else {
+            pixels = getPixels(band, grayCode ? GRAY_CODES : null);
+            offset = 0;
+            columnStride = 1;
+            rowStride = width;
+        }
+        final byte[] source = pixels;
+        final Lines lines = Lines.of(scanOrder == ScanOrder.ROWS, width, height, offset, columnStride, rowStride);
+
+        CodecWriter writer = new CodecWriter(out);
+        new CompressionHeader(CodecRegistry.RUN_LENGTH_CODING, VERSION, width, height).write(writer);
+        writer.writeByte((grayCode ? GRAY_CODE : 0) | (scanOrder == ScanOrder.ROWS ? ROW_SCAN : 0));
+        long rawSize = (long) lines.count * lines.bytesPerLine;
+        for (int plane = PLANES - 1; plane >= 0; plane--) {
+            final int bitPlane = plane;
+            // Each line counts as a row of the line length
+            List<VarIntBuffer> stripes = StripeExecutor.mapStripes(lines.length, lines.count,
+                    new StripeExecutor.StripeFunction<VarIntBuffer>() {
+                        public VarIntBuffer process(int fromLine, int toLine) {
+                            return encodeRuns(source, lines, bitPlane, fromLine, toLine);
+                        }
+                    });
+            long runSize = 0;
+            for (VarIntBuffer stripe : stripes) {
+                runSize += stripe.size();
+            }
+
+            if (runSize <= rawSize) {
+                writer.writeByte(RUNS);
+                for (VarIntBuffer stripe : stripes) {
+                    stripe.writeTo(writer);
+                }
+            } else {
+                writer.writeByte(RAW);
+                writer.write(packPlane(source, lines, bitPlane), 0, (int) rawSize);
             }
         }
+        writer.flush();
+    }
 
-        StringBuilder builder = new StringBuilder("");
-        for (int plane = 0; plane < 8; plane++) {
-            for (int i = 0; i < image.getWidth(); i++) {
-                int count = 0;
-                char character = '1';
-                for (int j = 0; j < image.getHeight(); j++) {
-                    if (binaryValues[i][j].charAt(plane) == character) {
-                        count++;
-                    } else {
-                        builder.append(character).append(BIT_SEPERATOR).append(count).append(CHARACTER_SEPERATOR);
-                        count = 1;
-                        character = binaryValues[i][j].charAt(plane);
-                    }
+    /**
+     * Finds the runs of a plane of some adjacent lines.
+     *
+     * @return The runs of the lines, one line after the other
+     */
+    private static VarIntBuffer encodeRuns(byte[] pixels, Lines lines, int plane, int fromLine, int toLine) {
+        VarIntBuffer runs = new VarIntBuffer(16 * (toLine - fromLine));
+        for (int line = fromLine; line < toLine; line++) {
+            int index = lines.index(line);
+            int bit = 1;
+            int count = 0;
+            for (int t = 0; t < lines.length; t++, index += lines.pixelStride) {
+                int pixelBit = (pixels[index] >> plane) & 1;
+                if (pixelBit == bit) {
+                    count++;
+                } else {
+                    runs.writeVarInt(count);
+                    count = 1;
+                    bit = pixelBit;
                 }
-                // Append what is left to the string
-                builder.append(character).append(BIT_SEPERATOR).append(count).append(CHARACTER_SEPERATOR);
-                builder.append(ROW_SEPERATOR);
             }
+            // Write the run which is left
+            runs.writeVarInt(count);
         }
-        CompressedImage compressedImage = new CompressedImage(image.getWidth(), image.getHeight(), builder.toString());
-        return compressedImage;
+        return runs;
+    }
+
+    /**
+     * Packs the bits of a plane, line by line, each line starting at a new byte.
+     */
+    private static byte[] packPlane(final byte[] pixels, final Lines lines, final int plane) {
+        final byte[] packed = new byte[lines.count * lines.bytesPerLine];
+        StripeExecutor.forEachStripe(lines.length, lines.count, new StripeExecutor.StripeTask() {
+            public void process(int fromLine, int toLine) {
+                for (int line = fromLine; line < toLine; line++) {
+                    int index = lines.index(line);
+                    int position = line * lines.bytesPerLine;
+                    int bits = 0;
+                    for (int t = 0; t < lines.length; t++, index += lines.pixelStride) {
+                        bits = (bits << 1) | ((pixels[index] >> plane) & 1);
+                        if ((t & 7) == 7) {
+                            packed[position++] = (byte) bits;
+                            bits = 0;
+                        }
+                    }
+                    if ((lines.length & 7) != 0) packed[position] = (byte) (bits << (8 - (lines.length & 7)));
+                }
+            }
+        });
+        return packed;
     }
 
     /**
      * Decompresses an image. Bit planes will be converted back to a buffered image.
      *
-     * @param compressedImage Image to be Decompressed
-     * @return The decompressed image as a {@link BufferedImage}
-     */
-    public BufferedImage decompress(CompressedImage compressedImage) {
-        String[] rows = compressedImage.getBinaryRepresentation().split(ROW_SEPERATOR);
-        StringBuilder[][] builders = new StringBuilder[compressedImage.getWidth()][compressedImage.getHeight()];
-        int rowNumber = 0;
-        for (int plane = 0; plane < 8; plane++) {
-            for (int i = 0; i < compressedImage.getWidth(); i++) {
-
-                // Split each rowNumber using Character separator
-                String[] parts = rows[rowNumber].split(CHARACTER_SEPERATOR);
-                StringBuilder rowBuilder = new StringBuilder("");
-                for (String part : parts) {
-                    char character = part.split(BIT_SEPERATOR)[0].charAt(0);
-                    int count = Integer.parseInt(part.split(BIT_SEPERATOR)[1]);
-                    for (int x = 0; x < count; x++) {
-                        rowBuilder.append(character);
-                    }
+     * @param in          The stream positioned at the start of the compressed image
+     * @param destination The TYPE_BYTE_GRAY image to decompress into, or null to create a new one
+     * @return The decompressed image
+     * @throws IOException If reading fails or the data is not a valid bit plane coded image
+     */
+    protected BufferedImage decode(InputStream in, BufferedImage destination) throws IOException {
+        CodecReader reader = new CodecReader(in);
+        CompressionHeader header = CompressionHeader.read(reader, CodecRegistry.RUN_LENGTH_CODING, VERSION);
+        int width = header.getWidth();
+        int height = header.getHeight();
+        boolean planeModes = header.getVersion() >= 2;
+        int flags = planeModes ? reader.readByte() : 0;
+        if ((flags & ~(GRAY_CODE | ROW_SCAN)) != 0) throw new IOException("Unknown bit plane coding flags " + flags);
+
+        BufferedImage bufferedImage = PixelAccess.grayDestination(destination, width, height);
+        PixelAccess.Band band = PixelAccess.band(bufferedImage, 0);
+        byte[] pixels = band.getData();
+        int offset = band.index(0, 0);
+        int rowStride = band.index(0, 1) - offset;
+        if (destination != null) {
+            for (int j = 0; j < height; j++) {
+                Arrays.fill(pixels, band.index(0, j), band.index(0, j) + width, (byte) 0);
+            }
+        }
+
+        Lines lines = Lines.of((flags & ROW_SCAN) != 0, width, height, offset, 1, rowStride);
+        // Reading the planes ahead only pays off when there are several stripes of lines to decode at once
+        if (StripeExecutor.getParallelism() == 1 || lines.count <= StripeExecutor.getStripeHeight(lines.length)) {
+            decodePlanes(reader, planeModes, pixels, lines);
+        } else {
+            decodePlanesInParallel(reader, planeModes, pixels, lines);
+        }
+        if ((flags & GRAY_CODE) != 0) toBinary(pixels, offset, rowStride, width, height);
+        return bufferedImage;
+    }
+
+    /**
+     * Decodes the planes while reading them.
+     */
+    private static void decodePlanes(CodecReader reader, boolean planeModes, byte[] pixels, Lines lines)
+            throws IOException {
+        byte[] packed = new byte[lines.bytesPerLine];
+        for (int plane = PLANES - 1; plane >= 0; plane--) {
+            int mask = 1 << plane;
+            if (readPlaneMode(reader, planeModes) == RAW) {
+                for (int line = 0; line < lines.count; line++) {
+                    reader.readFully(packed);
+                    unpackLine(packed, 0, pixels, lines, line, mask);
                 }
+                continue;
+            }
+            for (int line = 0; line < lines.count; line++) {
+                int t = 0;
+                int bit = 1;
+                do {
+                    int count = reader.readVarInt();
+                    if (count < 0 || count > lines.length - t) throw new IOException("Run exceeds the line length");
+                    if (bit == 1) fillRun(pixels, lines, line, t, count, mask);
+                    t += count;
+                    bit ^= 1;
+                } while (t < lines.length);
+            }
+        }
+    }
 
-                for (int j = 0; j < compressedImage.getHeight(); j++) {
-                    if (builders[i][j] == null) builders[i][j] = new StringBuilder("");
-                    builders[i][j].append(rowBuilder.charAt(j));
+    /**
+     * Reads and checks every plane, and then decodes stripes of lines in parallel. The planes are kept as they are
+     * read, along with where each line of each plane starts.
+     */
+    private static void decodePlanesInParallel(CodecReader reader, boolean planeModes, final byte[] pixels,
+                                               final Lines lines) throws IOException {
+        // The mode and the start of each line of each plane, the most significant plane first
+        final int[] modes = new int[PLANES];
+        final int[] lineStarts = new int[PLANES * lines.count];
+        VarIntBuffer planes = new VarIntBuffer(PLANES * lines.count);
+        for (int plane = 0; plane < PLANES; plane++) {
+            modes[plane] = readPlaneMode(reader, planeModes);
+            for (int line = 0; line < lines.count; line++) {
+                lineStarts[plane * lines.count + line] = planes.size();
+                if (modes[plane] == RAW) {
+                    planes.readFrom(reader, lines.bytesPerLine);
+                    continue;
                 }
-                rowNumber++;
+                int t = 0;
+                do {
+                    int count = reader.readVarInt();
+                    if (count < 0 || count > lines.length - t) throw new IOException("Run exceeds the line length");
+                    planes.writeVarInt(count);
+                    t += count;
+                } while (t < lines.length);
             }
         }
 
-        BufferedImage bufferedImage = new BufferedImage(compressedImage.getWidth()
-                , compressedImage.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
-        for (int i = 0; i < compressedImage.getWidth(); i++) {
-            for (int j = 0; j < compressedImage.getHeight(); j++) {
-                int pixelVal = Integer.parseInt(builders[i][j].toString(), 2);
-                bufferedImage.setRGB(i, j, new Color(pixelVal, pixelVal, pixelVal).getRGB());
+        final byte[] data = planes.getData();
+        // Each line counts as a row of the line length
+        StripeExecutor.forEachStripe(lines.length, lines.count, new StripeExecutor.StripeTask() {
+            public void process(int fromLine, int toLine) {
+                decodeStripe(data, modes, lineStarts, pixels, lines, fromLine, toLine);
+            }
+        });
+    }
+
+    /**
+     * Decodes all the planes of some adjacent lines. The lines of a stripe cover about as many pixels as a stripe
+     * of rows, so they stay in the cache while the planes are ORed into them.
+     */
+    private static void decodeStripe(byte[] data, int[] modes, int[] lineStarts, byte[] pixels, Lines lines,
+                                     int fromLine, int toLine) {
+        for (int plane = 0; plane < PLANES; plane++) {
+            int mask = 1 << (PLANES - 1 - plane);
+            for (int line = fromLine; line < toLine; line++) {
+                int position = lineStarts[plane * lines.count + line];
+                if (modes[plane] == RAW) {
+                    unpackLine(data, position, pixels, lines, line, mask);
+                    continue;
+                }
+                int t = 0;
+                int bit = 1;
+                do {
+                    int count = 0;
+                    int b;
+                    int shift = 0;
+                    do {
+                        b = data[position++];
+                        count |= (b & 0x7F) << shift;
+                        shift += 7;
+                    } while (b < 0);
+                    if (bit == 1) fillRun(pixels, lines, line, t, count, mask);
+                    t += count;
+                    bit ^= 1;
+                } while (t < lines.length);
             }
         }
-        return bufferedImage;
+    }
+
+    private static int readPlaneMode(CodecReader reader, boolean planeModes) throws IOException {
+        if (!planeModes) return RUNS;
+        int mode = reader.readByte();
+        if (mode != RUNS && mode != RAW) throw new IOException("Unknown bit plane mode " + mode);
+        return mode;
+    }
+
+    /**
+     * Sets the bit of a run of pixels along a line.
+     */
+    private static void fillRun(byte[] pixels, Lines lines, int line, int from, int count, int mask) {
+        int index = lines.index(line) + from * lines.pixelStride;
+        for (int end = index + count * lines.pixelStride; index < end; index += lines.pixelStride) {
+            pixels[index] |= mask;
+        }
+    }
+
+    /**
+     * Sets the bit of the pixels of a line which are set in the packed line.
+     */
+    private static void unpackLine(byte[] packed, int position, byte[] pixels, Lines lines, int line, int mask) {
+        int index = lines.index(line);
+        for (int t = 0; t < lines.length; t++, index += lines.pixelStride) {
+            if (((packed[position + (t >> 3)] << (t & 7)) & 0x80) != 0) pixels[index] |= mask;
+        }
+    }
+
+    /**
+     * Turns the Gray codes of a decoded image back into levels.
+     */
+    private static void toBinary(final byte[] pixels, final int offset, final int rowStride, final int width,
+                                 int height) {
+        StripeExecutor.forEachStripe(width, height, new StripeExecutor.StripeTask() {
+            public void process(int fromRow, int toRow) {
+                for (int j = fromRow; j < toRow; j++) {
+                    for (int i = 0, index = offset + j * rowStride; i < width; i++, index++) {
+                        pixels[index] = BINARY_CODES[pixels[index] & 0xFF];
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Reads a band into a row major array, mapping the levels through the codes if there are any.
+     */
+    private static byte[] getPixels(final PixelAccess.Band band, final byte[] codes) {
+        final int width = band.getWidth();
+        final byte[] pixels = new byte[width * band.getHeight()];
+        StripeExecutor.forEachStripe(width, band.getHeight(), new StripeExecutor.StripeTask() {
+            public void process(int fromRow, int toRow) {
+                int[] row = new int[width];
+                for (int j = fromRow; j < toRow; j++) {
+                    band.getRow(j, row);
+                    for (int i = 0, index = j * width; i < width; i++, index++) {
+                        pixels[index] = codes == null ? (byte) row[i] : codes[row[i] & 0xFF];
+                    }
+                }
+            }
+        });
+        return pixels;
     }
 }
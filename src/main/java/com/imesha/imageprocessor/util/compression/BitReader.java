@@ -0,0 +1,60 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 imesha
+ */
+
+package com.imesha.imageprocessor.util.compression;
+
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * Reads bits written by {@link BitWriter}. Up to 32 bits can be looked at before deciding how many to consume, which
+ * is what table driven decoders need. Past the end of the data the reader supplies 0 bits, but consuming them is an
+ * error.
+ */
+final class BitReader {
+    private final CodecReader reader;
+    private long bits;
+    private int bitCount;
+    private int paddingBits;
+
+    BitReader(CodecReader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * @param length The number of bits to look at, 1 - 32
+     * @return The next {@code length} bits, without consuming them
+     */
+    int peek(int length) throws IOException {
+        if (bitCount < length) refill();
+        return (int) (bits >>> (bitCount - length)) & (int) ((1L << length) - 1);
+    }
+
+    /**
+     * Consumes bits which have been looked at with {@link #peek(int)}.
+     */
+    void skip(int length) throws IOException {
+        bitCount -= length;
+        if (bitCount < paddingBits) throw new EOFException("Unexpected end of compressed data");
+    }
+
+    int read(int length) throws IOException {
+        int value = peek(length);
+        skip(length);
+        return value;
+    }
+
+    private void refill() throws IOException {
+        while (bitCount <= 56) {
+            int b = reader.read();
+            if (b < 0) {
+                b = 0;
+                paddingBits += 8;
+            }
+            bits = (bits << 8) | b;
+            bitCount += 8;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 imesha
+ */
+
+package com.imesha.imageprocessor.util.compression;
+
+import java.io.IOException;
+
+/**
+ * Packs codes of up to 32 bits into bytes, most significant bit first.
+ */
+final class BitWriter {
+    private final CodecWriter writer;
+    private long bits;
+    private int bitCount;
+
+    BitWriter(CodecWriter writer) {
+        this.writer = writer;
+    }
+
+    /**
+     * @param code   The code, in the lowest {@code length} bits
+     * @param length The number of bits of the code, 0 - 32
+     */
+    void write(int code, int length) throws IOException {
+        bits = (bits << length) | (code & ((1L << length) - 1));
+        bitCount += length;
+        while (bitCount >= 8) {
+            bitCount -= 8;
+            writer.writeByte((int) (bits >>> bitCount));
+        }
+    }
+
+    /**
+     * Writes out the last partial byte, padded with 0 bits.
+     */
+    void flush() throws IOException {
+        if (bitCount > 0) writer.writeByte((int) (bits << (8 - bitCount)));
+        bitCount = 0;
+        bits = 0;
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 imesha
+ */
+
+package com.imesha.imageprocessor.util.compression;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Buffered, unsynchronized reader for data written by {@link CodecWriter}.
+ */
+final class CodecReader {
+    private static final int BUFFER_SIZE = 8192;
+
+    private final InputStream in;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+    private int limit;
+
+    CodecReader(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * @return The next byte as an unsigned value
+     * @throws EOFException If the end of the stream was reached
+     */
+    int readByte() throws IOException {
+        if (position == limit) fill();
+        return buffer[position++] & 0xFF;
+    }
+
+    /**
+     * @return The next byte as an unsigned value, or -1 at the end of the stream
+     */
+    int read() throws IOException {
+        if (position == limit) {
+            int read;
+            do {
+                read = in.read(buffer, 0, BUFFER_SIZE);
+            } while (read == 0);
+            if (read < 0) return -1;
+            position = 0;
+            limit = read;
+        }
+        return buffer[position++] & 0xFF;
+    }
+
+    /**
+     * Fills the array with the next bytes of the stream.
+     *
+     * @throws EOFException If the end of the stream is reached first
+     */
+    void readFully(byte[] bytes) throws IOException {
+        readFully(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Reads the next length bytes of the stream into the array, starting at the given offset.
+     *
+     * @throws EOFException If the end of the stream is reached first
+     */
+    void readFully(byte[] bytes, int offset, int length) throws IOException {
+        int done = Math.min(length, limit - position);
+        System.arraycopy(buffer, position, bytes, offset, done);
+        position += done;
+        while (done < length) {
+            int read = in.read(bytes, offset + done, length - done);
+            if (read < 0) throw new EOFException("Unexpected end of compressed data");
+            done += read;
+        }
+    }
+
+    int readVarInt() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (position == limit) fill();
+            int b = buffer[position++];
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private void fill() throws IOException {
+        int read;
+        do {
+            read = in.read(buffer, 0, BUFFER_SIZE);
+        } while (read == 0);
+        if (read < 0) throw new EOFException("Unexpected end of compressed data");
+        position = 0;
+        limit = read;
+    }
+}
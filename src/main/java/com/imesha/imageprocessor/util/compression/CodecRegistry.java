@@ -0,0 +1,217 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 imesha
+ */
+
+package com.imesha.imageprocessor.util.compression;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+/**
+ * The codecs known to the library, by name and by the format byte of their data. The built in codecs are always
+ * there, and others are added with {@link java.util.ServiceLoader} (see {@link ImageCodecProvider}).
+ * <p>
+ * The registry is built once and never changes, so looking up a codec takes no locks. Stateless codecs are created
+ * once and shared, so looking them up does not allocate either. Data can be decompressed without knowing its codec,
+ * which is picked from the format byte of its header.
+ */
+public final class CodecRegistry {
+
+    public static final int HUFFMAN_CODING = 1;
+    public static final int RUN_LENGTH_CODING = 2;
+    public static final int PREDICTIVE_CODING = 3;
+
+    private static final int FORMATS = 256;
+
+    private final ImageCodecProvider[] providers = new ImageCodecProvider[FORMATS];
+    private final ImageCompressor[] sharedCompressors = new ImageCompressor[FORMATS];
+    private final Map<String, ImageCodecProvider> providersByName = new HashMap<String, ImageCodecProvider>();
+    private final List<ImageCodecProvider> providerList;
+
+    /**
+     * Created on first use, which the class loader makes thread safe.
+     */
+    private static final class DefaultHolder {
+        static final CodecRegistry INSTANCE = new CodecRegistry(loadProviders());
+    }
+
+    /**
+     * @param providers The codecs of the registry
+     * @throws IllegalArgumentException If two codecs have the same name or format, or a format is out of range
+     */
+    public CodecRegistry(List<ImageCodecProvider> providers) {
+        for (ImageCodecProvider provider : providers) {
+            int format = provider.getFormat();
+            if (format < 1 || format >= FORMATS)
+                throw new IllegalArgumentException("Codec " + provider.getName() + " has invalid format " + format);
+            if (this.providers[format] != null)
+                throw new IllegalArgumentException("Codecs " + this.providers[format].getName() + " and "
+                        + provider.getName() + " have the same format " + format);
+            if (providersByName.containsKey(provider.getName()))
+                throw new IllegalArgumentException("Two codecs are named " + provider.getName());
+            this.providers[format] = provider;
+            providersByName.put(provider.getName(), provider);
+            if (provider.isStateless()) sharedCompressors[format] = provider.createCompressor();
+        }
+        this.providerList = Collections.unmodifiableList(new ArrayList<ImageCodecProvider>(providers));
+    }
+
+    /**
+     * @return The registry of the built in codecs and the codecs found on the class path
+     */
+    public static CodecRegistry getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    private static List<ImageCodecProvider> loadProviders() {
+        List<ImageCodecProvider> providers = new ArrayList<ImageCodecProvider>();
+        providers.add(new BuiltInProvider("huffman", HUFFMAN_CODING, ".huf") {
+            public ImageCompressor createCompressor() {
+                return new HuffmanCodingCompressor();
+            }
+        });
+        providers.add(new BuiltInProvider("rle", RUN_LENGTH_CODING, ".rlc") {
+            public ImageCompressor createCompressor() {
+                return new BitPlaneCodingCompressor();
+            }
+        });
+        providers.add(new BuiltInProvider("predictive", PREDICTIVE_CODING, ".prd") {
+            public ImageCompressor createCompressor() {
+                return new PredictiveCodingCompressor();
+            }
+        });
+        for (ImageCodecProvider provider : ServiceLoader.load(ImageCodecProvider.class,
+                CodecRegistry.class.getClassLoader())) {
+            providers.add(provider);
+        }
+        return providers;
+    }
+
+    /**
+     * @return The codecs, in the order they were registered
+     */
+    public List<ImageCodecProvider> getProviders() {
+        return providerList;
+    }
+
+    /**
+     * @return The codec of the format, or null if there is none
+     */
+    public ImageCodecProvider getProvider(int format) {
+        return format >= 0 && format < FORMATS ? providers[format] : null;
+    }
+
+    /**
+     * @return The codec of the name, or null if there is none
+     */
+    public ImageCodecProvider getProvider(String name) {
+        return providersByName.get(name);
+    }
+
+    /**
+     * Gives a compressor of the format, the shared one if the codec is stateless.
+     *
+     * @throws IllegalArgumentException If there is no codec of the format
+     */
+    public ImageCompressor getCompressor(int format) {
+        ImageCompressor compressor = format >= 0 && format < FORMATS ? sharedCompressors[format] : null;
+        if (compressor != null) return compressor;
+        ImageCodecProvider provider = getProvider(format);
+        if (provider == null) throw new IllegalArgumentException("Unknown compression format " + format);
+        return provider.createCompressor();
+    }
+
+    /**
+     * Gives a compressor of the named codec, the shared one if the codec is stateless.
+     *
+     * @throws IllegalArgumentException If there is no codec of the name
+     */
+    public ImageCompressor getCompressor(String name) {
+        ImageCodecProvider provider = providersByName.get(name);
+        if (provider == null) throw new IllegalArgumentException("Unknown codec " + name);
+        return getCompressor(provider.getFormat());
+    }
+
+    /**
+     * Gives a compressor which can decompress the image, picked by the format in its header.
+     *
+     * @throws IllegalArgumentException If the data is not a compressed image of a known format
+     */
+    public ImageCompressor getDecompressor(CompressedImage compressedImage) {
+        try {
+            return getCompressor(CompressionHeader.readFormat(compressedImage.getData(), compressedImage.getSize()));
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Decompresses an image with the codec which compressed it.
+     *
+     * @throws IllegalArgumentException If the data is not a valid compressed image of a known format
+     */
+    public BufferedImage decompress(CompressedImage compressedImage) {
+        return getDecompressor(compressedImage).decompress(compressedImage);
+    }
+
+    /**
+     * Decompresses an image from the stream with the codec which compressed it.
+     *
+     * @param in The stream positioned at the start of the compressed image
+     * @throws IOException If reading fails, or the data is not a valid compressed image of a known format
+     */
+    public BufferedImage decompress(InputStream in) throws IOException {
+        if (!in.markSupported()) in = new BufferedInputStream(in);
+        byte[] header = new byte[CompressionHeader.FORMAT_LENGTH];
+        in.mark(header.length);
+        int length = 0;
+        for (int read; length < header.length && (read = in.read(header, length, header.length - length)) > 0; ) {
+            length += read;
+        }
+        in.reset();
+        int format = CompressionHeader.readFormat(header, length);
+        ImageCodecProvider provider = getProvider(format);
+        if (provider == null) throw new IOException("Unknown compression format " + format);
+        return getCompressor(format).decompress(in);
+    }
+
+    /**
+     * A codec of this library. All of them are stateless.
+     */
+    private abstract static class BuiltInProvider implements ImageCodecProvider {
+        private final String name;
+        private final int format;
+        private final String fileExtension;
+
+        BuiltInProvider(String name, int format, String fileExtension) {
+            this.name = name;
+            this.format = format;
+            this.fileExtension = fileExtension;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getFormat() {
+            return format;
+        }
+
+        public String getFileExtension() {
+            return fileExtension;
+        }
+
+        public boolean isStateless() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 imesha
+ */
+
+package com.imesha.imageprocessor.util.compression;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Buffered, unsynchronized writer used by the compressors to emit bytes and variable length integers.
+ * Only a fixed size buffer is held; it is drained to the underlying stream whenever it fills up.
+ */
+final class CodecWriter {
+    private static final int BUFFER_SIZE = 8192;
+
+    private final OutputStream out;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+
+    CodecWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    void writeByte(int value) throws IOException {
+        if (position == BUFFER_SIZE) drain();
+        buffer[position++] = (byte) value;
+    }
+
+    void write(byte[] bytes, int offset, int length) throws IOException {
+        if (length > BUFFER_SIZE - position) {
+            drain();
+            if (length > BUFFER_SIZE) {
+                out.write(bytes, offset, length);
+                return;
+            }
+        }
+        System.arraycopy(bytes, offset, buffer, position, length);
+        position += length;
+    }
+
+    /**
+     * Writes a non-negative int as an unsigned LEB128 varint: 7 bits per byte, least significant group first,
+     * with the high bit set on every byte except the last.
+     *
+     * @param value The value to be written
+     */
+    void writeVarInt(int value) throws IOException {
+        if (position > BUFFER_SIZE - 5) drain();
+        while ((value & ~0x7F) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+    }
+
+    /**
+     * Writes the buffered bytes to the underlying stream and flushes it.
+     */
+    void flush() throws IOException {
+        drain();
+        out.flush();
+    }
+
+    private void drain() throws IOException {
+        out.write(buffer, 0, position);
+        position = 0;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 imesha
+ */
+
+package com.imesha.imageprocessor.util.compression;
+
+/**
+ * A reversible transform applied to the red, green and blue bands of a colour image before they are compressed as
+ * planes of their own, see {@link AbstractImageCompressor}. The transform works on 8 bit samples and is exactly
+ * undone on decompression.
+ */
+public enum ColorTransform {
+
+    /**
+     * The bands are compressed as they are.
+     */
+    NONE {
+        void forward(int[] red, int[] green, int[] blue, int length) {
+        }
+
+        void inverse(int[] first, int[] second, int[] third, int length) {
+        }
+    },
+
+    /**
+     * The lifting based YCoCg-R transform, which takes out most of what the bands of natural images have in common:
+     * <pre>
+     *     Co = R - B       t = B + (Co &gt;&gt; 1)
+     *     Cg = G - t       Y = t + (Cg &gt;&gt; 1)
+     * </pre>
+     * The chroma differences are kept modulo 256, offset by 128 so that small differences either way stay close
+     * together, which keeps all three planes at 8 bits. Each lifting step adds a function of the other plane to a
+     * plane, so the transform is undone exactly by subtracting in the reverse order.
+     */
+    YCOCG_R {
+        void forward(int[] red, int[] green, int[] blue, int length) {
+            for (int i = 0; i < length; i++) {
+                int co = (red[i] - blue[i] + 128) & 0xFF;
+                int t = (blue[i] + ((co - 128) >> 1)) & 0xFF;
+                int cg = (green[i] - t + 128) & 0xFF;
+                red[i] = (t + ((cg - 128) >> 1)) & 0xFF;
+                green[i] = co;
+                blue[i] = cg;
+            }
+        }
+
+        void inverse(int[] first, int[] second, int[] third, int length) {
+            for (int i = 0; i < length; i++) {
+                int co = second[i];
+                int cg = third[i];
+                int t = (first[i] - ((cg - 128) >> 1)) & 0xFF;
+                int blue = (t - ((co - 128) >> 1)) & 0xFF;
+                first[i] = (blue + co - 128) & 0xFF;
+                second[i] = (cg - 128 + t) & 0xFF;
+                third[i] = blue;
+            }
+        }
+    };
+
+    /**
+     * Transforms rows of red, green and blue samples in place, into the three planes which are compressed.
+     */
+    abstract void forward(int[] red, int[] green, int[] blue, int length);
+
+    /**
+     * Transforms rows of the three planes back in place, into red, green and blue samples.
+     */
+    abstract void inverse(int[] first, int[] second, int[] third, int length);
+}
@@ -5,18 +5,29 @@ package com.imesha.imageprocessor.util.compression;
  * @date 8/5/16.
  */
 
+/**
+ * Holds the encoded form of an image. The data is the complete output of a compressor, including the header
+ * written by {@link CompressionHeader}, so it can be written to a file as it is.
+ */
 public class CompressedImage {
-    private String binaryRepresentation;
+    private byte[] data;
     private int width, height;
 
-    public CompressedImage(int width, int height, String binaryRepresentation) {
-        this.binaryRepresentation = binaryRepresentation;
+    public CompressedImage(int width, int height, byte[] data) {
+        this.data = data;
         this.width = width;
         this.height = height;
     }
 
-    public String getBinaryRepresentation() {
-        return binaryRepresentation;
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * @return The size of the encoded image in bytes.
+     */
+    public int getSize() {
+        return data.length;
     }
 
     public int getWidth() {
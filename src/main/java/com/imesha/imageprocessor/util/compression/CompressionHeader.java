@@ -0,0 +1,194 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 imesha
+ */
+
+package com.imesha.imageprocessor.util.compression;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * The header which starts every compressed image. Layout:
+ * <pre>
+ *     'I' 'P' | format (1 byte) | version (1 byte) | width (varint) | height (varint)
+ * </pre>
+ * The format is the format byte of a codec of the {@link CodecRegistry} and the version is owned by the compressor
+ * which wrote the data, so each compressor can evolve its own body layout. The one exception is
+ * {@link #PLANAR_VERSION}, which every format uses for images of several bands, see {@link PlanarImageCoder}.
+ * The width and height are unsigned LEB128 varints: 7 bits per byte, least significant group first, with the high
+ * bit set on every byte except the last.
+ * <p>
+ * Codecs outside of this package write and read the header with {@link #writeTo(OutputStream)} and
+ * {@link #readFrom(InputStream, int, int)}.
+ */
+public final class CompressionHeader {
+    private static final int MAGIC_0 = 'I';
+    private static final int MAGIC_1 = 'P';
+
+    /**
+     * The number of bytes from the start of the data which hold the format.
+     */
+    static final int FORMAT_LENGTH = 3;
+
+    /**
+     * The version of images of any format which are coded plane by plane. Compressors use versions below it.
+     */
+    public static final int PLANAR_VERSION = 0x80;
+
+    private final int format;
+    private final int version;
+    private final int width;
+    private final int height;
+
+    /**
+     * @param format  The format byte of the codec, between 1 and 255
+     * @param version The version of the body layout, between 1 and 255
+     * @param width   The width of the image
+     * @param height  The height of the image
+     * @throws IllegalArgumentException If a value does not fit the header
+     */
+    public CompressionHeader(int format, int version, int width, int height) {
+        if (format < 1 || format > 255) throw new IllegalArgumentException("Invalid format " + format);
+        if (version < 1 || version > 255) throw new IllegalArgumentException("Invalid version " + version);
+        if (width <= 0 || height <= 0 || (long) width * height > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Invalid image size " + width + "x" + height);
+        this.format = format;
+        this.version = version;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Writes the header to the stream, byte by byte, so the stream should be buffered.
+     *
+     * @param out The stream the compressed image is written to
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(MAGIC_0);
+        out.write(MAGIC_1);
+        out.write(format);
+        out.write(version);
+        writeVarInt(out, width);
+        writeVarInt(out, height);
+    }
+
+    private static void writeVarInt(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * Reads a header and checks that it belongs to the expected format. Exactly the bytes of the header are read,
+     * so the body follows in the stream.
+     *
+     * @param in             The stream positioned at the start of the compressed data
+     * @param expectedFormat The format the caller is able to decode
+     * @param maxVersion     The latest body version the caller understands
+     * @return The header
+     * @throws IOException If the data is not a compressed image of the expected format
+     */
+    public static CompressionHeader readFrom(final InputStream in, int expectedFormat, int maxVersion)
+            throws IOException {
+        return read(new CodecReader(new InputStream() {
+            public int read() throws IOException {
+                return in.read();
+            }
+
+            public int read(byte[] bytes, int offset, int length) throws IOException {
+                // One byte at a time, so that the reader does not buffer any of the body
+                if (length == 0) return 0;
+                int b = in.read();
+                if (b < 0) return -1;
+                bytes[offset] = (byte) b;
+                return 1;
+            }
+        }), expectedFormat, maxVersion);
+    }
+
+    void write(CodecWriter writer) throws IOException {
+        writer.writeByte(MAGIC_0);
+        writer.writeByte(MAGIC_1);
+        writer.writeByte(format);
+        writer.writeByte(version);
+        writer.writeVarInt(width);
+        writer.writeVarInt(height);
+    }
+
+    /**
+     * Reads a header and checks that it belongs to the expected format.
+     *
+     * @param reader         The reader positioned at the start of the compressed data
+     * @param expectedFormat The format the caller is able to decode
+     * @param maxVersion     The latest body version the caller understands
+     * @return The header
+     * @throws IOException If the data is not a compressed image of the expected format
+     */
+    static CompressionHeader read(CodecReader reader, int expectedFormat, int maxVersion) throws IOException {
+        if (reader.readByte() != MAGIC_0 || reader.readByte() != MAGIC_1)
+            throw new IOException("Not a compressed image");
+        int format = reader.readByte();
+        if (format != expectedFormat)
+            throw new IOException("Unexpected compression format " + format + ", expected " + expectedFormat);
+        int version = reader.readByte();
+        if (version < 1 || version > maxVersion)
+            throw new IOException("Unsupported version " + version + " of format " + format);
+        return readSize(reader, format, version);
+    }
+
+    /**
+     * Reads the header of an image which was coded plane by plane, of any format.
+     *
+     * @throws IOException If the data is not a compressed image coded plane by plane
+     */
+    static CompressionHeader readPlanar(CodecReader reader) throws IOException {
+        if (reader.readByte() != MAGIC_0 || reader.readByte() != MAGIC_1)
+            throw new IOException("Not a compressed image");
+        int format = reader.readByte();
+        int version = reader.readByte();
+        if (version != PLANAR_VERSION) throw new IOException("Not a planar image of format " + format);
+        return readSize(reader, format, version);
+    }
+
+    private static CompressionHeader readSize(CodecReader reader, int format, int version) throws IOException {
+        if (format == 0) throw new IOException("Invalid compression format 0");
+        int width = reader.readVarInt();
+        int height = reader.readVarInt();
+        if (width <= 0 || height <= 0 || (long) width * height > Integer.MAX_VALUE)
+            throw new IOException("Invalid image size " + width + "x" + height);
+        return new CompressionHeader(format, version, width, height);
+    }
+
+    /**
+     * Gives the format of compressed data without reading the rest of the header.
+     *
+     * @param data   The compressed data
+     * @param length The number of bytes of data, of which only the first {@link #FORMAT_LENGTH} are looked at
+     * @throws IOException If the data does not start with a header
+     */
+    static int readFormat(byte[] data, int length) throws IOException {
+        if (length < FORMAT_LENGTH || data[0] != MAGIC_0 || data[1] != MAGIC_1)
+            throw new IOException("Not a compressed image");
+        return data[2] & 0xFF;
+    }
+
+    public int getFormat() {
+        return format;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+}
@@ -3,12 +3,17 @@ package com.imesha.imageprocessor.util.compression;
 /**
  * The MIT License (MIT)
  * Copyright (c) 2016 imesha
+ *
+ * @deprecated Use {@link CodecRegistry}, which shares stateless compressors and knows the codecs added with
+ * {@link java.util.ServiceLoader}.
  */
+@Deprecated
 public class CompressorFactory {
-    public static final int ENTROPHY_CODING = 1;
-    public static final int RUN_LENGTH_CODING = 2;
+    public static final int ENTROPHY_CODING = CodecRegistry.HUFFMAN_CODING;
+    public static final int RUN_LENGTH_CODING = CodecRegistry.RUN_LENGTH_CODING;
+    public static final int PREDICTIVE_CODING = CodecRegistry.PREDICTIVE_CODING;
 
-    private static CompressorFactory instance;
+    private static final CompressorFactory instance = new CompressorFactory();
 
     private CompressorFactory() {
     }
@@ -19,7 +24,6 @@ public class CompressorFactory {
      * @return CompressorFactory instance
      */
     public static CompressorFactory getInstance() {
-        if (instance == null) instance = new CompressorFactory();
         return instance;
     }
 
@@ -27,17 +31,11 @@ public class CompressorFactory {
      * Factory method to get the ImageCompressor instance.
      *
      * @param type The type of the image compressor required. Types are defined as static final int.
-     * @return The {@link ImageCompressor} instance
+     * @return The {@link ImageCompressor} instance, or null if there is none of the type
      */
     public ImageCompressor getCompressor(int type) {
-        ImageCompressor compressor = null;
-        switch (type) {
-            case ENTROPHY_CODING:
-                compressor = new HuffmanCodingCompressor();
-            case RUN_LENGTH_CODING:
-                compressor = new BitPlaneCodingCompressor();
-        }
-        return compressor;
+        CodecRegistry registry = CodecRegistry.getDefault();
+        return registry.getProvider(type) != null ? registry.getCompressor(type) : null;
     }
 
 }
@@ -5,33 +5,135 @@ package com.imesha.imageprocessor.util.compression;
  * @date 8/5/16.
  */
 
+import com.imesha.imageprocessor.util.PixelAccess;
+import com.imesha.imageprocessor.util.StripeExecutor;
+
 import java.awt.image.BufferedImage;
-import java.awt.image.Raster;
-import java.util.HashMap;
-import java.util.Map;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Lossless entropy coder for gray scale images, using a canonical Huffman code built from the gray level histogram.
+ * Colour images are coded as a gray scale image per band, see {@link AbstractImageCompressor}.
+ * Layout of the data following the {@link CompressionHeader}:
+ * <pre>
+ *     code length of each gray level 0..255, one byte each (0 for levels which do not occur)
+ *     the codes of all pixels in row major order, packed most significant bit first
+ * </pre>
+ */
+public class HuffmanCodingCompressor extends AbstractImageCompressor {
+
+    static final int VERSION = 1;
+
+    /**
+     * Creates a compressor which applies {@link ColorTransform#YCOCG_R} to colour images.
+     */
+    public HuffmanCodingCompressor() {
+    }
+
+    /**
+     * @param colorTransform The transform applied to the red, green and blue bands of colour images
+     */
+    public HuffmanCodingCompressor(ColorTransform colorTransform) {
+        super(colorTransform);
+    }
 
-public class HuffmanCodingCompressor implements ImageCompressor {
+    protected int getVersion() {
+        return VERSION;
+    }
 
-    public CompressedImage compress(BufferedImage originalImage) {
-        Map<Integer, Integer> histogram = getHistogram(originalImage);
+    /**
+     * Compresses the image. The histogram is taken in a first pass over the image, then the codes are written to
+     * the stream in a second one.
+     *
+     * @param originalImage The image to be compressed
+     * @param out           The stream to which the compressed image is written
+     */
+    protected void encode(BufferedImage originalImage, OutputStream out) throws IOException {
+        int width = originalImage.getWidth();
+        int height = originalImage.getHeight();
+        PixelAccess.Band band = PixelAccess.band(originalImage, 0);
+        HuffmanTable table = HuffmanTable.fromHistogram(getHistogram(band));
 
-        return null;
+        CodecWriter writer = new CodecWriter(out);
+        new CompressionHeader(CodecRegistry.HUFFMAN_CODING, VERSION, width, height).write(writer);
+        for (int symbol = 0; symbol < HuffmanTable.SYMBOLS; symbol++) {
+            writer.writeByte(table.getLength(symbol));
+        }
+        BitWriter bitWriter = new BitWriter(writer);
+        int[] row = new int[width];
+        for (int j = 0; j < height; j++) {
+            band.getRow(j, row);
+            for (int i = 0; i < width; i++) {
+                int symbol = row[i] & 0xFF;
+                bitWriter.write(table.getCode(symbol), table.getLength(symbol));
+            }
+        }
+        bitWriter.flush();
+        writer.flush();
     }
 
-    private Map<Integer, Integer> getHistogram(BufferedImage image) {
-        Map<Integer, Integer> histogram = new HashMap<Integer, Integer>();
-        Raster raster = image.getRaster();
-        for (int i = 0; i < image.getWidth(); i++) {
-            for (int j = 0; j < image.getHeight(); j++) {
-                int count = histogram.containsKey(raster.getSample(i, j, 0)) ?
-                        histogram.get(raster.getSample(i, j, 0)) : 0;
-                histogram.put(raster.getSample(i, j, 0), count + 1);
+    /**
+     * Counts the occurrences of each gray level in the image.
+     */
+    private static int[] getHistogram(final PixelAccess.Band band) {
+        final int width = band.getWidth();
+        List<int[]> stripeHistograms = StripeExecutor.mapStripes(width, band.getHeight(),
+                new StripeExecutor.StripeFunction<int[]>() {
+                    public int[] process(int fromRow, int toRow) {
+                        int[] histogram = new int[HuffmanTable.SYMBOLS];
+                        int[] row = new int[width];
+                        for (int j = fromRow; j < toRow; j++) {
+                            band.getRow(j, row);
+                            for (int i = 0; i < width; i++) {
+                                histogram[row[i] & 0xFF]++;
+                            }
+                        }
+                        return histogram;
+                    }
+                });
+        int[] histogram = new int[HuffmanTable.SYMBOLS];
+        for (int[] stripeHistogram : stripeHistograms) {
+            for (int symbol = 0; symbol < HuffmanTable.SYMBOLS; symbol++) {
+                histogram[symbol] += stripeHistogram[symbol];
             }
         }
         return histogram;
     }
 
-    public BufferedImage decompress(CompressedImage compressedImage) {
-        return null;
+    /**
+     * Decompresses an image which was compressed by this compressor.
+     *
+     * @param in          The stream positioned at the start of the compressed image
+     * @param destination The TYPE_BYTE_GRAY image to decompress into, or null to create a new one
+     * @return The decompressed image
+     * @throws IOException If reading fails or the data is not a valid Huffman coded image
+     */
+    protected BufferedImage decode(InputStream in, BufferedImage destination) throws IOException {
+        CodecReader reader = new CodecReader(in);
+        CompressionHeader header = CompressionHeader.read(reader, CodecRegistry.HUFFMAN_CODING, VERSION);
+        int[] lengths = new int[HuffmanTable.SYMBOLS];
+        for (int symbol = 0; symbol < HuffmanTable.SYMBOLS; symbol++) {
+            lengths[symbol] = reader.readByte();
+        }
+        int[] decodeTable = HuffmanTable.fromLengths(lengths).getDecodeTable();
+
+        int width = header.getWidth();
+        int height = header.getHeight();
+        BufferedImage image = PixelAccess.grayDestination(destination, width, height);
+        PixelAccess.Band band = PixelAccess.band(image, 0);
+        byte[] pixels = band.getData();
+        BitReader bitReader = new BitReader(reader);
+        for (int j = 0; j < height; j++) {
+            for (int index = band.index(0, j), end = index + width; index < end; index++) {
+                int entry = decodeTable[bitReader.peek(HuffmanTable.MAX_CODE_LENGTH)];
+                if (entry == 0) throw new IOException("Invalid Huffman code");
+                bitReader.skip(entry & 0xF);
+                pixels[index] = (byte) (entry >> 4);
+            }
+        }
+        return image;
     }
 }
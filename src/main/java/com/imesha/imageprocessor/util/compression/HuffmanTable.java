@@ -0,0 +1,204 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 imesha
+ */
+
+package com.imesha.imageprocessor.util.compression;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * A canonical, length limited Huffman code over the symbols 0 - 255.
+ * <p>
+ * Only the code lengths need to be stored; the codes follow from them by giving consecutive values to the symbols
+ * in order of (length, symbol). As no code is longer than {@link #MAX_CODE_LENGTH} bits, decoding is a single
+ * lookup of the next {@link #MAX_CODE_LENGTH} bits in a table, which gives both the symbol and its length.
+ */
+final class HuffmanTable {
+    static final int SYMBOLS = 256;
+    static final int MAX_CODE_LENGTH = 12;
+
+    private final int[] lengths;
+    private final int[] codes;
+    private int[] decodeTable;
+
+    private HuffmanTable(int[] lengths) {
+        this.lengths = lengths;
+        this.codes = assignCodes(lengths);
+    }
+
+    /**
+     * Builds the optimal code for the given symbol frequencies, subject to the length limit.
+     *
+     * @param histogram The number of occurrences of each symbol
+     * @return The code
+     */
+    static HuffmanTable fromHistogram(int[] histogram) {
+        return new HuffmanTable(limitLengths(histogram, treeDepths(histogram)));
+    }
+
+    /**
+     * @param lengths The code length of each symbol, 0 for symbols which do not occur
+     * @return The code
+     * @throws IOException If the lengths can not come from a Huffman code
+     */
+    static HuffmanTable fromLengths(int[] lengths) throws IOException {
+        long kraftSum = 0;
+        for (int length : lengths) {
+            if (length < 0 || length > MAX_CODE_LENGTH) throw new IOException("Invalid code length " + length);
+            if (length > 0) kraftSum += 1 << (MAX_CODE_LENGTH - length);
+        }
+        if (kraftSum == 0 || kraftSum > 1 << MAX_CODE_LENGTH) throw new IOException("Invalid Huffman code lengths");
+        return new HuffmanTable(lengths);
+    }
+
+    int getLength(int symbol) {
+        return lengths[symbol];
+    }
+
+    int getCode(int symbol) {
+        return codes[symbol];
+    }
+
+    /**
+     * Gives the table to decode with. The entry for the next {@link #MAX_CODE_LENGTH} bits of the stream holds the
+     * symbol in the upper bits and the length of its code in the lowest 4 bits. Entries for bit patterns which are
+     * not prefixed by any code are 0.
+     */
+    int[] getDecodeTable() {
+        if (decodeTable == null) {
+            int[] table = new int[1 << MAX_CODE_LENGTH];
+            for (int symbol = 0; symbol < SYMBOLS; symbol++) {
+                int length = lengths[symbol];
+                if (length == 0) continue;
+                int shift = MAX_CODE_LENGTH - length;
+                int first = codes[symbol] << shift;
+                int entry = symbol << 4 | length;
+                for (int i = 0; i < 1 << shift; i++) {
+                    table[first + i] = entry;
+                }
+            }
+            decodeTable = table;
+        }
+        return decodeTable;
+    }
+
+    /**
+     * Gives the depth of each symbol in a Huffman tree of the histogram. Ties are broken by node index, so the same
+     * histogram always gives the same tree.
+     */
+    private static int[] treeDepths(int[] histogram) {
+        final long[] weights = new long[2 * SYMBOLS];
+        int[] parents = new int[2 * SYMBOLS];
+        PriorityQueue<Integer> queue = new PriorityQueue<Integer>(SYMBOLS, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                int byWeight = Long.compare(weights[a], weights[b]);
+                return byWeight != 0 ? byWeight : Integer.compare(a, b);
+            }
+        });
+        for (int symbol = 0; symbol < SYMBOLS; symbol++) {
+            weights[symbol] = histogram[symbol];
+            if (histogram[symbol] > 0) queue.add(symbol);
+        }
+
+        int[] depths = new int[SYMBOLS];
+        if (queue.size() == 1) {
+            // A single symbol still needs a code of one bit
+            depths[queue.peek()] = 1;
+            return depths;
+        }
+
+        int next = SYMBOLS;
+        while (queue.size() > 1) {
+            int a = queue.poll();
+            int b = queue.poll();
+            weights[next] = weights[a] + weights[b];
+            parents[a] = next;
+            parents[b] = next;
+            queue.add(next++);
+        }
+        int root = next - 1;
+        for (int symbol = 0; symbol < SYMBOLS; symbol++) {
+            if (histogram[symbol] == 0) continue;
+            int depth = 0;
+            for (int node = symbol; node != root; node = parents[node]) {
+                depth++;
+            }
+            depths[symbol] = depth;
+        }
+        return depths;
+    }
+
+    /**
+     * Shortens codes longer than {@link #MAX_CODE_LENGTH} by moving leaves up the tree, as done for JPEG (ITU T.81,
+     * K.3), and gives the shortest lengths to the most frequent symbols.
+     */
+    private static int[] limitLengths(int[] histogram, int[] depths) {
+        int[] counts = new int[SYMBOLS + 1];
+        int maxDepth = 0;
+        for (int depth : depths) {
+            counts[depth]++;
+            maxDepth = Math.max(maxDepth, depth);
+        }
+        counts[0] = 0;
+        if (maxDepth <= MAX_CODE_LENGTH) return depths;
+
+        for (int length = maxDepth; length > MAX_CODE_LENGTH; length--) {
+            while (counts[length] > 0) {
+                int j = length - 2;
+                while (counts[j] == 0) j--;
+                counts[length] -= 2;
+                counts[length - 1]++;
+                counts[j + 1] += 2;
+                counts[j]--;
+            }
+        }
+
+        // Hand out the lengths, shortest first, to the symbols ordered by decreasing frequency
+        Integer[] symbols = new Integer[SYMBOLS];
+        for (int symbol = 0; symbol < SYMBOLS; symbol++) {
+            symbols[symbol] = symbol;
+        }
+        final int[] frequencies = histogram;
+        Arrays.sort(symbols, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                int byFrequency = Integer.compare(frequencies[b], frequencies[a]);
+                return byFrequency != 0 ? byFrequency : Integer.compare(a, b);
+            }
+        });
+        int[] lengths = new int[SYMBOLS];
+        int length = 1;
+        for (Integer symbol : symbols) {
+            if (histogram[symbol] == 0) break;
+            while (counts[length] == 0) length++;
+            lengths[symbol] = length;
+            counts[length]--;
+        }
+        return lengths;
+    }
+
+    /**
+     * Assigns the canonical codes for the given lengths.
+     */
+    private static int[] assignCodes(int[] lengths) {
+        int[] lengthCounts = new int[MAX_CODE_LENGTH + 1];
+        for (int length : lengths) {
+            lengthCounts[length]++;
+        }
+        lengthCounts[0] = 0;
+        int[] nextCode = new int[MAX_CODE_LENGTH + 1];
+        int code = 0;
+        for (int length = 1; length <= MAX_CODE_LENGTH; length++) {
+            code = (code + lengthCounts[length - 1]) << 1;
+            nextCode[length] = code;
+        }
+        int[] codes = new int[SYMBOLS];
+        for (int symbol = 0; symbol < SYMBOLS; symbol++) {
+            if (lengths[symbol] > 0) codes[symbol] = nextCode[lengths[symbol]]++;
+        }
+        return codes;
+    }
+}
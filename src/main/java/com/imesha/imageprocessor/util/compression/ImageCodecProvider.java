@@ -0,0 +1,48 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 imesha
+ */
+
+package com.imesha.imageprocessor.util.compression;
+
+/**
+ * Describes a codec to the {@link CodecRegistry}. Codecs outside of this library are found with
+ * {@link java.util.ServiceLoader}, by listing the implementing class in
+ * {@code META-INF/services/com.imesha.imageprocessor.util.compression.ImageCodecProvider}.
+ * <p>
+ * The data written by the codec must start with the {@link CompressionHeader} of its format, so that the decoder
+ * can be picked from the data alone:
+ * <pre>
+ *     'I' 'P' | format (1 byte) | version (1 byte) | width (varint) | height (varint)
+ * </pre>
+ * where the format is {@link #getFormat()}, the version is chosen by the codec between 1 and 127, and the sizes are
+ * unsigned LEB128 varints. Versions from {@link CompressionHeader#PLANAR_VERSION} up are reserved for images of
+ * several bands which are coded plane by plane. A codec writes and checks the header with
+ * {@link CompressionHeader#writeTo(java.io.OutputStream)} and
+ * {@link CompressionHeader#readFrom(java.io.InputStream, int, int)}.
+ */
+public interface ImageCodecProvider {
+
+    /**
+     * @return The short name the codec is looked up by, such as "rle"
+     */
+    String getName();
+
+    /**
+     * @return The format byte in the header of the data the codec writes, between 1 and 255
+     */
+    int getFormat();
+
+    /**
+     * @return The extension of files holding data of the codec, including the dot
+     */
+    String getFileExtension();
+
+    /**
+     * @return Whether a single compressor can be shared by any number of threads, in which case
+     * {@link #createCompressor()} is only called once
+     */
+    boolean isStateless();
+
+    ImageCompressor createCompressor();
+}
@@ -1,6 +1,11 @@
 package com.imesha.imageprocessor.util.compression;
 
 import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * The MIT License (MIT)
@@ -34,4 +39,60 @@ public interface ImageCompressor {
      * @return The decompressed image
      */
     BufferedImage decompress(CompressedImage compressedImage);
+
+    /**
+     * Decompresses a Image into the given image.
+     *
+     * @param compressedImage Image to be Decompressed
+     * @param destination     A TYPE_BYTE_GRAY image of the size of the compressed image, eg: from an
+     *                        {@link com.imesha.imageprocessor.util.ImageBufferPool}, or null to create a new one.
+     *                        For a colour image it has the number of bands of the image instead
+     * @return The destination
+     */
+    BufferedImage decompress(CompressedImage compressedImage, BufferedImage destination);
+
+    /**
+     * Compresses a BufferedImage straight into a stream. Only a small, fixed size buffer is used on top of a gray
+     * scale image itself, while colour images are held in memory plane by plane. The stream is flushed, but not
+     * closed.
+     *
+     * @param originalImage The image to be compressed
+     * @param out           The stream to which the compressed image is written
+     * @throws IOException If writing to the stream fails
+     */
+    void compress(BufferedImage originalImage, OutputStream out) throws IOException;
+
+    /**
+     * Compresses a BufferedImage straight into a channel, see {@link #compress(BufferedImage, OutputStream)}.
+     */
+    void compress(BufferedImage originalImage, WritableByteChannel channel) throws IOException;
+
+    /**
+     * Decompresses an image read from a stream. The stream may be read past the end of the compressed image, and
+     * is not closed.
+     *
+     * @param in The stream positioned at the start of the compressed image
+     * @return The decompressed image
+     * @throws IOException If reading fails or the data is not a valid image of this compressor's format
+     */
+    BufferedImage decompress(InputStream in) throws IOException;
+
+    /**
+     * Decompresses an image read from a stream into the given image, see {@link #decompress(InputStream)} and
+     * {@link #decompress(CompressedImage, BufferedImage)}.
+     */
+    BufferedImage decompress(InputStream in, BufferedImage destination) throws IOException;
+
+    /**
+     * Decompresses an image read from a channel, see {@link #decompress(InputStream)}.
+     */
+    BufferedImage decompress(ReadableByteChannel channel) throws IOException;
+
+    /**
+     * Describes the compressor and every setting which changes what it writes, the version of its format included,
+     * so that the results of compressors set up differently can be told apart, eg: in the keys of a cache.
+     *
+     * @return The description, the same for compressors which give the same output
+     */
+    String getParameters();
 }
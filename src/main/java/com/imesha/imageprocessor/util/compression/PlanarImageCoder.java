@@ -0,0 +1,266 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 imesha
+ */
+
+package com.imesha.imageprocessor.util.compression;
+
+import com.imesha.imageprocessor.util.PixelAccess;
+import com.imesha.imageprocessor.util.StripeExecutor;
+
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.SampleModel;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * Compresses images of more than one band, eg: colour images, as one plane per band, each of which is compressed by
+ * the gray scale coder of an {@link AbstractImageCompressor}. The red, green and blue bands of RGB images go through
+ * the {@link ColorTransform} of the compressor first. The planes are compressed and decompressed concurrently, so
+ * they are held in memory. Layout:
+ * <pre>
+ *     'I' 'P' | format (1 byte) | {@link CompressionHeader#PLANAR_VERSION} | width (varint) | height (varint)
+ *     number of bands (1 byte) | BufferedImage type of the image (1 byte) | colour transform (1 byte)
+ *     for each band: length (varint) | the plane, compressed as a gray scale image of the format
+ * </pre>
+ */
+final class PlanarImageCoder {
+
+    /**
+     * The most bands an image coded plane by plane may have, ie: colour and alpha.
+     */
+    static final int MAX_BANDS = 4;
+
+    private static final int READ_CHUNK = 1 << 16;
+
+    private PlanarImageCoder() {
+    }
+
+    /**
+     * Tells whether an image is coded plane by plane, which those of 2 to {@link #MAX_BANDS} bands of no more than 8
+     * bits each are. Images of a single band are coded as gray scale images.
+     */
+    static boolean isPlanar(BufferedImage image) {
+        SampleModel sampleModel = image.getSampleModel();
+        int bands = sampleModel.getNumBands();
+        if (bands < 2 || bands > MAX_BANDS) return false;
+        for (int band = 0; band < bands; band++) {
+            if (sampleModel.getSampleSize(band) > 8) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Looks at the header of compressed data without taking it off the stream.
+     *
+     * @return Whether the data was coded plane by plane
+     */
+    static boolean isPlanar(PushbackInputStream in) throws IOException {
+        byte[] start = new byte[CompressionHeader.FORMAT_LENGTH + 1];
+        int length = 0;
+        while (length < start.length) {
+            int read = in.read(start, length, start.length - length);
+            if (read < 0) break;
+            length += read;
+        }
+        in.unread(start, 0, length);
+        return length == start.length && (start[CompressionHeader.FORMAT_LENGTH] & 0xFF)
+                == CompressionHeader.PLANAR_VERSION;
+    }
+
+    static void encode(final AbstractImageCompressor compressor, BufferedImage image, OutputStream out)
+            throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        ColorTransform transform = isRgb(image) ? compressor.getColorTransform() : ColorTransform.NONE;
+        final BufferedImage[] planes = split(image, transform);
+        final byte[][] data = new byte[planes.length][];
+        try {
+            // Each plane counts as a row of as many pixels as it holds
+            StripeExecutor.forEachStripe(width * height, planes.length, new StripeExecutor.StripeTask() {
+                public void process(int fromPlane, int toPlane) {
+                    for (int plane = fromPlane; plane < toPlane; plane++) {
+                        ByteArrayOutputStream planeOut = new ByteArrayOutputStream();
+                        try {
+                            compressor.encode(planes[plane], planeOut);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                        data[plane] = planeOut.toByteArray();
+                    }
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        CodecWriter writer = new CodecWriter(out);
+        int format = CompressionHeader.readFormat(data[0], data[0].length);
+        new CompressionHeader(format, CompressionHeader.PLANAR_VERSION, width, height).write(writer);
+        writer.writeByte(planes.length);
+        writer.writeByte(image.getType());
+        writer.writeByte(transform.ordinal());
+        for (byte[] plane : data) {
+            writer.writeVarInt(plane.length);
+            writer.write(plane, 0, plane.length);
+        }
+        writer.flush();
+    }
+
+    /**
+     * Decompresses an image coded plane by plane.
+     *
+     * @param in          The stream positioned at the start of the compressed image, which {@link #isPlanar} is
+     *                    true of
+     * @param destination An image of the size and the number of bands of the compressed image, or null to create
+     *                    one of the type of the image which was compressed
+     */
+    static BufferedImage decode(final AbstractImageCompressor compressor, PushbackInputStream in,
+                                BufferedImage destination) throws IOException {
+        CodecReader reader = new CodecReader(in);
+        CompressionHeader header = CompressionHeader.readPlanar(reader);
+        final int width = header.getWidth();
+        final int height = header.getHeight();
+        int bands = reader.readByte();
+        int type = reader.readByte();
+        int transformId = reader.readByte();
+        if (bands < 2 || bands > MAX_BANDS) throw new IOException("Invalid number of bands " + bands);
+        if (transformId >= ColorTransform.values().length
+                || (transformId != ColorTransform.NONE.ordinal() && bands < 3))
+            throw new IOException("Unknown colour transform " + transformId);
+        final ColorTransform transform = ColorTransform.values()[transformId];
+        BufferedImage image = destination;
+        if (image == null) {
+            image = createImage(type, bands, width, height);
+        } else if (image.getWidth() != width || image.getHeight() != height
+                || image.getRaster().getNumBands() != bands) {
+            throw new IllegalArgumentException("Destination must be a " + width + "x" + height + " image of "
+                    + bands + " bands");
+        }
+        final byte[][] data = new byte[bands][];
+        for (int plane = 0; plane < bands; plane++) {
+            data[plane] = readPlane(reader, reader.readVarInt());
+        }
+
+        final PixelAccess.Band[] planes = new PixelAccess.Band[bands];
+        try {
+            StripeExecutor.forEachStripe(width * height, bands, new StripeExecutor.StripeTask() {
+                public void process(int fromPlane, int toPlane) {
+                    for (int plane = fromPlane; plane < toPlane; plane++) {
+                        try {
+                            BufferedImage decoded = compressor.decode(new ByteArrayInputStream(data[plane]), null);
+                            if (decoded.getWidth() != width || decoded.getHeight() != height)
+                                throw new IOException("Unexpected size of plane " + plane);
+                            planes[plane] = PixelAccess.band(decoded, 0);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        final PixelAccess.Band[] targets = PixelAccess.bands(image);
+        StripeExecutor.forEachStripe(width, height, new StripeExecutor.StripeTask() {
+            public void process(int fromRow, int toRow) {
+                int[][] rows = new int[planes.length][width];
+                for (int j = fromRow; j < toRow; j++) {
+                    for (int plane = 0; plane < planes.length; plane++) {
+                        planes[plane].getRow(j, rows[plane]);
+                    }
+                    if (transform != ColorTransform.NONE) transform.inverse(rows[0], rows[1], rows[2], width);
+                    for (int band = 0; band < targets.length; band++) {
+                        targets[band].setRow(j, rows[band]);
+                    }
+                }
+            }
+        });
+        return image;
+    }
+
+    /**
+     * Reads the compressed data of a plane. The array is grown as the data arrives, so that a corrupted length
+     * cannot make it larger than the stream.
+     */
+    private static byte[] readPlane(CodecReader reader, int length) throws IOException {
+        ByteArrayOutputStream plane = new ByteArrayOutputStream(Math.min(length, READ_CHUNK));
+        byte[] chunk = new byte[Math.min(length, READ_CHUNK)];
+        for (int done = 0; done < length; ) {
+            int size = Math.min(chunk.length, length - done);
+            reader.readFully(chunk, 0, size);
+            plane.write(chunk, 0, size);
+            done += size;
+        }
+        return plane.toByteArray();
+    }
+
+    /**
+     * Creates an image to decompress into: of the type of the image which was compressed if that is one of the
+     * predefined types, or else a byte interleaved one of the same number of bands.
+     */
+    private static BufferedImage createImage(int type, int bands, int width, int height) {
+        if (type != BufferedImage.TYPE_CUSTOM && type <= BufferedImage.TYPE_BYTE_INDEXED) {
+            BufferedImage image = new BufferedImage(width, height, type);
+            if (image.getRaster().getNumBands() == bands) return image;
+        }
+        if (bands == 3) return new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        if (bands == 4) return new BufferedImage(width, height, BufferedImage.TYPE_4BYTE_ABGR);
+        // Gray with alpha, which has no predefined type
+        ColorModel colorModel = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_GRAY), true, false,
+                Transparency.TRANSLUCENT, DataBuffer.TYPE_BYTE);
+        return new BufferedImage(colorModel, colorModel.createCompatibleWritableRaster(width, height), false, null);
+    }
+
+    /**
+     * Copies the bands of an image into gray scale planes, through the colour transform.
+     */
+    private static BufferedImage[] split(BufferedImage image, final ColorTransform transform) {
+        final int width = image.getWidth();
+        final PixelAccess.Band[] bands = PixelAccess.bands(image);
+        final BufferedImage[] planes = new BufferedImage[bands.length];
+        final byte[][] planeData = new byte[bands.length][];
+        for (int plane = 0; plane < planes.length; plane++) {
+            planes[plane] = PixelAccess.createGrayImage(width, image.getHeight());
+            planeData[plane] = PixelAccess.band(planes[plane], 0).getData();
+        }
+        StripeExecutor.forEachStripe(width, image.getHeight(), new StripeExecutor.StripeTask() {
+            public void process(int fromRow, int toRow) {
+                int[][] rows = new int[bands.length][width];
+                for (int j = fromRow; j < toRow; j++) {
+                    for (int band = 0; band < bands.length; band++) {
+                        bands[band].getRow(j, rows[band]);
+                    }
+                    if (transform != ColorTransform.NONE) transform.forward(rows[0], rows[1], rows[2], width);
+                    for (int band = 0; band < bands.length; band++) {
+                        int[] row = rows[band];
+                        byte[] data = planeData[band];
+                        for (int i = 0, index = j * width; i < width; i++) {
+                            data[index++] = (byte) row[i];
+                        }
+                    }
+                }
+            }
+        });
+        return planes;
+    }
+
+    /**
+     * @return Whether the first three bands of the image are its red, green and blue
+     */
+    private static boolean isRgb(BufferedImage image) {
+        ColorModel colorModel = image.getColorModel();
+        return colorModel.getColorSpace().getType() == ColorSpace.TYPE_RGB
+                && colorModel.getNumColorComponents() == 3;
+    }
+}
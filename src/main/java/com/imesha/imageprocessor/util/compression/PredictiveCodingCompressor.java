@@ -0,0 +1,438 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 imesha
+ */
+
+package com.imesha.imageprocessor.util.compression;
+
+import com.imesha.imageprocessor.util.PixelAccess;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Lossless predictive coder for gray scale images, after LOCO-I, the algorithm of lossless JPEG-LS. Each sample is
+ * predicted from its left, upper and upper left neighbours by the median edge detector, and the prediction error is
+ * coded with a Golomb-Rice code whose parameter adapts to one of 365 contexts, picked by the gradients around the
+ * sample. Each context also learns the bias of its predictions and corrects for it. Where the gradients are flat, the
+ * coder switches to counting runs of the left sample, so that flat areas take much less than a bit per sample.
+ * Colour images are coded as a gray scale image per band, see {@link AbstractImageCompressor}.
+ * <p>
+ * The image is coded in a single pass, row by row, keeping two rows and the context statistics, so the memory used
+ * does not depend on the height. Layout of the data following the {@link CompressionHeader}:
+ * <pre>
+ *     the codes of all samples in row major order, packed most significant bit first
+ * </pre>
+ * Samples outside the image are taken as in JPEG-LS: the row above the first is 0, the sample left of the first of a
+ * row is the one above it, and the sample above right of the last of a row is the one above it.
+ */
+public class PredictiveCodingCompressor extends AbstractImageCompressor {
+
+    static final int VERSION = 1;
+
+    /**
+     * Creates a compressor which applies {@link ColorTransform#YCOCG_R} to colour images.
+     */
+    public PredictiveCodingCompressor() {
+    }
+
+    /**
+     * @param colorTransform The transform applied to the red, green and blue bands of colour images
+     */
+    public PredictiveCodingCompressor(ColorTransform colorTransform) {
+        super(colorTransform);
+    }
+
+    protected int getVersion() {
+        return VERSION;
+    }
+
+    /**
+     * Compresses the image in a single pass.
+     *
+     * @param originalImage The image to be compressed
+     * @param out           The stream to which the compressed image is written
+     */
+    protected void encode(BufferedImage originalImage, OutputStream out) throws IOException {
+        int width = originalImage.getWidth();
+        int height = originalImage.getHeight();
+        PixelAccess.Band band = PixelAccess.band(originalImage, 0);
+
+        CodecWriter writer = new CodecWriter(out);
+        new CompressionHeader(CodecRegistry.PREDICTIVE_CODING, VERSION, width, height).write(writer);
+        BitWriter bitWriter = new BitWriter(writer);
+        Coder coder = new Coder(width);
+        int[] row = new int[width];
+        for (int j = 0; j < height; j++) {
+            coder.encodeRow(band.getRow(j, row), bitWriter);
+        }
+        bitWriter.flush();
+        writer.flush();
+    }
+
+    /**
+     * Decompresses an image which was compressed by this compressor.
+     *
+     * @param in          The stream positioned at the start of the compressed image
+     * @param destination The TYPE_BYTE_GRAY image to decompress into, or null to create a new one
+     * @return The decompressed image
+     * @throws IOException If reading fails or the data is not a valid predictive coded image
+     */
+    protected BufferedImage decode(InputStream in, BufferedImage destination) throws IOException {
+        CodecReader reader = new CodecReader(in);
+        CompressionHeader header = CompressionHeader.read(reader, CodecRegistry.PREDICTIVE_CODING, VERSION);
+        int width = header.getWidth();
+        int height = header.getHeight();
+        BufferedImage image = PixelAccess.grayDestination(destination, width, height);
+        PixelAccess.Band band = PixelAccess.band(image, 0);
+        BitReader bitReader = new BitReader(reader);
+        Coder coder = new Coder(width);
+        int[] row = new int[width];
+        for (int j = 0; j < height; j++) {
+            band.setRow(j, coder.decodeRow(bitReader, row));
+        }
+        return image;
+    }
+
+    /**
+     * The state of the coder, the same on both sides: the previous and current rows and the statistics of the
+     * contexts. Every step of the decoder mirrors one of the encoder, so that both learn the same from each sample.
+     */
+    private static final class Coder {
+        private static final int MAX_VALUE = 255;
+        private static final int RANGE = 256;
+        private static final int SAMPLE_BITS = 8;
+        // The longest code, in bits, longer ones being escaped
+        private static final int LIMIT = 32;
+        // The statistics are halved once a context has seen this many samples, to follow changes in the image
+        private static final int RESET = 64;
+        private static final int MIN_CORRECTION = -128;
+        private static final int MAX_CORRECTION = 127;
+        // Contexts 1 - 364 code the samples predicted by the edge detector, 365 and 366 those ending a run
+        private static final int CONTEXTS = 367;
+        private static final int RUN_CONTEXT = 365;
+        // The order of the run lengths coded by a single bit, which grows and shrinks with the runs
+        private static final int[] RUN_ORDERS = {0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 4, 4, 5, 5, 6, 6, 7, 7,
+                8, 9, 10, 11, 12, 13, 14, 15};
+        // The gradients between neighbours, from -255 to 255, quantized to -4 - 4 at the thresholds 3, 7 and 21
+        private static final int[] GRADIENTS = new int[2 * MAX_VALUE + 1];
+
+        static {
+            for (int d = -MAX_VALUE; d <= MAX_VALUE; d++) {
+                int magnitude = Math.abs(d);
+                int level = magnitude == 0 ? 0 : magnitude < 3 ? 1 : magnitude < 7 ? 2 : magnitude < 21 ? 3 : 4;
+                GRADIENTS[d + MAX_VALUE] = d < 0 ? -level : level;
+            }
+        }
+
+        private final int width;
+        // The sum of the magnitudes and of the values of the errors, the bias correction and the sample count
+        private final int[] errorMagnitudes = new int[CONTEXTS];
+        private final int[] errorSums = new int[CONTEXTS];
+        private final int[] corrections = new int[CONTEXTS];
+        private final int[] counts = new int[CONTEXTS];
+        // The negative errors of the two contexts ending a run
+        private final int[] negativeCounts = new int[2];
+        private int runIndex;
+        // Sample x of a row is at x + 1, with the samples left and right of the row at 0 and width + 1
+        private int[] previous;
+        private int[] current;
+
+        Coder(int width) {
+            this.width = width;
+            this.previous = new int[width + 2];
+            this.current = new int[width + 2];
+            for (int q = 0; q < CONTEXTS; q++) {
+                errorMagnitudes[q] = Math.max(2, (RANGE + 32) / 64);
+                counts[q] = 1;
+            }
+        }
+
+        void encodeRow(int[] samples, BitWriter out) throws IOException {
+            startRow();
+            int x = 0;
+            while (x < width) {
+                int q = getContext(x);
+                if (q == 0) {
+                    x = encodeRun(samples, x, out);
+                    continue;
+                }
+                int sign = q < 0 ? -1 : 1;
+                q *= sign;
+                int prediction = predict(q, sign, current[x], previous[x + 1], previous[x]);
+                int error = reduce(sign * (samples[x] - prediction));
+                int k = getGolombParameter(q, errorMagnitudes[q]);
+                int mapped;
+                if (k == 0 && 2 * errorSums[q] <= -counts[q]) mapped = error >= 0 ? 2 * error + 1 : -2 * (error + 1);
+                else mapped = error >= 0 ? 2 * error : -2 * error - 1;
+                writeGolomb(mapped, k, LIMIT, out);
+                update(q, error);
+                current[x + 1] = samples[x];
+                x++;
+            }
+            endRow();
+        }
+
+        /**
+         * @param row The array to be filled, at least as long as the width
+         * @return The given array
+         */
+        int[] decodeRow(BitReader in, int[] row) throws IOException {
+            startRow();
+            int x = 0;
+            while (x < width) {
+                int q = getContext(x);
+                if (q == 0) {
+                    x = decodeRun(x, in);
+                    continue;
+                }
+                int sign = q < 0 ? -1 : 1;
+                q *= sign;
+                int prediction = predict(q, sign, current[x], previous[x + 1], previous[x]);
+                int k = getGolombParameter(q, errorMagnitudes[q]);
+                int mapped = readGolomb(k, LIMIT, in);
+                int error;
+                if (k == 0 && 2 * errorSums[q] <= -counts[q]) {
+                    error = (mapped & 1) != 0 ? mapped >> 1 : -(mapped >> 1) - 1;
+                } else {
+                    error = (mapped & 1) == 0 ? mapped >> 1 : -((mapped + 1) >> 1);
+                }
+                update(q, error);
+                current[x + 1] = (prediction + sign * error) & MAX_VALUE;
+                x++;
+            }
+            System.arraycopy(current, 1, row, 0, width);
+            endRow();
+            return row;
+        }
+
+        private void startRow() {
+            current[0] = previous[1];
+            previous[width + 1] = previous[width];
+        }
+
+        private void endRow() {
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+
+        /**
+         * @return The context of sample x from the gradients around it, negative when they are mirrored, 0 when they
+         * are all flat
+         */
+        private int getContext(int x) {
+            int left = current[x];
+            int above = previous[x + 1];
+            int aboveLeft = previous[x];
+            int aboveRight = previous[x + 2];
+            return 81 * GRADIENTS[aboveRight - above + MAX_VALUE] + 9 * GRADIENTS[above - aboveLeft + MAX_VALUE]
+                    + GRADIENTS[aboveLeft - left + MAX_VALUE];
+        }
+
+        /**
+         * Predicts a sample with the median edge detector: the smaller of the left and upper samples below a
+         * horizontal or vertical edge, the larger above one, and the plane through the three neighbours elsewhere.
+         * The bias of the context is then taken off.
+         */
+        private int predict(int q, int sign, int left, int above, int aboveLeft) {
+            int prediction;
+            if (aboveLeft >= Math.max(left, above)) prediction = Math.min(left, above);
+            else if (aboveLeft <= Math.min(left, above)) prediction = Math.max(left, above);
+            else prediction = left + above - aboveLeft;
+            prediction += sign * corrections[q];
+            return prediction < 0 ? 0 : prediction > MAX_VALUE ? MAX_VALUE : prediction;
+        }
+
+        /**
+         * @return The error modulo the range, from -128 to 127
+         */
+        private static int reduce(int error) {
+            if (error < 0) error += RANGE;
+            return error >= (RANGE + 1) / 2 ? error - RANGE : error;
+        }
+
+        private int getGolombParameter(int q, int magnitudes) {
+            int k = 0;
+            while ((counts[q] << k) < magnitudes) {
+                k++;
+            }
+            return k;
+        }
+
+        private void update(int q, int error) {
+            errorSums[q] += error;
+            errorMagnitudes[q] += Math.abs(error);
+            if (counts[q] == RESET) {
+                errorMagnitudes[q] >>= 1;
+                errorSums[q] = errorSums[q] >= 0 ? errorSums[q] >> 1 : -((1 - errorSums[q]) >> 1);
+                counts[q] >>= 1;
+            }
+            counts[q]++;
+            // Keep the mean error between -1 and 0 by moving the correction
+            if (errorSums[q] <= -counts[q]) {
+                errorSums[q] += counts[q];
+                if (corrections[q] > MIN_CORRECTION) corrections[q]--;
+                if (errorSums[q] <= -counts[q]) errorSums[q] = -counts[q] + 1;
+            } else if (errorSums[q] > 0) {
+                errorSums[q] -= counts[q];
+                if (corrections[q] < MAX_CORRECTION) corrections[q]++;
+                if (errorSums[q] > 0) errorSums[q] = 0;
+            }
+        }
+
+        /**
+         * Codes the run of samples equal to the left one, starting at sample x, and the sample which ends it unless
+         * the row does. A 1 bit stands for a run of 2 ^ order samples, and a 0 bit ends the run, followed by the
+         * samples left in order bits.
+         *
+         * @return The sample after the run
+         */
+        private int encodeRun(int[] samples, int x, BitWriter out) throws IOException {
+            int value = current[x];
+            int start = x;
+            while (x < width && samples[x] == value) {
+                current[++x] = value;
+            }
+            int length = x - start;
+            while (length >= 1 << RUN_ORDERS[runIndex]) {
+                out.write(1, 1);
+                length -= 1 << RUN_ORDERS[runIndex];
+                if (runIndex < RUN_ORDERS.length - 1) runIndex++;
+            }
+            if (x == width) {
+                if (length > 0) out.write(1, 1);
+                return x;
+            }
+            // The 0 bit, then the length
+            out.write(length, RUN_ORDERS[runIndex] + 1);
+            int ending = samples[x];
+            int riType = value == previous[x + 1] ? 1 : 0;
+            int error = reduce(getRunEndSign(riType, value, previous[x + 1]) * (ending - (riType == 1 ? value
+                    : previous[x + 1])));
+            int q = RUN_CONTEXT + riType;
+            int k = getGolombParameter(q, getRunEndMagnitudes(riType));
+            int mapped = 2 * Math.abs(error) - riType - getRunEndMap(riType, k, error);
+            writeGolomb(mapped, k, LIMIT - RUN_ORDERS[runIndex] - 1, out);
+            updateRunEnd(riType, error, mapped);
+            current[x + 1] = ending;
+            if (runIndex > 0) runIndex--;
+            return x + 1;
+        }
+
+        private int decodeRun(int x, BitReader in) throws IOException {
+            int value = current[x];
+            while (x < width) {
+                if (in.read(1) == 0) break;
+                int length = 1 << RUN_ORDERS[runIndex];
+                if (width - x >= length) {
+                    if (runIndex < RUN_ORDERS.length - 1) runIndex++;
+                } else {
+                    length = width - x;
+                }
+                for (int end = x + length; x < end; ) {
+                    current[++x] = value;
+                }
+            }
+            if (x == width) return x;
+            int length = in.read(RUN_ORDERS[runIndex]);
+            if (length >= width - x) throw new IOException("Invalid run length " + length);
+            for (int end = x + length; x < end; ) {
+                current[++x] = value;
+            }
+            int riType = value == previous[x + 1] ? 1 : 0;
+            int q = RUN_CONTEXT + riType;
+            int k = getGolombParameter(q, getRunEndMagnitudes(riType));
+            int mapped = readGolomb(k, LIMIT - RUN_ORDERS[runIndex] - 1, in);
+            int sum = mapped + riType;
+            int map = sum & 1;
+            int magnitude = (sum + map) >> 1;
+            boolean positive = k == 0 && 2 * negativeCounts[riType] < counts[q] ? map == 1 : map == 0;
+            int error = positive ? magnitude : -magnitude;
+            updateRunEnd(riType, error, mapped);
+            int prediction = riType == 1 ? value : previous[x + 1];
+            current[x + 1] = (prediction + getRunEndSign(riType, value, previous[x + 1]) * error) & MAX_VALUE;
+            if (runIndex > 0) runIndex--;
+            return x + 1;
+        }
+
+        /**
+         * The sample ending a run is predicted by the left one if the left and upper ones are equal (type 1), by the
+         * upper one otherwise (type 0).
+         */
+        private static int getRunEndSign(int riType, int left, int above) {
+            return riType == 0 && left > above ? -1 : 1;
+        }
+
+        private int getRunEndMagnitudes(int riType) {
+            int q = RUN_CONTEXT + riType;
+            return riType == 0 ? errorMagnitudes[q] : errorMagnitudes[q] + (counts[q] >> 1);
+        }
+
+        /**
+         * @return 1 if the error is mapped to the odd code of its magnitude, which is the sign that is less likely
+         * in the context
+         */
+        private int getRunEndMap(int riType, int k, int error) {
+            int q = RUN_CONTEXT + riType;
+            if (k == 0 && error > 0 && 2 * negativeCounts[riType] < counts[q]) return 1;
+            if (error < 0 && 2 * negativeCounts[riType] >= counts[q]) return 1;
+            return error < 0 && k != 0 ? 1 : 0;
+        }
+
+        private void updateRunEnd(int riType, int error, int mapped) {
+            int q = RUN_CONTEXT + riType;
+            if (error < 0) negativeCounts[riType]++;
+            errorMagnitudes[q] += (mapped + 1 - riType) >> 1;
+            if (counts[q] == RESET) {
+                errorMagnitudes[q] >>= 1;
+                counts[q] >>= 1;
+                negativeCounts[riType] >>= 1;
+            }
+            counts[q]++;
+        }
+
+        /**
+         * Writes a Golomb-Rice code of parameter k: the value divided by 2 ^ k in unary, as 0 bits ended by a 1 bit,
+         * then the remainder in k bits. Values whose code would be longer than the limit are written as the longest
+         * run of 0 bits allowed and the value less 1 in 8 bits.
+         */
+        private static void writeGolomb(int value, int k, int limit, BitWriter out) throws IOException {
+            int quotient = value >>> k;
+            int maxQuotient = limit - SAMPLE_BITS - 1;
+            if (quotient < maxQuotient) {
+                // The 1 bit ending the quotient and the remainder, in one go if they fit
+                if (quotient + 1 + k <= 32) {
+                    out.write(1 << k | (value & ((1 << k) - 1)), quotient + 1 + k);
+                } else {
+                    out.write(1, quotient + 1);
+                    out.write(value, k);
+                }
+            } else {
+                out.write(1, maxQuotient + 1);
+                out.write(value - 1, SAMPLE_BITS);
+            }
+        }
+
+        private static int readGolomb(int k, int limit, BitReader in) throws IOException {
+            int maxQuotient = limit - SAMPLE_BITS - 1;
+            int window = in.peek(32);
+            int quotient = Integer.numberOfLeadingZeros(window);
+            if (quotient > maxQuotient) throw new IOException("Invalid Golomb code");
+            if (quotient == maxQuotient) {
+                in.skip(quotient + 1);
+                return in.read(SAMPLE_BITS) + 1;
+            }
+            int length = quotient + 1 + k;
+            if (length > 32) {
+                in.skip(quotient + 1);
+                return quotient << k | in.read(k);
+            }
+            // The remainder is in the bits already looked at
+            in.skip(length);
+            return quotient << k | (int) (((long) window << length >>> 32) & ((1L << k) - 1));
+        }
+    }
+}
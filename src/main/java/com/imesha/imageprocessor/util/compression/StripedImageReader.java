@@ -0,0 +1,89 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 imesha
+ */
+
+package com.imesha.imageprocessor.util.compression;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads an image written by {@link StripedImageWriter}, one strip at a time.
+ */
+public class StripedImageReader {
+    private final CodecReader reader;
+    private final ImageCompressor compressor;
+    private final int width;
+    private final int height;
+    private final int stripHeight;
+    private int rowsRead;
+
+    /**
+     * Reads the header of the striped image.
+     *
+     * @param in         The stream positioned at the start of the striped image. It is not closed.
+     * @param compressor The compressor which compressed the strips
+     */
+    public StripedImageReader(InputStream in, ImageCompressor compressor) throws IOException {
+        this.reader = new CodecReader(in);
+        this.compressor = compressor;
+        if (reader.readByte() != 'I' || reader.readByte() != 'P' || reader.readByte() != 'S')
+            throw new IOException("Not a striped image");
+        int version = reader.readByte();
+        if (version != StripedImageWriter.VERSION)
+            throw new IOException("Unsupported striped image version " + version);
+        this.width = reader.readVarInt();
+        this.height = reader.readVarInt();
+        this.stripHeight = reader.readVarInt();
+        if (width <= 0 || height <= 0) throw new IOException("Invalid image size " + width + "x" + height);
+        if (stripHeight <= 0) throw new IOException("Invalid strip height " + stripHeight);
+    }
+
+    /**
+     * @return true if there are strips left to be read
+     */
+    public boolean hasNextStrip() {
+        return rowsRead < height;
+    }
+
+    /**
+     * @return The row of the image at which the next strip starts
+     */
+    public int getNextStripY() {
+        return rowsRead;
+    }
+
+    /**
+     * Reads and decompresses the next strip.
+     *
+     * @return The strip
+     * @throws IOException If there are no strips left, or the data is corrupted
+     */
+    public BufferedImage readStrip() throws IOException {
+        if (!hasNextStrip()) throw new IOException("No strips left");
+        int length = reader.readVarInt();
+        if (length < 0) throw new IOException("Invalid strip length " + length);
+        byte[] data = new byte[length];
+        reader.readFully(data);
+        BufferedImage strip = compressor.decompress(new ByteArrayInputStream(data));
+        if (strip.getWidth() != width || strip.getHeight() != Math.min(stripHeight, height - rowsRead))
+            throw new IOException("Unexpected strip size " + strip.getWidth() + "x" + strip.getHeight());
+        rowsRead += strip.getHeight();
+        return strip;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getStripHeight() {
+        return stripHeight;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 imesha
+ */
+
+package com.imesha.imageprocessor.util.compression;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes an image as a sequence of horizontal strips, each compressed on its own, so that an image can be compressed
+ * without ever having all of it in memory. Layout:
+ * <pre>
+ *     'I' 'P' 'S' | version (1 byte) | width (varint) | height (varint) | strip height (varint)
+ *     for each strip, from the top: length (varint) | compressed strip
+ * </pre>
+ * Every strip is as high as the strip height, except the last one which holds whatever rows are left.
+ * Read it back with {@link StripedImageReader}.
+ */
+public class StripedImageWriter {
+    static final int VERSION = 1;
+
+    private final CodecWriter writer;
+    private final ImageCompressor compressor;
+    private final int width;
+    private final int height;
+    private final int stripHeight;
+    private final ByteArrayOutputStream stripBuffer = new ByteArrayOutputStream();
+    private int rowsWritten;
+
+    /**
+     * Writes the header of the striped image.
+     *
+     * @param out         The stream to which the image is written. It is flushed, but not closed.
+     * @param compressor  The compressor for the strips
+     * @param width       The width of the image
+     * @param height      The height of the image
+     * @param stripHeight The number of rows in each strip
+     */
+    public StripedImageWriter(OutputStream out, ImageCompressor compressor, int width, int height, int stripHeight)
+            throws IOException {
+        if (stripHeight <= 0) throw new IllegalArgumentException("Strip height must be positive: " + stripHeight);
+        this.writer = new CodecWriter(out);
+        this.compressor = compressor;
+        this.width = width;
+        this.height = height;
+        this.stripHeight = stripHeight;
+
+        writer.writeByte('I');
+        writer.writeByte('P');
+        writer.writeByte('S');
+        writer.writeByte(VERSION);
+        writer.writeVarInt(width);
+        writer.writeVarInt(height);
+        writer.writeVarInt(stripHeight);
+    }
+
+    /**
+     * Compresses and writes the next strip. Only the compressed form of this one strip is buffered.
+     *
+     * @param strip The strip, which must be as wide as the image and as high as the strip height (or the rows
+     *              left, for the last strip)
+     */
+    public void writeStrip(BufferedImage strip) throws IOException {
+        int expectedHeight = Math.min(stripHeight, height - rowsWritten);
+        if (strip.getWidth() != width || strip.getHeight() != expectedHeight)
+            throw new IllegalArgumentException("Expected a " + width + "x" + expectedHeight + " strip, got "
+                    + strip.getWidth() + "x" + strip.getHeight());
+        stripBuffer.reset();
+        compressor.compress(strip, stripBuffer);
+        writer.writeVarInt(stripBuffer.size());
+        writer.write(stripBuffer.toByteArray(), 0, stripBuffer.size());
+        rowsWritten += strip.getHeight();
+    }
+
+    /**
+     * Flushes the image to the stream.
+     *
+     * @throws IllegalStateException If not all the strips have been written
+     */
+    public void finish() throws IOException {
+        if (rowsWritten != height)
+            throw new IllegalStateException("Only " + rowsWritten + " of " + height + " rows have been written");
+        writer.flush();
+    }
+}
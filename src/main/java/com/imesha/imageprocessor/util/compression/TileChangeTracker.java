@@ -0,0 +1,82 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 imesha
+ */
+
+package com.imesha.imageprocessor.util.compression;
+
+import java.util.BitSet;
+
+/**
+ * Keeps track of the tiles of an image which have been edited since it was last saved, from the regions the editing
+ * code marks as changed. The tiles are numbered row by row from the top left, as in {@link TiledImageWriter}, and
+ * given to {@link TiledImageUpdater#update(java.awt.image.BufferedImage, BitSet)} so that only they are looked at.
+ * Thread safe.
+ */
+public class TileChangeTracker {
+    private final int width;
+    private final int height;
+    private final int tileWidth;
+    private final int tileHeight;
+    private final int tilesAcross;
+    private final BitSet dirtyTiles = new BitSet();
+
+    /**
+     * Tracks the tiles of the image being updated.
+     */
+    public TileChangeTracker(TiledImageUpdater updater) {
+        this(updater.getWidth(), updater.getHeight(), updater.getTileWidth(), updater.getTileHeight());
+    }
+
+    public TileChangeTracker(int width, int height, int tileWidth, int tileHeight) {
+        if (width <= 0 || height <= 0)
+            throw new IllegalArgumentException("Size must be positive: " + width + "x" + height);
+        if (tileWidth <= 0 || tileHeight <= 0)
+            throw new IllegalArgumentException("Tile size must be positive: " + tileWidth + "x" + tileHeight);
+        this.width = width;
+        this.height = height;
+        this.tileWidth = tileWidth;
+        this.tileHeight = tileHeight;
+        this.tilesAcross = (width + tileWidth - 1) / tileWidth;
+    }
+
+    /**
+     * Marks the tiles covering a region as changed. The parts of the region outside the image are left out.
+     */
+    public synchronized void markDirty(int x, int y, int width, int height) {
+        int left = Math.max(0, x);
+        int top = Math.max(0, y);
+        int right = (int) Math.min(this.width, (long) x + width);
+        int bottom = (int) Math.min(this.height, (long) y + height);
+        if (left >= right || top >= bottom) return;
+        int firstTileX = left / tileWidth;
+        int lastTileX = (right - 1) / tileWidth;
+        for (int tileY = top / tileHeight; tileY <= (bottom - 1) / tileHeight; tileY++) {
+            dirtyTiles.set(tileY * tilesAcross + firstTileX, tileY * tilesAcross + lastTileX + 1);
+        }
+    }
+
+    /**
+     * Marks the given tiles as changed, eg: to put back what {@link #takeDirtyTiles()} gave when saving them failed.
+     */
+    public synchronized void markDirty(BitSet tiles) {
+        dirtyTiles.or(tiles);
+    }
+
+    public synchronized void markAllDirty() {
+        dirtyTiles.set(0, tilesAcross * ((height + tileHeight - 1) / tileHeight));
+    }
+
+    public synchronized boolean isDirty() {
+        return !dirtyTiles.isEmpty();
+    }
+
+    /**
+     * @return The tiles marked as changed, which are no longer marked
+     */
+    public synchronized BitSet takeDirtyTiles() {
+        BitSet tiles = (BitSet) dirtyTiles.clone();
+        dirtyTiles.clear();
+        return tiles;
+    }
+}
@@ -0,0 +1,356 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 imesha
+ */
+
+package com.imesha.imageprocessor.util.compression;
+
+import com.imesha.imageprocessor.util.OffHeapRaster;
+import com.imesha.imageprocessor.util.PixelAccess;
+import com.imesha.imageprocessor.util.StripeExecutor;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads regions of an image written by {@link TiledImageWriter}. The file is memory mapped, and only the index
+ * entries and tiles which a region covers are read, so reading a small region of a large image takes about as long
+ * as decoding a few tiles. A reader can be used by several threads at once.
+ * <p>
+ * The image is read as of the last save which was completed. The bytes of a save by {@link TiledImageUpdater} which
+ * was cut short, eg: by a crash, are passed over.
+ */
+public class TiledImageReader implements Closeable {
+    // A single mapping is limited to 2 GB, so larger files are mapped in segments
+    private static final long SEGMENT_SIZE = 1L << 30;
+    // The most the header can take up: 4 bytes and 4 varints
+    private static final int MAX_HEADER_SIZE = 4 + 4 * 5;
+    private static final int TRAILER_SIZE = 8 + TiledImageWriter.END_MAGIC.length;
+    private static final int SEARCH_BUFFER_SIZE = 1 << 16;
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer[] segments;
+    private final long size;
+    private final ImageCompressor compressor;
+    private final int width;
+    private final int height;
+    private final int tileWidth;
+    private final int tileHeight;
+    private final int tilesAcross;
+    private final int tilesDown;
+    private final int version;
+    private final long indexOffset;
+
+    /**
+     * Opens a tiled image and reads its header.
+     *
+     * @param file       The file holding the tiled image
+     * @param compressor The compressor which compressed the tiles
+     * @throws IOException If the file cannot be read, or is not a tiled image
+     */
+    public TiledImageReader(File file, ImageCompressor compressor) throws IOException {
+        this.file = new RandomAccessFile(file, "r");
+        this.compressor = compressor;
+        try {
+            FileChannel channel = this.file.getChannel();
+            this.size = channel.size();
+            this.segments = new MappedByteBuffer[(int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+            for (int i = 0; i < segments.length; i++) {
+                long start = i * SEGMENT_SIZE;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, size - start));
+            }
+
+            byte[] headerBytes = new byte[(int) Math.min(MAX_HEADER_SIZE, size)];
+            read(0, headerBytes);
+            CodecReader header = new CodecReader(new ByteArrayInputStream(headerBytes));
+            if (header.readByte() != 'I' || header.readByte() != 'P' || header.readByte() != 'T')
+                throw new IOException("Not a tiled image");
+            this.version = header.readByte();
+            if (version < 1 || version > TiledImageWriter.VERSION)
+                throw new IOException("Unsupported tiled image version " + version);
+            this.width = header.readVarInt();
+            this.height = header.readVarInt();
+            this.tileWidth = header.readVarInt();
+            this.tileHeight = header.readVarInt();
+            if (width <= 0 || height <= 0 || tileWidth <= 0 || tileHeight <= 0)
+                throw new IOException("Corrupted tiled image: invalid size");
+            this.tilesAcross = (width + tileWidth - 1) / tileWidth;
+            this.tilesDown = (height + tileHeight - 1) / tileHeight;
+
+            long tiles = (long) tilesAcross * tilesDown;
+            long indexSize = version == 1 ? 8 * (tiles + 1) : TiledImageWriter.INDEX_ENTRY_SIZE * tiles;
+            long end = findEnd(this.file, indexSize);
+            if (end < 0) throw new IOException("Corrupted tiled image: no index");
+            this.indexOffset = end - TRAILER_SIZE - indexSize;
+        } catch (IOException e) {
+            this.file.close();
+            throw e;
+        } catch (RuntimeException e) {
+            this.file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Finds where the last completed save of a tiled image ends. That is the end of the file, unless a save was cut
+     * short before it wrote its trailer, which is the last thing a save writes. The trailer of the save before it is
+     * then looked for backwards from the end of the file: it is the last one which follows an index of the right
+     * size.
+     *
+     * @param file      The file holding the tiled image
+     * @param indexSize The size of the index, without the trailer
+     * @return The length of the file up to the end of the trailer, or -1 if there is no trailer
+     */
+    static long findEnd(RandomAccessFile file, long indexSize) throws IOException {
+        byte[] magic = TiledImageWriter.END_MAGIC;
+        byte[] buffer = new byte[SEARCH_BUFFER_SIZE];
+        long windowEnd = file.length();
+        while (windowEnd >= TRAILER_SIZE + indexSize) {
+            long windowStart = Math.max(0, windowEnd - buffer.length);
+            int length = (int) (windowEnd - windowStart);
+            file.seek(windowStart);
+            file.readFully(buffer, 0, length);
+            for (int i = length - magic.length; i >= 0; i--) {
+                if (!startsWith(buffer, i, magic)) continue;
+                long trailer = windowStart + i - 8;
+                if (trailer < indexSize) continue;
+                file.seek(trailer);
+                long indexOffset = file.readLong();
+                if (indexOffset >= 0 && indexOffset + indexSize == trailer) return trailer + TRAILER_SIZE;
+            }
+            if (windowStart == 0) break;
+            // Overlap the windows, so that a magic across two of them is found
+            windowEnd = windowStart + magic.length - 1;
+        }
+        return -1;
+    }
+
+    private static boolean startsWith(byte[] bytes, int offset, byte[] prefix) {
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes[offset + i] != prefix[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Decompresses one tile.
+     *
+     * @param tileX The column of the tile, from the left
+     * @param tileY The row of the tile, from the top
+     * @return The tile
+     * @throws IOException If the tile is corrupted
+     */
+    public BufferedImage readTile(int tileX, int tileY) throws IOException {
+        if (tileX < 0 || tileY < 0 || tileX >= tilesAcross || tileY >= tilesDown)
+            throw new IllegalArgumentException("No tile at " + tileX + ", " + tileY);
+        int tile = tileY * tilesAcross + tileX;
+        long entry = indexOffset + (version == 1 ? 8L : TiledImageWriter.INDEX_ENTRY_SIZE) * tile;
+        long start = readLong(entry);
+        long end = readLong(entry + 8);
+        if (start < 0 || end < start || end > indexOffset || end - start > Integer.MAX_VALUE)
+            throw new IOException("Corrupted tiled image: invalid offsets of tile " + tileX + ", " + tileY);
+        byte[] data = new byte[(int) (end - start)];
+        read(start, data);
+        BufferedImage image = compressor.decompress(new ByteArrayInputStream(data));
+        if (image.getWidth() != Math.min(tileWidth, width - tileX * tileWidth)
+                || image.getHeight() != Math.min(tileHeight, height - tileY * tileHeight))
+            throw new IOException("Corrupted tiled image: unexpected size of tile " + tileX + ", " + tileY);
+        return image;
+    }
+
+    /**
+     * Decompresses a region of the image from the tiles it covers, in parallel on the {@link StripeExecutor}.
+     *
+     * @param x      The left edge of the region
+     * @param y      The top edge of the region
+     * @param width  The width of the region
+     * @param height The height of the region
+     * @return An image of the region, of the type the tiles decompress to, eg: TYPE_BYTE_GRAY for gray scale tiles
+     * @throws IOException If a tile is corrupted, or does not have the number of bands of the others
+     */
+    public BufferedImage readRegion(final int x, final int y, int width, int height) throws IOException {
+        if (x < 0 || y < 0 || width <= 0 || height <= 0 || x + width > this.width || y + height > this.height)
+            throw new IllegalArgumentException("Region " + width + "x" + height + " at " + x + ", " + y
+                    + " is not within the " + this.width + "x" + this.height + " image");
+        final int firstTileX = x / tileWidth;
+        final int firstTileY = y / tileHeight;
+        final int regionTilesAcross = (x + width - 1) / tileWidth - firstTileX + 1;
+        int regionTilesDown = (y + height - 1) / tileHeight - firstTileY + 1;
+        // The first tile tells what kind of image the region is
+        final BufferedImage firstTile = readTile(firstTileX, firstTileY);
+        final BufferedImage region = PixelAccess.compatibleDestination(firstTile, null, width, height);
+        final PixelAccess.Band[] targets = PixelAccess.bands(region);
+        try {
+            // Each tile counts as a row of as many pixels as it holds
+            StripeExecutor.forEachStripe(tileWidth * tileHeight, regionTilesAcross * regionTilesDown,
+                    new StripeExecutor.StripeTask() {
+                        public void process(int fromTile, int toTile) {
+                            for (int tile = fromTile; tile < toTile; tile++) {
+                                int tileX = firstTileX + tile % regionTilesAcross;
+                                int tileY = firstTileY + tile / regionTilesAcross;
+                                try {
+                                    BufferedImage image = tile == 0 ? firstTile : readTile(tileX, tileY);
+                                    if (image.getRaster().getNumBands() != targets.length)
+                                        throw new IOException("Tile " + tileX + ", " + tileY + " has "
+                                                + image.getRaster().getNumBands() + " bands, the image "
+                                                + targets.length);
+                                    copy(image, tileX * tileWidth, tileY * tileHeight, targets, x, y);
+                                } catch (IOException e) {
+                                    throw new UncheckedIOException(e);
+                                }
+                            }
+                        }
+                    });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return region;
+    }
+
+    /**
+     * @return The whole image
+     */
+    public BufferedImage readImage() throws IOException {
+        return readRegion(0, 0, width, height);
+    }
+
+    /**
+     * Decompresses the whole image into a raster, which may be larger than any {@link BufferedImage}. Every band of
+     * the tiles is copied, in parallel on the {@link StripeExecutor}.
+     *
+     * @param destination A raster as large as the image, with as many bands as its tiles
+     * @throws IOException If a tile is corrupted or does not have the number of bands of the raster
+     */
+    public void readImage(final OffHeapRaster destination) throws IOException {
+        if (destination.getWidth() != width || destination.getHeight() != height)
+            throw new IllegalArgumentException("Expected a " + width + "x" + height + " raster, got "
+                    + destination.getWidth() + "x" + destination.getHeight());
+        try {
+            // Each tile counts as a row of as many pixels as it holds
+            StripeExecutor.forEachStripe(tileWidth * tileHeight, tilesAcross * tilesDown,
+                    new StripeExecutor.StripeTask() {
+                        public void process(int fromTile, int toTile) {
+                            for (int tile = fromTile; tile < toTile; tile++) {
+                                int tileX = tile % tilesAcross;
+                                int tileY = tile / tilesAcross;
+                                try {
+                                    BufferedImage image = readTile(tileX, tileY);
+                                    if (image.getRaster().getNumBands() != destination.getNumBands())
+                                        throw new IOException("Tile " + tileX + ", " + tileY + " has "
+                                                + image.getRaster().getNumBands() + " bands, the raster "
+                                                + destination.getNumBands());
+                                    copy(image, tileX * tileWidth, tileY * tileHeight, destination);
+                                } catch (IOException e) {
+                                    throw new UncheckedIOException(e);
+                                }
+                            }
+                        }
+                    });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Copies every band of a tile into a raster.
+     */
+    private static void copy(BufferedImage tile, int tileLeft, int tileTop, OffHeapRaster raster) {
+        PixelAccess.Band[] bands = PixelAccess.bands(tile);
+        int[] row = new int[tile.getWidth()];
+        for (int band = 0; band < bands.length; band++) {
+            for (int y = 0; y < tile.getHeight(); y++) {
+                raster.setRow(tileLeft, tileTop + y, row.length, band, bands[band].getRow(y, row));
+            }
+        }
+    }
+
+    /**
+     * Copies every band of the part of a tile which lies within a region.
+     */
+    private static void copy(BufferedImage tile, int tileLeft, int tileTop, PixelAccess.Band[] region,
+                             int regionLeft, int regionTop) {
+        PixelAccess.Band[] sources = PixelAccess.bands(tile);
+        int left = Math.max(tileLeft, regionLeft);
+        int right = Math.min(tileLeft + tile.getWidth(), regionLeft + region[0].getWidth());
+        int top = Math.max(tileTop, regionTop);
+        int bottom = Math.min(tileTop + tile.getHeight(), regionTop + region[0].getHeight());
+        for (int band = 0; band < sources.length; band++) {
+            PixelAccess.Band source = sources[band];
+            PixelAccess.Band target = region[band];
+            boolean contiguous = source.isDirect() && source.getPixelStride() == 1
+                    && target.isDirect() && target.getPixelStride() == 1;
+            for (int y = top; y < bottom; y++) {
+                if (contiguous) {
+                    System.arraycopy(source.getData(), source.index(left - tileLeft, y - tileTop), target.getData(),
+                            target.index(left - regionLeft, y - regionTop), right - left);
+                } else {
+                    for (int x = left; x < right; x++) {
+                        target.setSample(x - regionLeft, y - regionTop, source.getSample(x - tileLeft, y - tileTop));
+                    }
+                }
+            }
+        }
+    }
+
+    private void read(long position, byte[] bytes) {
+        int done = 0;
+        while (done < bytes.length) {
+            long at = position + done;
+            // A view of its own, so that threads do not share the position of the segment
+            ByteBuffer segment = segments[(int) (at / SEGMENT_SIZE)].duplicate();
+            segment.position((int) (at % SEGMENT_SIZE));
+            int length = Math.min(bytes.length - done, segment.remaining());
+            segment.get(bytes, done, length);
+            done += length;
+        }
+    }
+
+    private long readLong(long position) {
+        byte[] bytes = new byte[8];
+        read(position, bytes);
+        long value = 0;
+        for (byte b : bytes) {
+            value = value << 8 | (b & 0xFF);
+        }
+        return value;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getTileWidth() {
+        return tileWidth;
+    }
+
+    public int getTileHeight() {
+        return tileHeight;
+    }
+
+    public int getTilesAcross() {
+        return tilesAcross;
+    }
+
+    public int getTilesDown() {
+        return tilesDown;
+    }
+
+    /**
+     * Closes the file. The mapping is released once it is garbage collected.
+     */
+    public void close() throws IOException {
+        file.close();
+    }
+}
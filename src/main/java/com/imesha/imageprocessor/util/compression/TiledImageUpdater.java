@@ -0,0 +1,441 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 imesha
+ */
+
+package com.imesha.imageprocessor.util.compression;
+
+import com.imesha.imageprocessor.util.OffHeapRaster;
+import com.imesha.imageprocessor.util.StripeExecutor;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Saves an edited image over the tiled image it was read from, written by {@link TiledImageWriter}, compressing
+ * only the tiles which have changed. The cost of a save follows the size of the edit rather than that of the image.
+ * <p>
+ * The tiles to be looked at are either all of them, or those marked by a {@link TileChangeTracker}. Of these, a tile
+ * is compressed again only if the hash of its samples differs from the one in the index, so that marking too much
+ * costs a hash, not a compression. The new tiles are appended to the file, after the old index, and followed by the
+ * new index and last by the trailer which points to it. The space of the tiles they replace is left unused until it
+ * is as large as the space in use; the tiles are then moved together into a new file which takes the place of the
+ * old one, which copies compressed bytes but compresses nothing.
+ * <pre>
+ *     TiledImageUpdater updater = new TiledImageUpdater(file, compressor);
+ *     TileChangeTracker tracker = new TileChangeTracker(updater);
+ *     // edit the image, calling tracker.markDirty(x, y, width, height) for every region changed
+ *     updater.update(image, tracker.takeDirtyTiles());
+ * </pre>
+ * The trailer is the commit point of an update. Until it is written, the file holds the image as it was saved last:
+ * a save which fails is cut off the file again, and one which is cut short, eg: by a crash, is passed over by
+ * {@link TiledImageReader} and cut off when the image is next opened for updating. Readers opened before an update
+ * must be opened again to see it. Version 1 images are turned into version 2 on the first update, by writing a new
+ * file. As their index has no hashes, every tile looked at is compressed again that time.
+ */
+public class TiledImageUpdater implements Closeable {
+    // The most the header can take up: 4 bytes and 4 varints
+    private static final int MAX_HEADER_SIZE = 4 + 4 * 5;
+    private static final int COPY_BUFFER_SIZE = 1 << 16;
+    private static final int TRAILER_SIZE = 8 + TiledImageWriter.END_MAGIC.length;
+
+    private final File path;
+    private RandomAccessFile file;
+    private final ImageCompressor compressor;
+    private final int width;
+    private final int height;
+    private final int tileWidth;
+    private final int tileHeight;
+    private final int tilesAcross;
+    private final int tileCount;
+    private final long headerSize;
+    private final long[] starts;
+    private final long[] ends;
+    private final long[] hashes;
+    // The tiles of which the hash is known, all but those of a version 1 image not yet compressed again
+    private final BitSet hashed;
+    private int version;
+    private long dataEnd;
+
+    /**
+     * Opens a tiled image for updating and reads its index. What a save which was cut short wrote is cut off.
+     *
+     * @param file       The file holding the tiled image
+     * @param compressor The compressor which compressed the tiles
+     * @throws IOException If the file cannot be read, or is not a tiled image
+     */
+    public TiledImageUpdater(File file, ImageCompressor compressor) throws IOException {
+        this.path = file;
+        this.file = new RandomAccessFile(file, "rw");
+        this.compressor = compressor;
+        try {
+            long size = this.file.length();
+            byte[] headerBytes = new byte[(int) Math.min(MAX_HEADER_SIZE, size)];
+            this.file.readFully(headerBytes);
+            ByteArrayInputStream headerStream = new ByteArrayInputStream(headerBytes);
+            CodecReader header = new CodecReader(headerStream);
+            if (header.readByte() != 'I' || header.readByte() != 'P' || header.readByte() != 'T')
+                throw new IOException("Not a tiled image");
+            this.version = header.readByte();
+            if (version < 1 || version > TiledImageWriter.VERSION)
+                throw new IOException("Unsupported tiled image version " + version);
+            this.width = header.readVarInt();
+            this.height = header.readVarInt();
+            this.tileWidth = header.readVarInt();
+            this.tileHeight = header.readVarInt();
+            if (width <= 0 || height <= 0 || tileWidth <= 0 || tileHeight <= 0)
+                throw new IOException("Corrupted tiled image: invalid size");
+            this.tilesAcross = (width + tileWidth - 1) / tileWidth;
+            long tiles = (long) tilesAcross * ((height + tileHeight - 1) / tileHeight);
+            if (tiles >= Integer.MAX_VALUE) throw new IOException("Corrupted tiled image: too many tiles");
+            this.tileCount = (int) tiles;
+            this.headerSize = getHeaderSize(width, height, tileWidth, tileHeight);
+
+            long indexSize = version == 1 ? 8 * (tiles + 1) : TiledImageWriter.INDEX_ENTRY_SIZE * tiles;
+            long end = TiledImageReader.findEnd(this.file, indexSize);
+            if (end < 0) throw new IOException("Corrupted tiled image: no index");
+            this.dataEnd = end - TRAILER_SIZE - indexSize;
+            if (dataEnd < headerSize) throw new IOException("Corrupted tiled image: invalid index");
+            if (end < size) this.file.setLength(end);
+
+            byte[] indexBytes = new byte[(int) indexSize];
+            this.file.seek(dataEnd);
+            this.file.readFully(indexBytes);
+            ByteBuffer index = ByteBuffer.wrap(indexBytes);
+            this.starts = new long[tileCount];
+            this.ends = new long[tileCount];
+            this.hashes = new long[tileCount];
+            this.hashed = new BitSet(tileCount);
+            for (int tile = 0; tile < tileCount; tile++) {
+                if (version == 1) {
+                    starts[tile] = index.getLong(8 * tile);
+                    ends[tile] = index.getLong(8 * (tile + 1));
+                } else {
+                    starts[tile] = index.getLong();
+                    ends[tile] = index.getLong();
+                    hashes[tile] = index.getLong();
+                    hashed.set(tile);
+                }
+                if (starts[tile] < headerSize || ends[tile] < starts[tile] || ends[tile] > dataEnd)
+                    throw new IOException("Corrupted tiled image: invalid offsets of tile " + tile);
+            }
+        } catch (IOException e) {
+            this.file.close();
+            throw e;
+        } catch (RuntimeException e) {
+            this.file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Saves the image, looking at every tile. Only the tiles whose samples hash differently are compressed, but
+     * every tile is hashed.
+     *
+     * @return The number of tiles compressed again
+     * @see #update(BufferedImage, BitSet)
+     */
+    public int update(BufferedImage image) throws IOException {
+        BitSet tiles = new BitSet(tileCount);
+        tiles.set(0, tileCount);
+        return update(image, tiles);
+    }
+
+    /**
+     * Saves the image, looking at the given tiles only. They are hashed and compressed in parallel, on the
+     * {@link StripeExecutor}. Nothing is written if none of them has changed. If the save fails, the file is left
+     * as it was; if the image is compacted after the save and that fails, the save has nonetheless been made.
+     *
+     * @param image The whole image, as large as the tiled image
+     * @param tiles The tiles which may have changed, eg: from {@link TileChangeTracker#takeDirtyTiles()}
+     * @return The number of tiles compressed again
+     */
+    public int update(BufferedImage image, BitSet tiles) throws IOException {
+        if (image.getWidth() != width || image.getHeight() != height)
+            throw new IllegalArgumentException("Expected a " + width + "x" + height + " image, got "
+                    + image.getWidth() + "x" + image.getHeight());
+        return update(TiledImageWriter.tiles(image, tilesAcross, tileWidth, tileHeight), tiles);
+    }
+
+    /**
+     * Saves a raster, which may be larger than any {@link BufferedImage}, looking at every tile.
+     *
+     * @return The number of tiles compressed again
+     * @see #update(OffHeapRaster, BitSet)
+     */
+    public int update(OffHeapRaster raster) throws IOException {
+        BitSet tiles = new BitSet(tileCount);
+        tiles.set(0, tileCount);
+        return update(raster, tiles);
+    }
+
+    /**
+     * Saves a raster, looking at the given tiles only, as {@link #update(BufferedImage, BitSet)} does an image.
+     * The tiles are hashed and compressed from views of the raster, without being copied first.
+     *
+     * @param raster The whole raster, as large as the tiled image
+     * @param tiles  The tiles which may have changed
+     * @return The number of tiles compressed again
+     */
+    public int update(OffHeapRaster raster, BitSet tiles) throws IOException {
+        if (raster.getWidth() != width || raster.getHeight() != height)
+            throw new IllegalArgumentException("Expected a " + width + "x" + height + " raster, got "
+                    + raster.getWidth() + "x" + raster.getHeight());
+        return update(TiledImageWriter.tiles(raster, tilesAcross, tileWidth, tileHeight), tiles);
+    }
+
+    private int update(final TiledImageWriter.TileSource source, BitSet tiles) throws IOException {
+        if (tiles.length() > tileCount)
+            throw new IllegalArgumentException("No tile " + (tiles.length() - 1) + ", there are " + tileCount);
+        final int[] candidates = new int[tiles.cardinality()];
+        for (int i = 0, tile = tiles.nextSetBit(0); tile >= 0; i++, tile = tiles.nextSetBit(tile + 1)) {
+            candidates[i] = tile;
+        }
+
+        // Each tile counts as a row of as many pixels as it holds
+        List<List<TiledImageWriter.EncodedTile>> stripes = StripeExecutor.mapStripes(tileWidth * tileHeight,
+                candidates.length, new StripeExecutor.StripeFunction<List<TiledImageWriter.EncodedTile>>() {
+                    public List<TiledImageWriter.EncodedTile> process(int from, int to) {
+                        List<TiledImageWriter.EncodedTile> changed = new ArrayList<TiledImageWriter.EncodedTile>();
+                        for (int i = from; i < to; i++) {
+                            int tile = candidates[i];
+                            BufferedImage pixels = source.getTile(tile);
+                            long hash = TiledImageWriter.hashTile(pixels);
+                            if (hashed.get(tile) && hash == hashes[tile]) continue;
+                            changed.add(new TiledImageWriter.EncodedTile(tile, compressor.compress(pixels).getData(),
+                                    hash));
+                        }
+                        return changed;
+                    }
+                });
+        TiledImageWriter.EncodedTile[] changed = new TiledImageWriter.EncodedTile[tileCount];
+        int changedCount = 0;
+        for (List<TiledImageWriter.EncodedTile> stripe : stripes) {
+            for (TiledImageWriter.EncodedTile tile : stripe) {
+                changed[tile.tile] = tile;
+                changedCount++;
+            }
+        }
+        if (changedCount == 0) return 0;
+
+        if (version != TiledImageWriter.VERSION) {
+            // The index of the old version cannot be followed by one of the new
+            rewrite(changed);
+            return changedCount;
+        }
+        append(changed);
+        long unused = getUnusedBytes();
+        if (unused > dataEnd - headerSize - unused) compact();
+        return changedCount;
+    }
+
+    /**
+     * Moves the tiles together, leaving no unused space between them. They are copied into a new file, in order,
+     * which then takes the place of the old one, so that the old one is left as it was if the compaction fails.
+     */
+    public void compact() throws IOException {
+        rewrite(new TiledImageWriter.EncodedTile[tileCount]);
+    }
+
+    /**
+     * @return The bytes between the tiles which are no longer used
+     */
+    public long getUnusedBytes() {
+        long used = 0;
+        for (int tile = 0; tile < tileCount; tile++) {
+            used += ends[tile] - starts[tile];
+        }
+        return dataEnd - headerSize - used;
+    }
+
+    /**
+     * Appends the new tiles to the file and commits them by writing the new index and trailer after them. The data
+     * is forced to the disk before the trailer and the trailer after it, so that the trailer is only found once the
+     * tiles and index it points to are there.
+     *
+     * @param changed The new tiles, by tile number, null for the tiles which are kept
+     */
+    private void append(TiledImageWriter.EncodedTile[] changed) throws IOException {
+        long[] newStarts = starts.clone();
+        long[] newEnds = ends.clone();
+        long[] newHashes = hashes.clone();
+        long length = file.length();
+        try {
+            long position = length;
+            file.seek(position);
+            for (TiledImageWriter.EncodedTile tile : changed) {
+                if (tile == null) continue;
+                file.write(tile.data);
+                newStarts[tile.tile] = position;
+                newEnds[tile.tile] = position + tile.data.length;
+                newHashes[tile.tile] = tile.hash;
+                position += tile.data.length;
+            }
+            byte[] index = TiledImageWriter.createIndex(newStarts, newEnds, newHashes, position);
+            file.write(index, 0, index.length - TRAILER_SIZE);
+            file.getChannel().force(false);
+            file.write(index, index.length - TRAILER_SIZE, TRAILER_SIZE);
+            file.getChannel().force(false);
+            dataEnd = position;
+        } catch (IOException e) {
+            cutOff(length, e);
+            throw e;
+        } catch (RuntimeException e) {
+            cutOff(length, e);
+            throw e;
+        }
+        commit(newStarts, newEnds, newHashes, changed);
+    }
+
+    /**
+     * Cuts what a failed save wrote off the file, so that it ends in the trailer of the last save again.
+     */
+    private void cutOff(long length, Exception cause) {
+        try {
+            file.setLength(length);
+        } catch (IOException e) {
+            cause.addSuppressed(e);
+        }
+    }
+
+    /**
+     * Writes the image, with the new tiles, into a new file next to the old one, the tiles in order and together.
+     * Once the new file is complete and forced to the disk, it is renamed over the old one.
+     *
+     * @param changed The new tiles, by tile number, null for the tiles which are copied from the old file
+     */
+    private void rewrite(TiledImageWriter.EncodedTile[] changed) throws IOException {
+        long[] newStarts = new long[tileCount];
+        long[] newEnds = new long[tileCount];
+        long[] newHashes = hashes.clone();
+        File directory = path.getAbsoluteFile().getParentFile();
+        File temporary = File.createTempFile(path.getName(), ".tmp", directory);
+        long position = headerSize;
+        try {
+            RandomAccessFile out = new RandomAccessFile(temporary, "rw");
+            try {
+                byte[] header = new byte[(int) headerSize];
+                file.seek(0);
+                file.readFully(header);
+                header[3] = TiledImageWriter.VERSION;
+                out.write(header);
+                byte[] buffer = new byte[COPY_BUFFER_SIZE];
+                for (int tile = 0; tile < tileCount; tile++) {
+                    long length;
+                    if (changed[tile] != null) {
+                        length = changed[tile].data.length;
+                        newHashes[tile] = changed[tile].hash;
+                        out.write(changed[tile].data);
+                    } else {
+                        length = ends[tile] - starts[tile];
+                        file.seek(starts[tile]);
+                        for (long done = 0; done < length; ) {
+                            int chunk = (int) Math.min(buffer.length, length - done);
+                            file.readFully(buffer, 0, chunk);
+                            out.write(buffer, 0, chunk);
+                            done += chunk;
+                        }
+                    }
+                    newStarts[tile] = position;
+                    newEnds[tile] = position + length;
+                    position += length;
+                }
+                out.write(TiledImageWriter.createIndex(newStarts, newEnds, newHashes, position));
+                out.getChannel().force(true);
+            } finally {
+                out.close();
+            }
+            replaceFile(temporary);
+        } catch (IOException e) {
+            temporary.delete();
+            throw e;
+        } catch (RuntimeException e) {
+            temporary.delete();
+            throw e;
+        }
+        dataEnd = position;
+        version = TiledImageWriter.VERSION;
+        commit(newStarts, newEnds, newHashes, changed);
+    }
+
+    /**
+     * Renames the new file over the old one, which is closed for it and opened again whether or not it is replaced.
+     */
+    private void replaceFile(File replacement) throws IOException {
+        file.close();
+        try {
+            try {
+                Files.move(replacement.toPath(), path.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(replacement.toPath(), path.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            file = new RandomAccessFile(path, "rw");
+        }
+    }
+
+    private void commit(long[] newStarts, long[] newEnds, long[] newHashes, TiledImageWriter.EncodedTile[] changed) {
+        System.arraycopy(newStarts, 0, starts, 0, tileCount);
+        System.arraycopy(newEnds, 0, ends, 0, tileCount);
+        System.arraycopy(newHashes, 0, hashes, 0, tileCount);
+        for (TiledImageWriter.EncodedTile tile : changed) {
+            if (tile != null) hashed.set(tile.tile);
+        }
+    }
+
+    private static long getHeaderSize(int width, int height, int tileWidth, int tileHeight) {
+        return 4 + getVarIntSize(width) + getVarIntSize(height) + getVarIntSize(tileWidth)
+                + getVarIntSize(tileHeight);
+    }
+
+    private static int getVarIntSize(int value) {
+        int size = 1;
+        while ((value >>>= 7) != 0) {
+            size++;
+        }
+        return size;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getTileWidth() {
+        return tileWidth;
+    }
+
+    public int getTileHeight() {
+        return tileHeight;
+    }
+
+    public int getTilesAcross() {
+        return tilesAcross;
+    }
+
+    public int getTilesDown() {
+        return tileCount / tilesAcross;
+    }
+
+    /**
+     * Closes the file. The image is complete after every update, so there is nothing left to write.
+     */
+    public void close() throws IOException {
+        file.close();
+    }
+}
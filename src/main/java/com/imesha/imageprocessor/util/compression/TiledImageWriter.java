@@ -0,0 +1,303 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 imesha
+ */
+
+package com.imesha.imageprocessor.util.compression;
+
+import com.imesha.imageprocessor.util.OffHeapRaster;
+import com.imesha.imageprocessor.util.PixelAccess;
+import com.imesha.imageprocessor.util.StripeExecutor;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes an image as a grid of tiles, each compressed on its own, followed by an index of where each tile starts, so
+ * that {@link TiledImageReader} can decode any region of the image from the tiles it covers alone. Layout:
+ * <pre>
+ *     'I' 'P' 'T' | version (1 byte) | width (varint) | height (varint) | tile width (varint) | tile height (varint)
+ *     the compressed tiles, row by row from the top left
+ *     index: for each tile in the same order, the offsets of its start and end and the hash of its samples (8 bytes
+ *     each)
+ *     the offset of the index (8 bytes) | 'I' 'P' 'T' 'X'
+ * </pre>
+ * Offsets are from the start of the container, big endian. The tiles of the last column and row hold whatever
+ * columns and rows are left. The tiles need not be in order, nor next to each other: {@link TiledImageUpdater}
+ * writes the tiles which have changed after the others. Version 1 had only the start of each tile in the index,
+ * followed by the end of the last one.
+ */
+public class TiledImageWriter {
+    static final int VERSION = 2;
+    static final int INDEX_ENTRY_SIZE = 24;
+    static final int DEFAULT_TILE_SIZE = 256;
+    static final byte[] END_MAGIC = {'I', 'P', 'T', 'X'};
+
+    private final CodecWriter writer;
+    private final ImageCompressor compressor;
+    private final int width;
+    private final int height;
+    private final int tileWidth;
+    private final int tileHeight;
+    private final long[] starts;
+    private final long[] ends;
+    private final long[] hashes;
+    private final ByteArrayOutputStream tileBuffer = new ByteArrayOutputStream();
+    private long position;
+    private int tilesWritten;
+
+    /**
+     * Writes the header of the tiled image, with tiles of {@link #DEFAULT_TILE_SIZE} pixels square.
+     */
+    public TiledImageWriter(OutputStream out, ImageCompressor compressor, int width, int height) throws IOException {
+        this(out, compressor, width, height, DEFAULT_TILE_SIZE, DEFAULT_TILE_SIZE);
+    }
+
+    /**
+     * Writes the header of the tiled image.
+     *
+     * @param out        The stream to which the image is written. It is flushed, but not closed.
+     * @param compressor The compressor for the tiles
+     * @param width      The width of the image
+     * @param height     The height of the image
+     * @param tileWidth  The width of the tiles
+     * @param tileHeight The height of the tiles
+     */
+    public TiledImageWriter(OutputStream out, ImageCompressor compressor, int width, int height, int tileWidth,
+                            int tileHeight) throws IOException {
+        if (width <= 0 || height <= 0)
+            throw new IllegalArgumentException("Size must be positive: " + width + "x" + height);
+        if (tileWidth <= 0 || tileHeight <= 0)
+            throw new IllegalArgumentException("Tile size must be positive: " + tileWidth + "x" + tileHeight);
+        this.compressor = compressor;
+        this.width = width;
+        this.height = height;
+        this.tileWidth = tileWidth;
+        this.tileHeight = tileHeight;
+        long tiles = (long) getTilesAcross() * getTilesDown();
+        if (tiles >= Integer.MAX_VALUE) throw new IllegalArgumentException("Too many tiles: " + tiles);
+        this.starts = new long[(int) tiles];
+        this.ends = new long[(int) tiles];
+        this.hashes = new long[(int) tiles];
+
+        // The header goes through the buffer first, to learn where the first tile starts
+        CodecWriter header = new CodecWriter(tileBuffer);
+        header.writeByte('I');
+        header.writeByte('P');
+        header.writeByte('T');
+        header.writeByte(VERSION);
+        header.writeVarInt(width);
+        header.writeVarInt(height);
+        header.writeVarInt(tileWidth);
+        header.writeVarInt(tileHeight);
+        header.flush();
+        this.writer = new CodecWriter(out);
+        writeBuffer();
+    }
+
+    /**
+     * Compresses and writes the next tile, in order from left to right and then top to bottom.
+     *
+     * @param tile The tile, which must be as large as the tile size, or the columns and rows left at the right and
+     *             bottom edges
+     */
+    public void writeTile(BufferedImage tile) throws IOException {
+        if (tilesWritten == starts.length) throw new IllegalStateException("All tiles have been written");
+        int tileX = tilesWritten % getTilesAcross();
+        int tileY = tilesWritten / getTilesAcross();
+        int expectedWidth = Math.min(tileWidth, width - tileX * tileWidth);
+        int expectedHeight = Math.min(tileHeight, height - tileY * tileHeight);
+        if (tile.getWidth() != expectedWidth || tile.getHeight() != expectedHeight)
+            throw new IllegalArgumentException("Expected a " + expectedWidth + "x" + expectedHeight + " tile, got "
+                    + tile.getWidth() + "x" + tile.getHeight());
+        compressor.compress(tile, tileBuffer);
+        starts[tilesWritten] = position;
+        ends[tilesWritten] = position + tileBuffer.size();
+        hashes[tilesWritten++] = hashTile(tile);
+        writeBuffer();
+    }
+
+    /**
+     * Writes the tiles which are left from an image holding the whole of them. The tiles are compressed in
+     * parallel, on the {@link StripeExecutor}, a row of tiles at a time.
+     *
+     * @param image The image, as large as the tiled image
+     */
+    public void writeImage(BufferedImage image) throws IOException {
+        if (image.getWidth() != width || image.getHeight() != height)
+            throw new IllegalArgumentException("Expected a " + width + "x" + height + " image, got "
+                    + image.getWidth() + "x" + image.getHeight());
+        writeTiles(tiles(image, getTilesAcross(), tileWidth, tileHeight));
+    }
+
+    /**
+     * Writes the tiles which are left from a raster holding the whole of them, which may be larger than any
+     * {@link BufferedImage}. The tiles are compressed from views of the raster, without being copied first.
+     *
+     * @param raster The raster, as large as the tiled image
+     * @see #writeImage(BufferedImage)
+     */
+    public void writeImage(OffHeapRaster raster) throws IOException {
+        if (raster.getWidth() != width || raster.getHeight() != height)
+            throw new IllegalArgumentException("Expected a " + width + "x" + height + " raster, got "
+                    + raster.getWidth() + "x" + raster.getHeight());
+        writeTiles(tiles(raster, getTilesAcross(), tileWidth, tileHeight));
+    }
+
+    private void writeTiles(final TileSource source) throws IOException {
+        while (tilesWritten < starts.length && tilesWritten % getTilesAcross() != 0) {
+            writeTile(source.getTile(tilesWritten));
+        }
+        while (tilesWritten < starts.length) {
+            final int firstTile = tilesWritten;
+            // Each tile counts as a row of as many pixels as it holds
+            List<List<EncodedTile>> stripes = StripeExecutor.mapStripes(tileWidth * tileHeight, getTilesAcross(),
+                    new StripeExecutor.StripeFunction<List<EncodedTile>>() {
+                        public List<EncodedTile> process(int fromTile, int toTile) {
+                            List<EncodedTile> tiles = new ArrayList<EncodedTile>();
+                            for (int tile = firstTile + fromTile; tile < firstTile + toTile; tile++) {
+                                BufferedImage pixels = source.getTile(tile);
+                                tiles.add(new EncodedTile(tile, compressor.compress(pixels).getData(),
+                                        hashTile(pixels)));
+                            }
+                            return tiles;
+                        }
+                    });
+            for (List<EncodedTile> tiles : stripes) {
+                for (EncodedTile tile : tiles) {
+                    starts[tilesWritten] = position;
+                    ends[tilesWritten] = position + tile.data.length;
+                    hashes[tilesWritten++] = tile.hash;
+                    writer.write(tile.data, 0, tile.data.length);
+                    position += tile.data.length;
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the index and flushes the image to the stream.
+     *
+     * @throws IllegalStateException If not all the tiles have been written
+     */
+    public void finish() throws IOException {
+        if (tilesWritten != starts.length)
+            throw new IllegalStateException("Only " + tilesWritten + " of " + starts.length
+                    + " tiles have been written");
+        byte[] index = createIndex(starts, ends, hashes, position);
+        writer.write(index, 0, index.length);
+        writer.flush();
+    }
+
+    public int getTilesAcross() {
+        return (width + tileWidth - 1) / tileWidth;
+    }
+
+    public int getTilesDown() {
+        return (height + tileHeight - 1) / tileHeight;
+    }
+
+    /**
+     * Gives the tiles of an image, numbered row by row from the top left.
+     */
+    interface TileSource {
+        BufferedImage getTile(int tile);
+    }
+
+    /**
+     * @return The tiles of an image, as sub images
+     */
+    static TileSource tiles(final BufferedImage image, final int tilesAcross, final int tileWidth,
+                            final int tileHeight) {
+        return new TileSource() {
+            public BufferedImage getTile(int tile) {
+                int x = tile % tilesAcross * tileWidth;
+                int y = tile / tilesAcross * tileHeight;
+                return image.getSubimage(x, y, Math.min(tileWidth, image.getWidth() - x),
+                        Math.min(tileHeight, image.getHeight() - y));
+            }
+        };
+    }
+
+    /**
+     * @return The tiles of a raster, as views of it
+     */
+    static TileSource tiles(final OffHeapRaster raster, final int tilesAcross, final int tileWidth,
+                            final int tileHeight) {
+        return new TileSource() {
+            public BufferedImage getTile(int tile) {
+                int x = tile % tilesAcross * tileWidth;
+                int y = tile / tilesAcross * tileHeight;
+                return raster.getImage(x, y, Math.min(tileWidth, raster.getWidth() - x),
+                        Math.min(tileHeight, raster.getHeight() - y));
+            }
+        };
+    }
+
+    /**
+     * Hashes the samples of every band of a tile, which are what the compressors encode, with 64 bit FNV-1a.
+     * Tiles which hash alike are taken to be the same.
+     */
+    static long hashTile(BufferedImage tile) {
+        long hash = 0xcbf29ce484222325L;
+        for (PixelAccess.Band band : PixelAccess.bands(tile)) {
+            int width = band.getWidth();
+            byte[] data = band.getData();
+            int[] row = data == null ? new int[width] : null;
+            for (int y = 0; y < band.getHeight(); y++) {
+                if (data != null) {
+                    int stride = band.getPixelStride();
+                    for (int x = 0, index = band.index(0, y); x < width; x++, index += stride) {
+                        hash = (hash ^ (data[index] & 0xFF)) * 0x100000001b3L;
+                    }
+                } else {
+                    band.getRow(y, row);
+                    for (int x = 0; x < width; x++) {
+                        hash = (hash ^ row[x]) * 0x100000001b3L;
+                    }
+                }
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Lays out the index and the end of the container.
+     *
+     * @param indexOffset Where the index starts, ie: the end of the tiles
+     */
+    static byte[] createIndex(long[] starts, long[] ends, long[] hashes, long indexOffset) {
+        ByteBuffer index = ByteBuffer.allocate(INDEX_ENTRY_SIZE * starts.length + 8 + END_MAGIC.length);
+        for (int tile = 0; tile < starts.length; tile++) {
+            index.putLong(starts[tile]).putLong(ends[tile]).putLong(hashes[tile]);
+        }
+        index.putLong(indexOffset).put(END_MAGIC);
+        return index.array();
+    }
+
+    /**
+     * A tile compressed off the writing thread.
+     */
+    static final class EncodedTile {
+        final int tile;
+        final byte[] data;
+        final long hash;
+
+        EncodedTile(int tile, byte[] data, long hash) {
+            this.tile = tile;
+            this.data = data;
+            this.hash = hash;
+        }
+    }
+
+    private void writeBuffer() throws IOException {
+        writer.write(tileBuffer.toByteArray(), 0, tileBuffer.size());
+        position += tileBuffer.size();
+        tileBuffer.reset();
+    }
+}
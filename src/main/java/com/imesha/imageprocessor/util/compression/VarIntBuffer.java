@@ -0,0 +1,52 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 imesha
+ */
+
+package com.imesha.imageprocessor.util.compression;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A growable array of varints, in the encoding of {@link CodecWriter#writeVarInt(int)}, and plain bytes, for codecs
+ * which encode or decode parts of an image separately from reading or writing them in order.
+ */
+final class VarIntBuffer {
+    private byte[] data;
+    private int size;
+
+    VarIntBuffer(int capacity) {
+        this.data = new byte[Math.max(16, capacity)];
+    }
+
+    void writeVarInt(int value) {
+        if (size > data.length - 5) data = Arrays.copyOf(data, data.length * 2);
+        while ((value & ~0x7F) != 0) {
+            data[size++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        data[size++] = (byte) value;
+    }
+
+    /**
+     * Appends the next length bytes of the reader as they are.
+     */
+    void readFrom(CodecReader reader, int length) throws IOException {
+        if (size > data.length - length) data = Arrays.copyOf(data, Math.max(data.length * 2, size + length));
+        reader.readFully(data, size, length);
+        size += length;
+    }
+
+    void writeTo(CodecWriter writer) throws IOException {
+        writer.write(data, 0, size);
+    }
+
+    byte[] getData() {
+        return data;
+    }
+
+    int size() {
+        return size;
+    }
+}
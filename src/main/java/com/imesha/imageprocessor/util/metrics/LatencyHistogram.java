@@ -0,0 +1,106 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 imesha
+ */
+
+package com.imesha.imageprocessor.util.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of latencies in nanoseconds, bucketed the way HdrHistogram does it: exactly up to
+ * 2 * {@value #SUB_BUCKETS}, then in {@value #SUB_BUCKETS} linear buckets per power of two. Every recorded value is
+ * kept to within about 3 % of itself, from nanoseconds to centuries, in a fixed number of counters.
+ * <p>
+ * Recording takes no locks and allocates nothing, so it is safe and cheap from any number of threads. Reads are not
+ * atomic snapshots: a value recorded during a read may or may not be seen.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (65 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param nanos A latency, taken as 0 if negative
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(bucketOf(value));
+        count.increment();
+        sum.add(value);
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // Retry until the maximum is at least the value
+        }
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return The mean of the recorded values, 0 when there are none
+     */
+    public double getMean() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @param percentile The percentile, 0 - 100
+     * @return The highest value of the bucket below which the given percentage of the recorded values fall, but no
+     * more than the maximum; 0 when nothing has been recorded
+     */
+    public long getPercentile(double percentile) {
+        long n = count.sum();
+        if (n == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * n));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += counts.get(bucket);
+            if (seen >= rank) return Math.min(highestValueOf(bucket), getMax());
+        }
+        return getMax();
+    }
+
+    public void reset() {
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            counts.set(bucket, 0);
+        }
+        count.reset();
+        sum.reset();
+        max.set(0);
+    }
+
+    /**
+     * Values below 2 * SUB_BUCKETS have a bucket each. Above, the top SUB_BUCKET_BITS + 1 bits of the value pick one
+     * of the SUB_BUCKETS buckets of its power of two.
+     */
+    private static int bucketOf(long value) {
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent <= SUB_BUCKET_BITS) return (int) value;
+        int shift = exponent - SUB_BUCKET_BITS;
+        return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+    }
+
+    private static long highestValueOf(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) return bucket;
+        int shift = (bucket >> SUB_BUCKET_BITS) - 1;
+        long mantissa = (bucket & (SUB_BUCKETS - 1)) + SUB_BUCKETS;
+        long highest = ((mantissa + 1) << shift) - 1;
+        // The top bucket ends past Long.MAX_VALUE
+        return highest < 0 ? Long.MAX_VALUE : highest;
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 imesha
+ */
+
+package com.imesha.imageprocessor.util.metrics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@link StageMetrics} of every stage of the processing chain, by name. The converters, samplers, analysers and
+ * compressors measure themselves into the stages here.
+ * <p>
+ * Metrics are off unless the imageprocessor.metrics system property is true, or {@link #setEnabled(boolean)} turns
+ * them on. While they are on, every stage is registered with the platform MBean server as
+ * {@value #DOMAIN}:type=Stage,name="&lt;stage&gt;", and the stages can be handed to a {@link MetricsReporter}, once or
+ * at a fixed rate.
+ */
+public final class Metrics {
+
+    public static final String DOMAIN = "com.imesha.imageprocessor";
+
+    private static final ConcurrentMap<String, StageMetrics> STAGES = new ConcurrentHashMap<String, StageMetrics>();
+
+    private static volatile boolean enabled;
+
+    /**
+     * The bean giving the bytes allocated by a thread, or null if the JVM has none.
+     */
+    private static final com.sun.management.ThreadMXBean THREADS = getThreadBean();
+
+    private static ScheduledExecutorService reportScheduler;
+
+    static {
+        setEnabled(Boolean.getBoolean("imageprocessor.metrics"));
+    }
+
+    private Metrics() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Turns the measuring on or off, registering or unregistering the MBeans of the stages. What has been measured
+     * is kept.
+     */
+    public static synchronized void setEnabled(boolean enabled) {
+        if (Metrics.enabled == enabled) return;
+        Metrics.enabled = enabled;
+        for (StageMetrics stage : STAGES.values()) {
+            if (enabled) register(stage);
+            else unregister(stage);
+        }
+    }
+
+    /**
+     * @return The metrics of the stage of the given name, created if there are none yet
+     */
+    public static StageMetrics stage(String name) {
+        StageMetrics stage = STAGES.get(name);
+        if (stage != null) return stage;
+        synchronized (Metrics.class) {
+            stage = STAGES.get(name);
+            if (stage == null) {
+                stage = new StageMetrics(name);
+                STAGES.put(name, stage);
+                if (enabled) register(stage);
+            }
+            return stage;
+        }
+    }
+
+    /**
+     * @return The stages, in the order of their names
+     */
+    public static List<StageMetrics> getStages() {
+        List<StageMetrics> stages = new ArrayList<StageMetrics>(STAGES.values());
+        Collections.sort(stages, new Comparator<StageMetrics>() {
+            public int compare(StageMetrics a, StageMetrics b) {
+                return a.getName().compareTo(b.getName());
+            }
+        });
+        return stages;
+    }
+
+    /**
+     * Clears what has been measured of every stage.
+     */
+    public static void reset() {
+        for (StageMetrics stage : STAGES.values()) {
+            stage.reset();
+        }
+    }
+
+    /**
+     * Hands the stages which have been called to the reporter.
+     */
+    public static void report(MetricsReporter reporter) {
+        List<StageMetrics> called = new ArrayList<StageMetrics>();
+        for (StageMetrics stage : getStages()) {
+            if (stage.getCalls() > 0) called.add(stage);
+        }
+        reporter.report(called);
+    }
+
+    /**
+     * Reports at a fixed rate on a daemon thread, until the returned future is cancelled. A reporter which throws
+     * is not called again.
+     */
+    public static synchronized ScheduledFuture<?> scheduleReports(final MetricsReporter reporter, long period,
+                                                                  TimeUnit unit) {
+        if (reportScheduler == null) {
+            reportScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "metrics-reporter");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return reportScheduler.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                report(reporter);
+            }
+        }, period, period, unit);
+    }
+
+    /**
+     * @return The bytes allocated so far by the calling thread, -1 if the JVM does not tell
+     */
+    static long getAllocatedBytes() {
+        return THREADS == null ? -1 : THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static com.sun.management.ThreadMXBean getThreadBean() {
+        try {
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            if (!(threads instanceof com.sun.management.ThreadMXBean)) return null;
+            com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+            if (!allocations.isThreadAllocatedMemorySupported()) return null;
+            if (!allocations.isThreadAllocatedMemoryEnabled()) allocations.setThreadAllocatedMemoryEnabled(true);
+            return allocations;
+        } catch (LinkageError e) {
+            // Not a JVM with the com.sun.management extensions
+            return null;
+        } catch (UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    private static void register(StageMetrics stage) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = getObjectName(stage);
+            if (!server.isRegistered(name)) server.registerMBean(stage, name);
+        } catch (JMException e) {
+            // The metrics are still there to be reported, only not through JMX
+            System.err.println("Can not register the metrics of " + stage.getName() + ": " + e);
+        }
+    }
+
+    private static void unregister(StageMetrics stage) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = getObjectName(stage);
+            if (server.isRegistered(name)) server.unregisterMBean(name);
+        } catch (JMException e) {
+            System.err.println("Can not unregister the metrics of " + stage.getName() + ": " + e);
+        }
+    }
+
+    private static ObjectName getObjectName(StageMetrics stage) throws JMException {
+        return new ObjectName(DOMAIN + ":type=Stage,name=" + ObjectName.quote(stage.getName()));
+    }
+}
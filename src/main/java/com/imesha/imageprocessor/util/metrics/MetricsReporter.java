@@ -0,0 +1,23 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 imesha
+ */
+
+package com.imesha.imageprocessor.util.metrics;
+
+import java.util.List;
+
+/**
+ * Takes the metrics of the stages somewhere, eg: to a log or a monitoring system.
+ *
+ * @see Metrics#report(MetricsReporter)
+ * @see Metrics#scheduleReports(MetricsReporter, long, java.util.concurrent.TimeUnit)
+ */
+public interface MetricsReporter {
+
+    /**
+     * @param stages The stages which have been called, in the order of their names. They keep changing while they
+     *               are reported.
+     */
+    void report(List<StageMetrics> stages);
+}
@@ -0,0 +1,39 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 imesha
+ */
+
+package com.imesha.imageprocessor.util.metrics;
+
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Prints the metrics as a table, a line per stage.
+ */
+public class PrintStreamReporter implements MetricsReporter {
+
+    private final PrintStream out;
+
+    public PrintStreamReporter(PrintStream out) {
+        this.out = out;
+    }
+
+    public void report(List<StageMetrics> stages) {
+        StringBuilder table = new StringBuilder(String.format(Locale.US,
+                "%-36s %8s %10s %10s %10s %10s %10s %12s %12s %7s %12s%n", "stage", "calls", "mean ms", "p50 ms",
+                "p99 ms", "max ms", "Mpixels/s", "bytes in", "bytes out", "ratio", "alloc/call"));
+        for (StageMetrics stage : stages) {
+            table.append(String.format(Locale.US,
+                    "%-36s %8d %10.3f %10.3f %10.3f %10.3f %10.2f %12d %12d %7.2f %12d%n", stage.getName(),
+                    stage.getCalls(), stage.getMeanLatencyMillis(), stage.getP50LatencyMillis(),
+                    stage.getP99LatencyMillis(), stage.getMaxLatencyMillis(), stage.getPixelsPerSecond() / 1e6,
+                    stage.getBytesIn(), stage.getBytesOut(), stage.getCompressionRatio(),
+                    stage.getAllocatedBytesPerCall()));
+        }
+        // Printed at once, so that the lines of reports from several threads do not interleave
+        out.print(table);
+        out.flush();
+    }
+}
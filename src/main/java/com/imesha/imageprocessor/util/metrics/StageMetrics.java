@@ -0,0 +1,188 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 imesha
+ */
+
+package com.imesha.imageprocessor.util.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * What has been measured of one stage of the processing chain: the latency of every call, the pixels and bytes
+ * which went through it and the memory it allocated. Thread safe.
+ * <p>
+ * A call is measured by taking a {@link Sample} before it and stopping it after:
+ * <pre>
+ *     StageMetrics.Sample sample = STAGE.start();
+ *     ...
+ *     sample.stop(pixels, bytesIn, bytesOut);
+ * </pre>
+ * While metrics are disabled, {@link #start()} gives a sample which does nothing, so that the cost is a read of a
+ * volatile flag. Calls which throw are not measured.
+ */
+public final class StageMetrics implements StageMetricsMXBean {
+
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final String name;
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAdder pixels = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder allocatedBytes = new LongAdder();
+    private final LongAdder allocationCalls = new LongAdder();
+
+    /**
+     * A call being measured.
+     */
+    public static class Sample {
+        private static final Sample DISABLED = new Sample(null) {
+            @Override
+            public void stop(long pixels, long bytesIn, long bytesOut) {
+            }
+
+            @Override
+            public boolean isRecording() {
+                return false;
+            }
+        };
+
+        private final StageMetrics stage;
+        private final long startNanos;
+        private final long startAllocated;
+
+        private Sample(StageMetrics stage) {
+            this.stage = stage;
+            this.startAllocated = stage == null ? -1 : Metrics.getAllocatedBytes();
+            this.startNanos = System.nanoTime();
+        }
+
+        /**
+         * @return Whether the call is being measured, ie: whether metrics were enabled when it started
+         */
+        public boolean isRecording() {
+            return true;
+        }
+
+        public void stop(long pixels) {
+            stop(pixels, 0, 0);
+        }
+
+        /**
+         * Records the call, which ends now.
+         *
+         * @param pixels   The pixels of the image processed, ie: of the source of a conversion
+         * @param bytesIn  The bytes read, eg: the compressed size for a decompression
+         * @param bytesOut The bytes written, eg: the compressed size for a compression
+         */
+        public void stop(long pixels, long bytesIn, long bytesOut) {
+            long nanos = System.nanoTime() - startNanos;
+            long allocated = startAllocated < 0 ? -1 : Metrics.getAllocatedBytes() - startAllocated;
+            stage.record(nanos, pixels, bytesIn, bytesOut, allocated);
+        }
+    }
+
+    StageMetrics(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return A sample of a call starting now, which does nothing if metrics are disabled
+     */
+    public Sample start() {
+        return Metrics.isEnabled() ? new Sample(this) : Sample.DISABLED;
+    }
+
+    /**
+     * Records a call measured by other means.
+     *
+     * @param allocated The bytes allocated by the call, or a negative number if unknown
+     */
+    public void record(long nanos, long pixels, long bytesIn, long bytesOut, long allocated) {
+        latencies.record(nanos);
+        totalNanos.add(nanos);
+        this.pixels.add(pixels);
+        this.bytesIn.add(bytesIn);
+        this.bytesOut.add(bytesOut);
+        if (allocated >= 0) {
+            allocatedBytes.add(allocated);
+            allocationCalls.increment();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public LatencyHistogram getLatencies() {
+        return latencies;
+    }
+
+    public long getCalls() {
+        return latencies.getCount();
+    }
+
+    public double getMeanLatencyMillis() {
+        return latencies.getMean() / NANOS_PER_MILLI;
+    }
+
+    public double getP50LatencyMillis() {
+        return latencies.getPercentile(50) / NANOS_PER_MILLI;
+    }
+
+    public double getP99LatencyMillis() {
+        return latencies.getPercentile(99) / NANOS_PER_MILLI;
+    }
+
+    public double getP999LatencyMillis() {
+        return latencies.getPercentile(99.9) / NANOS_PER_MILLI;
+    }
+
+    public double getMaxLatencyMillis() {
+        return latencies.getMax() / NANOS_PER_MILLI;
+    }
+
+    public long getPixels() {
+        return pixels.sum();
+    }
+
+    public double getPixelsPerSecond() {
+        long nanos = totalNanos.sum();
+        return nanos == 0 ? 0 : pixels.sum() * 1e9 / nanos;
+    }
+
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    public double getCompressionRatio() {
+        long out = bytesOut.sum();
+        return out == 0 ? 0 : (double) bytesIn.sum() / out;
+    }
+
+    public long getAllocatedBytesPerCall() {
+        long calls = allocationCalls.sum();
+        return calls == 0 ? -1 : allocatedBytes.sum() / calls;
+    }
+
+    public void reset() {
+        latencies.reset();
+        totalNanos.reset();
+        pixels.reset();
+        bytesIn.reset();
+        bytesOut.reset();
+        allocatedBytes.reset();
+        allocationCalls.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "StageMetrics{" + name + ", " + getCalls() + " calls}";
+    }
+}
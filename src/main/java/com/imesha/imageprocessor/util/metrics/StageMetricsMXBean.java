@@ -0,0 +1,50 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 imesha
+ */
+
+package com.imesha.imageprocessor.util.metrics;
+
+/**
+ * The JMX view of the {@link StageMetrics} of a stage, registered as
+ * {@value Metrics#DOMAIN}:type=Stage,name="&lt;stage&gt;" while metrics are enabled.
+ */
+public interface StageMetricsMXBean {
+
+    String getName();
+
+    long getCalls();
+
+    double getMeanLatencyMillis();
+
+    double getP50LatencyMillis();
+
+    double getP99LatencyMillis();
+
+    double getP999LatencyMillis();
+
+    double getMaxLatencyMillis();
+
+    long getPixels();
+
+    /**
+     * @return The pixels processed per second of time spent in the stage
+     */
+    double getPixelsPerSecond();
+
+    long getBytesIn();
+
+    long getBytesOut();
+
+    /**
+     * @return The bytes in over the bytes out, 0 when nothing was written
+     */
+    double getCompressionRatio();
+
+    /**
+     * @return The mean of the bytes allocated by the calling thread per call, -1 when it has not been measured
+     */
+    long getAllocatedBytesPerCall();
+
+    void reset();
+}
@@ -0,0 +1,50 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 imesha
+ */
+
+package com.imesha.imageprocessor.util.pipeline;
+
+import com.imesha.imageprocessor.util.cache.CacheKey;
+import com.imesha.imageprocessor.util.cache.ResultCache;
+import com.imesha.imageprocessor.util.compression.CompressedImage;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * A stage whose output is looked up in a {@link ResultCache} by the content of its inputs, and only computed by the
+ * stage it wraps when it is not found there. Stages reading inputs which are neither images nor compressed images
+ * always run.
+ */
+final class CachedStage extends Stage {
+    private final Stage stage;
+    private final ResultCache cache;
+    private final String parameters;
+
+    CachedStage(Stage stage, ResultCache cache, String parameters) {
+        super(stage.getOutput(), stage.getInputs().toArray(new String[0]));
+        this.stage = stage;
+        this.cache = cache;
+        this.parameters = parameters;
+    }
+
+    protected Object process(Object[] inputs) throws Exception {
+        CacheKey[] keys = new CacheKey[inputs.length];
+        for (int i = 0; i < inputs.length; i++) {
+            if (inputs[i] instanceof BufferedImage) {
+                keys[i] = CacheKey.of((BufferedImage) inputs[i], "");
+            } else if (inputs[i] instanceof CompressedImage) {
+                keys[i] = CacheKey.of((CompressedImage) inputs[i], "");
+            } else {
+                return stage.process(inputs);
+            }
+        }
+        CacheKey key = CacheKey.of(parameters, keys);
+        Object value = cache.get(key);
+        if (value == null) {
+            value = stage.process(inputs);
+            cache.put(key, value);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 imesha
+ */
+
+package com.imesha.imageprocessor.util.pipeline;
+
+import com.imesha.imageprocessor.util.StripeExecutor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A graph of named {@link Stage}s, built with a {@link Builder}. Stages are declared after the values they read,
+ * which makes the graph acyclic by construction.
+ * <p>
+ * When the pipeline is built, chains of pixel by pixel stages (gray scale conversion and {@link PixelOperation}s)
+ * whose intermediate values are used by nothing else are fused into a single stage. When it runs, every stage starts
+ * as soon as its inputs are ready, so independent branches run concurrently, and intermediate values are dropped as
+ * soon as their last reader has finished.
+ * <pre>
+ *     Pipeline pipeline = new Pipeline.Builder()
+ *             .input("image")
+ *             .stage(Stages.grayScale("gray", "image"))
+ *             .stage(Stages.downSample("down", "gray"))
+ *             .stage(Stages.upSample("up", "down"))
+ *             .stage(Stages.averageDistortion("distortion", "gray", "up"))
+ *             .output("up", "distortion")
+ *             .build();
+ *     Map&lt;String, Object&gt; results = pipeline.run(Collections.singletonMap("image", image));
+ * </pre>
+ */
+public class Pipeline {
+
+    /**
+     * Notified as stages complete, on the thread which ran the stage.
+     */
+    public interface StageListener {
+        /**
+         * @param name  The name of the value the stage produced
+         * @param value The value
+         */
+        void onStageCompleted(String name, Object value);
+    }
+
+    private final List<String> inputs;
+    private final List<Stage> stages;
+    private final Set<String> outputs;
+    private final Executor executor;
+
+    private Pipeline(List<String> inputs, List<Stage> stages, Set<String> outputs, Executor executor) {
+        this.inputs = inputs;
+        this.stages = stages;
+        this.outputs = outputs;
+        this.executor = executor;
+    }
+
+    /**
+     * @return The stages which are run, after fusion, in an order in which each comes after the stages it reads
+     */
+    public List<Stage> getStages() {
+        return stages;
+    }
+
+    public Set<String> getOutputs() {
+        return outputs;
+    }
+
+    public Map<String, Object> run(Map<String, ?> inputValues) throws Exception {
+        return run(inputValues, null);
+    }
+
+    /**
+     * Runs the pipeline and waits for it to finish. When the waiting thread is interrupted, the run is cancelled,
+     * see {@link #start(Map, StageListener)}.
+     *
+     * @param inputValues The value of every input of the pipeline
+     * @param listener    Notified of every completed stage, including those whose values are not outputs. May be
+     *                    null.
+     * @return The output values by name
+     * @throws Exception The exception of the first stage which failed
+     */
+    public Map<String, Object> run(Map<String, ?> inputValues, StageListener listener) throws Exception {
+        CompletableFuture<Map<String, Object>> run = start(inputValues, listener);
+        try {
+            return run.get();
+        } catch (InterruptedException e) {
+            run.cancel(true);
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) throw (Exception) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw e;
+        }
+    }
+
+    /**
+     * Starts the pipeline without waiting for it.
+     * <p>
+     * Cancelling the future cancels the run: stages which have not started yet are not run, and the listener is
+     * not notified of any stage after that. A stage which is running is not interrupted, but its value is dropped.
+     * The first stage to fail ends the run in the same way, with its exception.
+     *
+     * @param inputValues The value of every input of the pipeline
+     * @param listener    Notified of every completed stage, including those whose values are not outputs. May be
+     *                    null.
+     * @return The output values by name, once every stage has completed
+     */
+    public CompletableFuture<Map<String, Object>> start(Map<String, ?> inputValues, final StageListener listener) {
+        final ConcurrentHashMap<String, Object> values = new ConcurrentHashMap<String, Object>();
+        final Map<String, AtomicInteger> remainingReaders = new HashMap<String, AtomicInteger>();
+        for (String input : inputs) {
+            if (!inputValues.containsKey(input) || inputValues.get(input) == null)
+                throw new IllegalArgumentException("No value given for input " + input);
+            values.put(input, inputValues.get(input));
+            remainingReaders.put(input, new AtomicInteger());
+        }
+        for (Stage stage : stages) {
+            remainingReaders.put(stage.getOutput(), new AtomicInteger());
+        }
+        for (Stage stage : stages) {
+            for (String input : stage.getInputs()) {
+                remainingReaders.get(input).incrementAndGet();
+            }
+        }
+
+        final CompletableFuture<Map<String, Object>> run = new CompletableFuture<Map<String, Object>>();
+        Map<String, CompletableFuture<Void>> completions = new HashMap<String, CompletableFuture<Void>>();
+        for (String input : inputs) {
+            completions.put(input, CompletableFuture.<Void>completedFuture(null));
+        }
+        List<CompletableFuture<Void>> all = new ArrayList<CompletableFuture<Void>>();
+        for (final Stage stage : stages) {
+            CompletableFuture<?>[] dependencies = new CompletableFuture<?>[stage.getInputs().size()];
+            for (int i = 0; i < dependencies.length; i++) {
+                dependencies[i] = completions.get(stage.getInputs().get(i));
+            }
+            CompletableFuture<Void> completion = CompletableFuture.allOf(dependencies).thenRunAsync(new Runnable() {
+                public void run() {
+                    // Cancelled, or another stage has failed
+                    if (run.isDone()) return;
+                    Object[] arguments = new Object[stage.getInputs().size()];
+                    for (int i = 0; i < arguments.length; i++) {
+                        arguments[i] = values.get(stage.getInputs().get(i));
+                    }
+                    try {
+                        Object result = stage.process(arguments);
+                        if (result == null) throw new IllegalStateException("Stage " + stage + " produced no value");
+                        if (run.isDone()) return;
+                        values.put(stage.getOutput(), result);
+                        // Drop the inputs nothing else is going to read
+                        for (String input : stage.getInputs()) {
+                            if (remainingReaders.get(input).decrementAndGet() == 0 && !outputs.contains(input)) {
+                                values.remove(input);
+                            }
+                        }
+                        if (listener != null && !run.isDone()) listener.onStageCompleted(stage.getOutput(), result);
+                    } catch (Throwable e) {
+                        run.completeExceptionally(e);
+                    }
+                }
+            }, executor != null ? executor : StripeExecutor.getPool());
+            completions.put(stage.getOutput(), completion);
+            all.add(completion);
+        }
+
+        CompletableFuture.allOf(all.toArray(new CompletableFuture<?>[all.size()])).thenRun(new Runnable() {
+            public void run() {
+                Map<String, Object> results = new HashMap<String, Object>();
+                for (String output : outputs) {
+                    results.put(output, values.get(output));
+                }
+                run.complete(results);
+            }
+        });
+        return run;
+    }
+
+    /**
+     * Builds a {@link Pipeline}.
+     */
+    public static class Builder {
+        private final List<String> inputs = new ArrayList<String>();
+        private final List<Stage> stages = new ArrayList<Stage>();
+        private final Set<String> outputs = new LinkedHashSet<String>();
+        private final Set<String> names = new LinkedHashSet<String>();
+        private Executor executor;
+
+        /**
+         * Declares values which are given when the pipeline is run.
+         */
+        public Builder input(String... names) {
+            for (String name : names) {
+                declare(name);
+                inputs.add(name);
+            }
+            return this;
+        }
+
+        /**
+         * Adds a stage. All the values it reads must have been declared already.
+         */
+        public Builder stage(Stage stage) {
+            for (String input : stage.getInputs()) {
+                if (!names.contains(input))
+                    throw new IllegalArgumentException("Stage " + stage + " reads undeclared value " + input);
+            }
+            declare(stage.getOutput());
+            stages.add(stage);
+            return this;
+        }
+
+        /**
+         * Declares values to be returned by {@link Pipeline#run}. When no outputs are declared, the values which
+         * are not read by any stage are the outputs.
+         */
+        public Builder output(String... names) {
+            outputs.addAll(Arrays.asList(names));
+            return this;
+        }
+
+        /**
+         * Sets the executor the stages are run on. Defaults to the current pool of {@link StripeExecutor}.
+         */
+        public Builder executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        public Pipeline build() {
+            Set<String> outputs = new LinkedHashSet<String>(this.outputs);
+            if (outputs.isEmpty()) {
+                outputs.addAll(names);
+                for (Stage stage : stages) {
+                    outputs.removeAll(stage.getInputs());
+                }
+            }
+            for (String output : outputs) {
+                if (!names.contains(output)) throw new IllegalArgumentException("Undeclared output " + output);
+            }
+            return new Pipeline(Collections.unmodifiableList(new ArrayList<String>(inputs)),
+                    Collections.unmodifiableList(fuse(stages, outputs)), Collections.unmodifiableSet(outputs),
+                    executor);
+        }
+
+        private void declare(String name) {
+            if (!names.add(name)) throw new IllegalArgumentException("Value " + name + " is declared twice");
+        }
+
+        /**
+         * Folds every pixel stage into the pixel stage it reads from, when nothing else needs the value in
+         * between.
+         */
+        private static List<Stage> fuse(List<Stage> stages, Set<String> outputs) {
+            Map<String, Integer> readers = new HashMap<String, Integer>();
+            for (Stage stage : stages) {
+                for (String input : stage.getInputs()) {
+                    Integer count = readers.get(input);
+                    readers.put(input, count == null ? 1 : count + 1);
+                }
+            }
+
+            List<Stage> fused = new ArrayList<Stage>(stages);
+            for (int i = 0; i < fused.size(); i++) {
+                if (!(fused.get(i) instanceof PixelStage)) continue;
+                PixelStage stage = (PixelStage) fused.get(i);
+                String input = stage.getInputs().get(0);
+                if (outputs.contains(input) || readers.get(input) != 1) continue;
+                for (int j = 0; j < i; j++) {
+                    Stage producer = fused.get(j);
+                    if (producer.getOutput().equals(input) && producer instanceof PixelStage
+                            && ((PixelStage) producer).canFuse(stage)) {
+                        // The fused stage takes the place of the later one, after everything either reads
+                        fused.set(i, ((PixelStage) producer).fuse(stage));
+                        fused.remove(j);
+                        i--;
+                        break;
+                    }
+                }
+            }
+            return fused;
+        }
+    }
+}
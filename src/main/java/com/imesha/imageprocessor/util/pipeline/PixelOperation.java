@@ -0,0 +1,18 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 imesha
+ */
+
+package com.imesha.imageprocessor.util.pipeline;
+
+/**
+ * A point operation on 8 bit gray samples: the new value of a pixel only depends on its old value. Such operations
+ * are tabulated, so adjacent ones in a pipeline are run as a single pass over the image.
+ */
+public interface PixelOperation {
+    /**
+     * @param sample The sample, 0 - 255
+     * @return The new sample, 0 - 255
+     */
+    int apply(int sample);
+}
@@ -0,0 +1,103 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 imesha
+ */
+
+package com.imesha.imageprocessor.util.pipeline;
+
+import com.imesha.imageprocessor.util.ImageConverter;
+import com.imesha.imageprocessor.util.PixelAccess;
+import com.imesha.imageprocessor.util.RowKernels;
+import com.imesha.imageprocessor.util.StripeExecutor;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A stage producing a gray scale image pixel by pixel from a single input image: optionally the gray scale
+ * conversion of {@link ImageConverter}, followed by any number of
+ * {@link PixelOperation}s. {@link Pipeline} fuses chains of these stages into one, so the chain makes a single pass
+ * and a single image.
+ */
+final class PixelStage extends Stage {
+    private final boolean convertsToGray;
+    private final List<PixelOperation> operations;
+
+    PixelStage(String output, String input, boolean convertsToGray, List<PixelOperation> operations) {
+        super(output, input);
+        this.convertsToGray = convertsToGray;
+        this.operations = Collections.unmodifiableList(new ArrayList<PixelOperation>(operations));
+    }
+
+    /**
+     * @return true if the given stage, reading the output of this one, can be folded into this one
+     */
+    boolean canFuse(PixelStage next) {
+        return !next.convertsToGray;
+    }
+
+    /**
+     * @return A stage doing the work of this stage and then of the next, which reads the output of this one
+     */
+    PixelStage fuse(PixelStage next) {
+        List<PixelOperation> fused = new ArrayList<PixelOperation>(operations);
+        fused.addAll(next.operations);
+        return new PixelStage(next.getOutput(), getInputs().get(0), convertsToGray, fused);
+    }
+
+    @Override
+    protected Object process(Object[] inputs) {
+        final BufferedImage source = (BufferedImage) inputs[0];
+        final int width = source.getWidth();
+        int height = source.getHeight();
+
+        // Tabulate the operations. Gray levels computed by the conversion are stored as setRGB would store them.
+        final byte[] table = new byte[256];
+        for (int value = 0; value < 256; value++) {
+            int sample = convertsToGray ? PixelAccess.toGraySample(value) & 0xFF : value;
+            for (PixelOperation operation : operations) {
+                sample = operation.apply(sample);
+            }
+            table[value] = (byte) sample;
+        }
+
+        BufferedImage result = PixelAccess.createGrayImage(width, height);
+        final PixelAccess.Band target = PixelAccess.band(result, 0);
+        final byte[] targetData = target.getData();
+        if (convertsToGray) {
+            final PixelAccess.RgbRows rgbRows = PixelAccess.rgbRows(source);
+            StripeExecutor.StripeTask task = new StripeExecutor.StripeTask() {
+                public void process(int fromRow, int toRow) {
+                    int[] row = new int[width];
+                    for (int j = fromRow; j < toRow; j++) {
+                        rgbRows.getRow(j, row);
+                        RowKernels.toGrayLevels(row, row, width);
+                        int index = target.index(0, j);
+                        for (int i = 0; i < width; i++) {
+                            targetData[index++] = table[row[i]];
+                        }
+                    }
+                }
+            };
+            if (rgbRows.isDirect()) StripeExecutor.forEachStripe(width, height, task);
+            else task.process(0, height);
+        } else {
+            final PixelAccess.Band band = PixelAccess.band(source, 0);
+            StripeExecutor.forEachStripe(width, height, new StripeExecutor.StripeTask() {
+                public void process(int fromRow, int toRow) {
+                    int[] row = new int[width];
+                    for (int j = fromRow; j < toRow; j++) {
+                        band.getRow(j, row);
+                        int index = target.index(0, j);
+                        for (int i = 0; i < width; i++) {
+                            targetData[index++] = table[row[i] & 0xFF];
+                        }
+                    }
+                }
+            });
+        }
+        return result;
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 imesha
+ */
+
+package com.imesha.imageprocessor.util.pipeline;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A step of a {@link Pipeline}. A stage reads the values with the names of its inputs and produces one value, named
+ * by its output. Stages must not modify their inputs, since the same value may be read by other stages at the same
+ * time.
+ */
+public abstract class Stage {
+    private final String output;
+    private final List<String> inputs;
+
+    /**
+     * @param output The name of the value the stage produces
+     * @param inputs The names of the values the stage reads, in the order they are passed to {@link #process}
+     */
+    protected Stage(String output, String... inputs) {
+        this.output = output;
+        this.inputs = Collections.unmodifiableList(Arrays.asList(inputs.clone()));
+    }
+
+    public String getOutput() {
+        return output;
+    }
+
+    public List<String> getInputs() {
+        return inputs;
+    }
+
+    /**
+     * Produces the output of the stage.
+     *
+     * @param inputs The values of the inputs, in the order they were declared
+     * @return The output value, never null
+     * @throws Exception If the stage fails, which fails the whole pipeline run
+     */
+    protected abstract Object process(Object[] inputs) throws Exception;
+
+    @Override
+    public String toString() {
+        return output + " <- " + inputs;
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 imesha
+ */
+
+package com.imesha.imageprocessor.util.pipeline;
+
+import com.imesha.imageprocessor.util.ImageAnalyser;
+import com.imesha.imageprocessor.util.ImageSampler;
+import com.imesha.imageprocessor.util.QualityMetrics;
+import com.imesha.imageprocessor.util.Resampler;
+import com.imesha.imageprocessor.util.cache.ResultCache;
+import com.imesha.imageprocessor.util.compression.CompressedImage;
+import com.imesha.imageprocessor.util.compression.ImageCompressor;
+
+import java.awt.image.BufferedImage;
+import java.util.Collections;
+
+/**
+ * Stages for the operations of com.imesha.imageprocessor.util. The first argument of every method is the name of
+ * the value the stage produces, the rest are the names of the values it reads. The stages which compare two images
+ * compare the part they have in common, so that an odd sized image can be compared with its up sampled image.
+ */
+public final class Stages {
+
+    private Stages() {
+    }
+
+    /**
+     * @see com.imesha.imageprocessor.util.ImageConverter#convertToGrayScale(BufferedImage)
+     */
+    public static Stage grayScale(String output, String image) {
+        return new PixelStage(output, image, true, Collections.<PixelOperation>emptyList());
+    }
+
+    /**
+     * Applies a point operation to the first band of a gray scale image.
+     */
+    public static Stage map(String output, String image, PixelOperation operation) {
+        return new PixelStage(output, image, false, Collections.singletonList(operation));
+    }
+
+    /**
+     * @see ImageSampler#downSample(BufferedImage)
+     */
+    public static Stage downSample(String output, String image) {
+        return new Stage(output, image) {
+            protected Object process(Object[] inputs) throws Exception {
+                return ImageSampler.downSample((BufferedImage) inputs[0]);
+            }
+        };
+    }
+
+    /**
+     * @see ImageSampler#upSample(BufferedImage)
+     */
+    public static Stage upSample(String output, String image) {
+        return new Stage(output, image) {
+            protected Object process(Object[] inputs) {
+                return ImageSampler.upSample((BufferedImage) inputs[0]);
+            }
+        };
+    }
+
+    /**
+     * @see Resampler#resample(BufferedImage, int, int, Resampler.Filter)
+     */
+    public static Stage resample(String output, String image, final int width, final int height,
+                                 final Resampler.Filter filter) {
+        return new Stage(output, image) {
+            protected Object process(Object[] inputs) {
+                return Resampler.resample((BufferedImage) inputs[0], width, height, filter);
+            }
+        };
+    }
+
+    /**
+     * Produces a Double.
+     *
+     * @see ImageAnalyser#calculateAverageDistortion(BufferedImage, BufferedImage)
+     */
+    public static Stage averageDistortion(String output, String originalImage, String modifiedImage) {
+        return new Stage(output, originalImage, modifiedImage) {
+            protected Object process(Object[] inputs) throws Exception {
+                BufferedImage[] images = commonRegion(inputs);
+                return ImageAnalyser.calculateAverageDistortion(images[0], images[1]);
+            }
+        };
+    }
+
+    /**
+     * Produces a Double.
+     *
+     * @see ImageAnalyser#calculateStandardDeviation(BufferedImage, BufferedImage)
+     */
+    public static Stage standardDeviation(String output, String originalImage, String modifiedImage) {
+        return new Stage(output, originalImage, modifiedImage) {
+            protected Object process(Object[] inputs) throws Exception {
+                BufferedImage[] images = commonRegion(inputs);
+                return ImageAnalyser.calculateStandardDeviation(images[0], images[1]);
+            }
+        };
+    }
+
+    /**
+     * Produces a {@link QualityMetrics}.
+     *
+     * @see ImageAnalyser#calculateMetrics(BufferedImage, BufferedImage)
+     */
+    public static Stage metrics(String output, String originalImage, String modifiedImage) {
+        return new Stage(output, originalImage, modifiedImage) {
+            protected Object process(Object[] inputs) throws Exception {
+                BufferedImage[] images = commonRegion(inputs);
+                return ImageAnalyser.calculateMetrics(images[0], images[1]);
+            }
+        };
+    }
+
+    /**
+     * Produces a Double.
+     *
+     * @see ImageAnalyser#calculateStructuralSimilarity(BufferedImage, BufferedImage)
+     */
+    public static Stage structuralSimilarity(String output, String originalImage, String modifiedImage) {
+        return new Stage(output, originalImage, modifiedImage) {
+            protected Object process(Object[] inputs) throws Exception {
+                BufferedImage[] images = commonRegion(inputs);
+                return ImageAnalyser.calculateStructuralSimilarity(images[0], images[1]);
+            }
+        };
+    }
+
+    /**
+     * Gives the part the two images being compared have in common, from their top left corners. An up sampled
+     * image lacks the last row and column of an odd sized original, which are left out of the comparison, as they
+     * were left out of the down sampled image.
+     */
+    private static BufferedImage[] commonRegion(Object[] inputs) {
+        BufferedImage original = (BufferedImage) inputs[0];
+        BufferedImage modified = (BufferedImage) inputs[1];
+        int width = Math.min(original.getWidth(), modified.getWidth());
+        int height = Math.min(original.getHeight(), modified.getHeight());
+        return new BufferedImage[]{crop(original, width, height), crop(modified, width, height)};
+    }
+
+    private static BufferedImage crop(BufferedImage image, int width, int height) {
+        if (image.getWidth() == width && image.getHeight() == height) return image;
+        return image.getSubimage(0, 0, width, height);
+    }
+
+    /**
+     * Produces a {@link CompressedImage}.
+     */
+    public static Stage compress(String output, String image, final ImageCompressor compressor) {
+        return new Stage(output, image) {
+            protected Object process(Object[] inputs) {
+                return compressor.compress((BufferedImage) inputs[0]);
+            }
+        };
+    }
+
+    /**
+     * Decompresses a {@link CompressedImage}.
+     */
+    public static Stage decompress(String output, String compressedImage, final ImageCompressor compressor) {
+        return new Stage(output, compressedImage) {
+            protected Object process(Object[] inputs) {
+                return compressor.decompress((CompressedImage) inputs[0]);
+            }
+        };
+    }
+
+    /**
+     * Caches the output of a stage by the content of its inputs, so that it only runs for inputs it has not seen.
+     * The output must not be modified by later stages, since it is shared with the cache.
+     *
+     * @param stage      The stage
+     * @param cache      The cache
+     * @param parameters What the stage computes, eg: the name of its operation and its settings. Stages given the
+     *                   same parameters share their results for the same inputs.
+     */
+    public static Stage cached(Stage stage, ResultCache cache, String parameters) {
+        return new CachedStage(stage, cache, parameters);
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 imesha
+ */
+
+package com.imesha.imageprocessor.util;
+
+import com.imesha.imageprocessor.util.compression.ImageCompressor;
+import com.imesha.imageprocessor.util.compression.PredictiveCodingCompressor;
+import com.imesha.imageprocessor.util.compression.StripedImageReader;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Processes images of the formats read region by region and of those read in one pass, and checks that the strips
+ * put together are the gray scale image of the whole source.
+ */
+public class StripProcessorTest {
+    private static final int WIDTH = 150;
+    private static final int HEIGHT = 101;
+    private static final int STRIP_HEIGHT = 16;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ImageCompressor compressor = new PredictiveCodingCompressor();
+
+    @Test
+    public void png() throws Exception {
+        assertProcessed(write("png", false));
+    }
+
+    @Test
+    public void jpeg() throws Exception {
+        assertProcessed(write("jpeg", false));
+    }
+
+    @Test
+    public void bmp() throws Exception {
+        assertProcessed(write("bmp", false));
+    }
+
+    @Test
+    public void tiff() throws Exception {
+        // There is no TIFF writer before Java 9
+        assumeTrue(ImageIO.getImageWritersByFormatName("tiff").hasNext());
+        assertProcessed(write("tiff", false));
+    }
+
+    @Test
+    public void interlacedPngFailsBeforeAnyStrip() throws Exception {
+        File file = write("png", true);
+        final boolean[] called = {false};
+        try {
+            new StripProcessor(STRIP_HEIGHT).process(file, compressor, new ByteArrayOutputStream(),
+                    new StripProcessor.StripListener() {
+                        public void onStrip(int y, BufferedImage grayStrip, BufferedImage downSampledStrip) {
+                            called[0] = true;
+                        }
+                    });
+            throw new AssertionError("An interlaced image was processed");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("interlaced"));
+        }
+        assertFalse(called[0]);
+    }
+
+    private void assertProcessed(File file) throws Exception {
+        BufferedImage expected = ImageConverter.convertToGrayScale(ImageIO.read(file));
+        final BufferedImage strips = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_GRAY);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new StripProcessor(STRIP_HEIGHT).process(file, compressor, out, new StripProcessor.StripListener() {
+            public void onStrip(int y, BufferedImage grayStrip, BufferedImage downSampledStrip) {
+                strips.getRaster().setRect(0, y, grayStrip.getRaster());
+            }
+        });
+        assertSameSamples(expected.getRaster(), strips.getRaster());
+
+        StripedImageReader reader = new StripedImageReader(new ByteArrayInputStream(out.toByteArray()), compressor);
+        while (reader.hasNextStrip()) {
+            int y = reader.getNextStripY();
+            BufferedImage strip = reader.readStrip();
+            assertSameSamples(expected.getRaster().createChild(0, y, WIDTH, strip.getHeight(), 0, 0, null),
+                    strip.getRaster());
+        }
+    }
+
+    private File write(String format, boolean interlaced) throws IOException {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_3BYTE_BGR);
+        Random random = new Random(7);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                image.setRGB(x, y, (x * 2 << 16 | y * 2 << 8 | (x + y)) + random.nextInt(4));
+            }
+        }
+        File file = folder.newFile("image." + format);
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(format);
+        ImageWriter writer = writers.next();
+        ImageOutputStream out = ImageIO.createImageOutputStream(file);
+        try {
+            writer.setOutput(out);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            if (param.canWriteProgressive()) {
+                param.setProgressiveMode(interlaced ? ImageWriteParam.MODE_DEFAULT : ImageWriteParam.MODE_DISABLED);
+            }
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+            out.close();
+        }
+        return file;
+    }
+
+    private static void assertSameSamples(Raster expected, Raster actual) {
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                int expectedSample = expected.getSample(expected.getMinX() + x, expected.getMinY() + y, 0);
+                int actualSample = actual.getSample(actual.getMinX() + x, actual.getMinY() + y, 0);
+                if (expectedSample != actualSample)
+                    assertEquals("sample at " + x + ", " + y, expectedSample, actualSample);
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 imesha
+ */
+
+package com.imesha.imageprocessor.util.compression;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Feeds the bit plane decoder runs which do not fit their line, which it must reject rather than write outside the
+ * line or loop on. Tall images are decoded by reading the planes ahead, short ones while reading them, so both are
+ * tried.
+ */
+public class BitPlaneCodingCompressorTest {
+    // Gray coded levels, row scan
+    private static final int FLAGS = 3;
+    private static final int RUNS = 0;
+
+    private final BitPlaneCodingCompressor compressor = new BitPlaneCodingCompressor();
+
+    @Test
+    public void runOfTheWholeLine() throws IOException {
+        // The data is otherwise well formed
+        decode(16, 8, 16);
+        decode(16, 4096, 16);
+    }
+
+    @Test
+    public void negativeRunLength() throws IOException {
+        assertRejected(16, 8, -1);
+    }
+
+    @Test
+    public void negativeRunLengthOfTallImage() throws IOException {
+        assertRejected(16, 4096, -1);
+    }
+
+    @Test
+    public void runLongerThanTheLine() throws IOException {
+        assertRejected(16, 8, 17);
+    }
+
+    @Test
+    public void runLongerThanTheLineOfTallImage() throws IOException {
+        assertRejected(16, 4096, 17);
+    }
+
+    @Test(expected = IOException.class)
+    public void unknownFlags() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new CompressionHeader(CodecRegistry.RUN_LENGTH_CODING, BitPlaneCodingCompressor.VERSION, 4, 4).writeTo(out);
+        out.write(0x80);
+        compressor.decompress(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    private void assertRejected(int width, int height, int run) throws IOException {
+        try {
+            decode(width, height, run);
+            fail("A run of " + run + " in a line of " + width + " was decoded");
+        } catch (IOException e) {
+            assertEquals("Run exceeds the line length", e.getMessage());
+        }
+    }
+
+    /**
+     * Decodes an image of which the first line of the top plane is the given run of 1s, and every other line of
+     * every plane a run of 0s.
+     */
+    private void decode(int width, int height, int run) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new CompressionHeader(CodecRegistry.RUN_LENGTH_CODING, BitPlaneCodingCompressor.VERSION, width, height)
+                .writeTo(out);
+        out.write(FLAGS);
+        for (int plane = 7; plane >= 0; plane--) {
+            out.write(RUNS);
+            for (int line = 0; line < height; line++) {
+                if (plane == 7 && line == 0) {
+                    writeVarInt(out, run);
+                } else {
+                    out.write(0);
+                    writeVarInt(out, width);
+                }
+            }
+        }
+        compressor.decompress(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 imesha
+ */
+
+package com.imesha.imageprocessor.util.compression;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compresses and decompresses images with every built in codec, gray scale ones as well as colour ones, which are
+ * coded plane by plane, and checks that every sample comes back.
+ */
+@RunWith(Parameterized.class)
+public class CompressorRoundTripTest {
+
+    @Parameterized.Parameters(name = "{0}")
+    public static List<Object[]> compressors() {
+        return Arrays.asList(
+                new Object[]{"huffman", new HuffmanCodingCompressor()},
+                new Object[]{"predictive", new PredictiveCodingCompressor()},
+                new Object[]{"predictive without colour transform", new PredictiveCodingCompressor(
+                        ColorTransform.NONE)},
+                new Object[]{"bit plane", new BitPlaneCodingCompressor()},
+                new Object[]{"bit plane binary columns", new BitPlaneCodingCompressor(false,
+                        BitPlaneCodingCompressor.ScanOrder.COLUMNS)});
+    }
+
+    private final ImageCompressor compressor;
+
+    public CompressorRoundTripTest(String name, ImageCompressor compressor) {
+        this.compressor = compressor;
+    }
+
+    @Test
+    public void grayScale() {
+        BufferedImage image = TestImages.create(67, 45, BufferedImage.TYPE_BYTE_GRAY);
+        TestImages.assertSameSamples(image, compressor.decompress(compressor.compress(image)));
+    }
+
+    @Test
+    public void singlePixel() {
+        BufferedImage image = TestImages.create(1, 1, BufferedImage.TYPE_BYTE_GRAY);
+        TestImages.assertSameSamples(image, compressor.decompress(compressor.compress(image)));
+    }
+
+    @Test
+    public void flat() {
+        BufferedImage image = new BufferedImage(40, 30, BufferedImage.TYPE_BYTE_GRAY);
+        TestImages.assertSameSamples(image, compressor.decompress(compressor.compress(image)));
+    }
+
+    @Test
+    public void tallEnoughForParallelDecoding() {
+        BufferedImage image = TestImages.create(16, 4096, BufferedImage.TYPE_BYTE_GRAY);
+        TestImages.assertSameSamples(image, compressor.decompress(compressor.compress(image)));
+    }
+
+    @Test
+    public void colour() {
+        BufferedImage image = TestImages.create(53, 38, BufferedImage.TYPE_3BYTE_BGR);
+        BufferedImage decompressed = compressor.decompress(compressor.compress(image));
+        assertEquals(BufferedImage.TYPE_3BYTE_BGR, decompressed.getType());
+        TestImages.assertSameSamples(image, decompressed);
+    }
+
+    @Test
+    public void colourWithAlpha() {
+        BufferedImage image = TestImages.create(31, 29, BufferedImage.TYPE_INT_ARGB);
+        TestImages.assertSameSamples(image, compressor.decompress(compressor.compress(image)));
+    }
+
+    @Test
+    public void stream() throws IOException {
+        BufferedImage image = TestImages.create(50, 20, BufferedImage.TYPE_BYTE_GRAY);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        compressor.compress(image, out);
+        TestImages.assertSameSamples(image, compressor.decompress(new ByteArrayInputStream(out.toByteArray())));
+    }
+
+    @Test
+    public void registryPicksTheCodecFromTheData() throws IOException {
+        BufferedImage image = TestImages.create(20, 20, BufferedImage.TYPE_3BYTE_BGR);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        compressor.compress(image, out);
+        BufferedImage decompressed = CodecRegistry.getDefault().decompress(
+                new ByteArrayInputStream(out.toByteArray()));
+        TestImages.assertSameSamples(image, decompressed);
+    }
+
+    @Test(expected = IOException.class)
+    public void truncated() throws IOException {
+        BufferedImage image = TestImages.create(50, 20, BufferedImage.TYPE_BYTE_GRAY);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        compressor.compress(image, out);
+        compressor.decompress(new ByteArrayInputStream(out.toByteArray(), 0, out.size() / 2));
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 imesha
+ */
+
+package com.imesha.imageprocessor.util.compression;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+/**
+ * Writes and reads images in the striped container, and feeds the reader headers and strips which do not hold
+ * together, which it must reject with an {@link IOException}.
+ */
+public class StripedImageTest {
+    private static final int WIDTH = 70;
+    private static final int HEIGHT = 45;
+    private static final int STRIP_HEIGHT = 16;
+
+    private final ImageCompressor compressor = new HuffmanCodingCompressor();
+
+    @Test
+    public void grayScale() throws IOException {
+        roundTrip(TestImages.create(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_GRAY));
+    }
+
+    @Test
+    public void colour() throws IOException {
+        roundTrip(TestImages.create(WIDTH, HEIGHT, BufferedImage.TYPE_3BYTE_BGR));
+    }
+
+    @Test
+    public void negativeStripLength() throws IOException {
+        ByteArrayOutputStream out = header(WIDTH, HEIGHT, STRIP_HEIGHT);
+        writeVarInt(out, -1);
+        assertRejected(out.toByteArray(), "Invalid strip length -1");
+    }
+
+    @Test
+    public void stripOfTheWrongSize() throws IOException {
+        ByteArrayOutputStream out = header(WIDTH, HEIGHT, STRIP_HEIGHT);
+        ByteArrayOutputStream strip = new ByteArrayOutputStream();
+        compressor.compress(TestImages.create(WIDTH, STRIP_HEIGHT + 2, BufferedImage.TYPE_BYTE_GRAY), strip);
+        writeVarInt(out, strip.size());
+        strip.writeTo(out);
+        assertRejected(out.toByteArray(), "Unexpected strip size 70x18");
+    }
+
+    @Test
+    public void stripLongerThanTheData() throws IOException {
+        byte[] data = write(TestImages.create(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_GRAY));
+        assertRejected(Arrays.copyOf(data, data.length - 10), "Unexpected end of compressed data");
+    }
+
+    @Test
+    public void invalidSize() throws IOException {
+        assertRejected(header(0, HEIGHT, STRIP_HEIGHT).toByteArray(), "Invalid image size 0x45");
+    }
+
+    @Test
+    public void invalidStripHeight() throws IOException {
+        assertRejected(header(WIDTH, HEIGHT, 0).toByteArray(), "Invalid strip height 0");
+    }
+
+    @Test
+    public void notAStripedImage() throws IOException {
+        assertRejected(new byte[]{'I', 'P', 'T', 1}, "Not a striped image");
+    }
+
+    @Test(expected = IOException.class)
+    public void noStripsLeft() throws IOException {
+        StripedImageReader reader = new StripedImageReader(new ByteArrayInputStream(write(
+                TestImages.create(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_GRAY))), compressor);
+        while (reader.hasNextStrip()) {
+            reader.readStrip();
+        }
+        reader.readStrip();
+    }
+
+    private void roundTrip(BufferedImage image) throws IOException {
+        StripedImageReader reader = new StripedImageReader(new ByteArrayInputStream(write(image)), compressor);
+        assertEquals(WIDTH, reader.getWidth());
+        assertEquals(HEIGHT, reader.getHeight());
+        for (int y = 0; y < HEIGHT; y += STRIP_HEIGHT) {
+            assertEquals(y, reader.getNextStripY());
+            TestImages.assertSameSamples(image.getSubimage(0, y, WIDTH, Math.min(STRIP_HEIGHT, HEIGHT - y)),
+                    reader.readStrip());
+        }
+        assertFalse(reader.hasNextStrip());
+    }
+
+    private byte[] write(BufferedImage image) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StripedImageWriter writer = new StripedImageWriter(out, compressor, image.getWidth(), image.getHeight(),
+                STRIP_HEIGHT);
+        for (int y = 0; y < image.getHeight(); y += STRIP_HEIGHT) {
+            writer.writeStrip(image.getSubimage(0, y, image.getWidth(),
+                    Math.min(STRIP_HEIGHT, image.getHeight() - y)));
+        }
+        writer.finish();
+        return out.toByteArray();
+    }
+
+    private void assertRejected(byte[] data, String message) {
+        try {
+            StripedImageReader reader = new StripedImageReader(new ByteArrayInputStream(data), compressor);
+            while (reader.hasNextStrip()) {
+                reader.readStrip();
+            }
+            fail("Read a corrupted striped image");
+        } catch (IOException e) {
+            assertEquals(message, e.getMessage());
+        }
+    }
+
+    private static ByteArrayOutputStream header(int width, int height, int stripHeight) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write('I');
+        out.write('P');
+        out.write('S');
+        out.write(StripedImageWriter.VERSION);
+        writeVarInt(out, width);
+        writeVarInt(out, height);
+        writeVarInt(out, stripHeight);
+        return out;
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+}
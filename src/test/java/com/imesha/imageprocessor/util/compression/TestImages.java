@@ -0,0 +1,68 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 imesha
+ */
+
+package com.imesha.imageprocessor.util.compression;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Images for the compression tests, and the comparison of their samples.
+ */
+final class TestImages {
+
+    private TestImages() {
+    }
+
+    /**
+     * Creates an image of smooth gradients with some noise and a flat block, which exercises the runs, the
+     * predictions and the raw planes of the codecs alike.
+     *
+     * @param type The BufferedImage type, eg: TYPE_BYTE_GRAY or TYPE_3BYTE_BGR
+     */
+    static BufferedImage create(int width, int height, int type) {
+        BufferedImage image = new BufferedImage(width, height, type);
+        WritableRaster raster = image.getRaster();
+        Random random = new Random(width * 31L + height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                for (int band = 0; band < raster.getNumBands(); band++) {
+                    int sample;
+                    if (x < width / 4 && y < height / 4) {
+                        sample = 200;
+                    } else {
+                        sample = (x * (band + 1) + y * 2 + random.nextInt(8)) & 0xFF;
+                    }
+                    raster.setSample(x, y, band, sample);
+                }
+            }
+        }
+        return image;
+    }
+
+    static void assertSameSamples(BufferedImage expected, BufferedImage actual) {
+        assertSameSamples(expected.getRaster(), actual.getRaster());
+    }
+
+    static void assertSameSamples(Raster expected, Raster actual) {
+        assertEquals("width", expected.getWidth(), actual.getWidth());
+        assertEquals("height", expected.getHeight(), actual.getHeight());
+        assertEquals("bands", expected.getNumBands(), actual.getNumBands());
+        for (int band = 0; band < expected.getNumBands(); band++) {
+            for (int y = 0; y < expected.getHeight(); y++) {
+                for (int x = 0; x < expected.getWidth(); x++) {
+                    int expectedSample = expected.getSample(expected.getMinX() + x, expected.getMinY() + y, band);
+                    int actualSample = actual.getSample(actual.getMinX() + x, actual.getMinY() + y, band);
+                    if (expectedSample != actualSample)
+                        assertEquals("sample of band " + band + " at " + x + ", " + y, expectedSample, actualSample);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 imesha
+ */
+
+package com.imesha.imageprocessor.util.compression;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Writes, reads and updates images in the tiled container, with tiles which do not divide the image evenly.
+ */
+public class TiledImageTest {
+    private static final int WIDTH = 300;
+    private static final int HEIGHT = 200;
+    private static final int TILE_WIDTH = 64;
+    private static final int TILE_HEIGHT = 48;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ImageCompressor compressor = new PredictiveCodingCompressor();
+
+    @Test
+    public void grayScale() throws IOException {
+        BufferedImage image = TestImages.create(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_GRAY);
+        File file = write(image);
+        TiledImageReader reader = new TiledImageReader(file, compressor);
+        try {
+            assertEquals(5, reader.getTilesAcross());
+            assertEquals(5, reader.getTilesDown());
+            TestImages.assertSameSamples(image, reader.readImage());
+            TestImages.assertSameSamples(image.getSubimage(50, 40, 150, 90), reader.readRegion(50, 40, 150, 90));
+            TestImages.assertSameSamples(image.getSubimage(256, 192, 44, 8), reader.readTile(4, 4));
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void colour() throws IOException {
+        BufferedImage image = TestImages.create(WIDTH, HEIGHT, BufferedImage.TYPE_3BYTE_BGR);
+        File file = write(image);
+        TiledImageReader reader = new TiledImageReader(file, compressor);
+        try {
+            TestImages.assertSameSamples(image, reader.readImage());
+            TestImages.assertSameSamples(image.getSubimage(10, 100, 70, 60), reader.readRegion(10, 100, 70, 60));
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void updateCompressesOnlyTheChangedTiles() throws IOException {
+        BufferedImage image = TestImages.create(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_GRAY);
+        File file = write(image);
+        TiledImageUpdater updater = new TiledImageUpdater(file, compressor);
+        try {
+            TileChangeTracker tracker = new TileChangeTracker(updater);
+            fill(image, 70, 50, 10, 10, 0);
+            tracker.markDirty(70, 50, 10, 10);
+            // Marked, but not changed
+            tracker.markDirty(0, 0, 1, 1);
+            assertEquals(1, updater.update(image, tracker.takeDirtyTiles()));
+            assertEquals(0, updater.update(image));
+        } finally {
+            updater.close();
+        }
+        assertContains(file, image);
+    }
+
+    @Test
+    public void compaction() throws IOException {
+        BufferedImage image = TestImages.create(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_GRAY);
+        File file = write(image);
+        TiledImageUpdater updater = new TiledImageUpdater(file, compressor);
+        try {
+            Random random = new Random(5);
+            for (int i = 0; i < 10; i++) {
+                fill(image, random.nextInt(WIDTH - 100), random.nextInt(HEIGHT - 100), 100, 100, i * 20);
+                updater.update(image);
+                assertContains(file, image);
+            }
+            updater.compact();
+            assertEquals(0, updater.getUnusedBytes());
+        } finally {
+            updater.close();
+        }
+        assertContains(file, image);
+    }
+
+    @Test
+    public void saveCutShortIsPassedOver() throws IOException {
+        BufferedImage image = TestImages.create(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_GRAY);
+        File file = write(image);
+        long length = file.length();
+        // The tiles and part of the index of a save which never wrote its trailer
+        byte[] unfinished = new byte[5000];
+        new Random(1).nextBytes(unfinished);
+        System.arraycopy(TiledImageWriter.END_MAGIC, 0, unfinished, 100, TiledImageWriter.END_MAGIC.length);
+        Files.write(file.toPath(), unfinished, StandardOpenOption.APPEND);
+        assertContains(file, image);
+
+        TiledImageUpdater updater = new TiledImageUpdater(file, compressor);
+        try {
+            assertEquals(length, file.length());
+            fill(image, 0, 0, WIDTH, 10, 1);
+            assertEquals(5, updater.update(image));
+        } finally {
+            updater.close();
+        }
+        assertContains(file, image);
+    }
+
+    private File write(BufferedImage image) throws IOException {
+        File file = folder.newFile();
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            TiledImageWriter writer = new TiledImageWriter(out, compressor, image.getWidth(), image.getHeight(),
+                    TILE_WIDTH, TILE_HEIGHT);
+            writer.writeImage(image);
+            writer.finish();
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private void assertContains(File file, BufferedImage image) throws IOException {
+        TiledImageReader reader = new TiledImageReader(file, compressor);
+        try {
+            TestImages.assertSameSamples(image, reader.readImage());
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static void fill(BufferedImage image, int x, int y, int width, int height, int sample) {
+        for (int j = y; j < y + height; j++) {
+            for (int i = x; i < x + width; i++) {
+                image.getRaster().setSample(i, j, 0, sample);
+            }
+        }
+    }
+}